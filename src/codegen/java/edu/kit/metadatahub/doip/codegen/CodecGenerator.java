@@ -0,0 +1,375 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.codegen;
+
+import com.google.gson.annotations.SerializedName;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates streaming Gson type adapters for the classes generated from the
+ * JSON schemas (build time only, see task 'generateCodecs' in build.gradle).
+ * The compiled classes are inspected once; the generated adapters access the
+ * properties via getters/setters and write/read them in the same way as
+ * Gson's reflective adapter (same names, same order, nulls as configured in
+ * Gson). Values of other types (strings, numbers, enums, dates, maps) are
+ * delegated to the adapters of Gson.
+ *
+ * Usage: CodecGenerator sourceDir resourceDir package rootClass...
+ */
+public final class CodecGenerator {
+
+  /**
+   * Simple name of the generated factory.
+   */
+  private static final String FACTORY_NAME = "StreamingTypeAdapterFactory";
+  /**
+   * Service file registering the factory.
+   */
+  private static final String SERVICE_FILE = "META-INF/services/com.google.gson.TypeAdapterFactory";
+
+  private final String codecPackage;
+  private final Set<String> modelPackages = new LinkedHashSet<>();
+  private final Map<Class<?>, List<Property>> models = new LinkedHashMap<>();
+
+  private CodecGenerator(String codecPackage) {
+    this.codecPackage = codecPackage;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 4) {
+      throw new IllegalArgumentException("Usage: CodecGenerator sourceDir resourceDir package rootClass...");
+    }
+    CodecGenerator generator = new CodecGenerator(args[2]);
+    List<Class<?>> roots = new ArrayList<>();
+    for (int index = 3; index < args.length; index++) {
+      Class<?> root = Class.forName(args[index], false, CodecGenerator.class.getClassLoader());
+      generator.modelPackages.add(root.getPackageName());
+      roots.add(root);
+    }
+    for (Class<?> root : roots) {
+      generator.collect(root);
+    }
+    generator.write(Paths.get(args[0]), Paths.get(args[1]));
+  }
+
+  /**
+   * Collect class and all classes of its properties.
+   */
+  private void collect(Type type) {
+    if (type instanceof ParameterizedType) {
+      for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+        collect(argument);
+      }
+    } else if (type instanceof WildcardType) {
+      for (Type bound : ((WildcardType) type).getUpperBounds()) {
+        collect(bound);
+      }
+    } else if (type instanceof GenericArrayType) {
+      collect(((GenericArrayType) type).getGenericComponentType());
+    } else if (type instanceof Class) {
+      Class<?> clazz = (Class<?>) type;
+      if (clazz.isArray()) {
+        collect(clazz.getComponentType());
+      } else if (isModel(clazz) && !models.containsKey(clazz)) {
+        List<Property> properties = properties(clazz);
+        models.put(clazz, properties);
+        for (Property property : properties) {
+          collect(property.field.getGenericType());
+        }
+      }
+    }
+  }
+
+  private boolean isModel(Class<?> clazz) {
+    return modelPackages.contains(clazz.getPackageName())
+            && !clazz.isEnum()
+            && !clazz.isInterface()
+            && !Modifier.isAbstract(clazz.getModifiers());
+  }
+
+  /**
+   * Properties of a class in the order used by Gson (fields of the class
+   * before fields of its super classes; static and transient fields are
+   * excluded).
+   */
+  private static List<Property> properties(Class<?> clazz) {
+    List<Property> properties = new ArrayList<>();
+    Set<String> names = new LinkedHashSet<>();
+    for (Class<?> raw = clazz; (raw != null) && (raw != Object.class); raw = raw.getSuperclass()) {
+      for (Field field : raw.getDeclaredFields()) {
+        if (field.isSynthetic() || ((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) != 0)) {
+          continue;
+        }
+        Property property = new Property(clazz, field);
+        for (String name : property.names) {
+          if (!names.add(name)) {
+            throw new IllegalStateException(clazz.getName() + " declares multiple JSON fields named '" + name + "'!");
+          }
+        }
+        properties.add(property);
+      }
+    }
+    return properties;
+  }
+
+  private void write(Path sourceDir, Path resourceDir) throws IOException {
+    Path packageDir = sourceDir.resolve(codecPackage.replace('.', '/'));
+    Files.createDirectories(packageDir);
+    for (Map.Entry<Class<?>, List<Property>> model : models.entrySet()) {
+      String adapterName = adapterName(model.getKey());
+      Files.write(packageDir.resolve(adapterName + ".java"), adapterSource(model.getKey(), model.getValue()).getBytes(StandardCharsets.UTF_8));
+    }
+    Files.write(packageDir.resolve(FACTORY_NAME + ".java"), factorySource().getBytes(StandardCharsets.UTF_8));
+    Path serviceFile = resourceDir.resolve(SERVICE_FILE);
+    Files.createDirectories(serviceFile.getParent());
+    Files.write(serviceFile, (codecPackage + "." + FACTORY_NAME + "\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String adapterName(Class<?> clazz) {
+    return clazz.getName().substring(clazz.getPackageName().length() + 1).replace('$', '_') + "TypeAdapter";
+  }
+
+  private String adapterSource(Class<?> clazz, List<Property> properties) {
+    String className = clazz.getCanonicalName();
+    String adapterName = adapterName(clazz);
+    StringBuilder source = new StringBuilder();
+    source.append("package ").append(codecPackage).append(";\n\n");
+    source.append("/**\n * Streaming type adapter for {@link ").append(className).append("}.\n");
+    source.append(" * Generated by ").append(CodecGenerator.class.getName()).append(" - do not edit.\n */\n");
+    source.append("final class ").append(adapterName).append(" extends com.google.gson.TypeAdapter<").append(className).append("> {\n\n");
+    for (Property property : properties) {
+      source.append("  private final com.google.gson.TypeAdapter<").append(boxed(property.type)).append("> ").append(property.adapterField()).append(";\n");
+    }
+    source.append("\n  ").append(adapterName).append("(com.google.gson.Gson gson) {\n");
+    for (Property property : properties) {
+      source.append("    ").append(property.adapterField()).append(" = gson.getAdapter(");
+      if (property.field.getGenericType() instanceof Class) {
+        source.append(boxed(property.type)).append(".class");
+      } else {
+        source.append("new com.google.gson.reflect.TypeToken<").append(property.type).append(">() { }");
+      }
+      source.append(");\n");
+    }
+    source.append("  }\n\n");
+    // write
+    source.append("  @Override\n");
+    source.append("  public void write(com.google.gson.stream.JsonWriter out, ").append(className).append(" value) throws java.io.IOException {\n");
+    source.append("    if (value == null) {\n      out.nullValue();\n      return;\n    }\n");
+    source.append("    out.beginObject();\n");
+    for (Property property : properties) {
+      source.append("    out.name(\"").append(property.names.get(0)).append("\");\n");
+      source.append("    ").append(property.adapterField()).append(".write(out, value.").append(property.getter.getName()).append("());\n");
+    }
+    source.append("    out.endObject();\n  }\n\n");
+    // read
+    source.append("  @Override\n");
+    source.append("  public ").append(className).append(" read(com.google.gson.stream.JsonReader in) throws java.io.IOException {\n");
+    source.append("    if (in.peek() == com.google.gson.stream.JsonToken.NULL) {\n      in.nextNull();\n      return null;\n    }\n");
+    source.append("    ").append(className).append(" value = new ").append(className).append("();\n");
+    source.append("    in.beginObject();\n");
+    source.append("    while (in.hasNext()) {\n");
+    source.append("      switch (in.nextName()) {\n");
+    for (Property property : properties) {
+      for (String name : property.names) {
+        source.append("        case \"").append(name).append("\":");
+        source.append(name.equals(property.names.get(property.names.size() - 1)) ? " {\n" : "\n");
+      }
+      source.append(property.readStatement());
+      source.append("          break;\n");
+      source.append("        }\n");
+    }
+    source.append("        default:\n          in.skipValue();\n");
+    source.append("      }\n    }\n");
+    source.append("    in.endObject();\n    return value;\n  }\n}\n");
+    return source.toString();
+  }
+
+  private String factorySource() {
+    StringBuilder source = new StringBuilder();
+    source.append("package ").append(codecPackage).append(";\n\n");
+    source.append("/**\n * Streaming type adapters for the classes generated from the JSON schemas.\n");
+    source.append(" * Generated by ").append(CodecGenerator.class.getName()).append(" - do not edit.\n */\n");
+    source.append("public final class ").append(FACTORY_NAME).append(" implements com.google.gson.TypeAdapterFactory {\n\n");
+    source.append("  @Override\n  @SuppressWarnings(\"unchecked\")\n");
+    source.append("  public <T> com.google.gson.TypeAdapter<T> create(com.google.gson.Gson gson, com.google.gson.reflect.TypeToken<T> type) {\n");
+    source.append("    Class<? super T> rawType = type.getRawType();\n");
+    for (Class<?> clazz : models.keySet()) {
+      source.append("    if (rawType == ").append(clazz.getCanonicalName()).append(".class) {\n");
+      source.append("      return (com.google.gson.TypeAdapter<T>) new ").append(adapterName(clazz)).append("(gson);\n");
+      source.append("    }\n");
+    }
+    source.append("    return null;\n  }\n}\n");
+    return source.toString();
+  }
+
+  /**
+   * Type in Java source notation.
+   */
+  private static String typeName(Type type) {
+    if (type instanceof Class) {
+      Class<?> clazz = (Class<?>) type;
+      return clazz.isArray() ? typeName(clazz.getComponentType()) + "[]" : clazz.getCanonicalName();
+    }
+    if (type instanceof ParameterizedType) {
+      ParameterizedType parameterized = (ParameterizedType) type;
+      StringBuilder name = new StringBuilder(typeName(parameterized.getRawType())).append('<');
+      Type[] arguments = parameterized.getActualTypeArguments();
+      for (int index = 0; index < arguments.length; index++) {
+        name.append((index > 0) ? ", " : "").append(typeName(arguments[index]));
+      }
+      return name.append('>').toString();
+    }
+    if (type instanceof WildcardType) {
+      WildcardType wildcard = (WildcardType) type;
+      if (wildcard.getLowerBounds().length > 0) {
+        return "? super " + typeName(wildcard.getLowerBounds()[0]);
+      }
+      Type upper = wildcard.getUpperBounds()[0];
+      return (upper == Object.class) ? "?" : "? extends " + typeName(upper);
+    }
+    if (type instanceof GenericArrayType) {
+      return typeName(((GenericArrayType) type).getGenericComponentType()) + "[]";
+    }
+    throw new IllegalStateException("Unsupported property type: " + type);
+  }
+
+  private static String boxed(String type) {
+    switch (type) {
+      case "boolean":
+        return "Boolean";
+      case "byte":
+        return "Byte";
+      case "char":
+        return "Character";
+      case "short":
+        return "Short";
+      case "int":
+        return "Integer";
+      case "long":
+        return "Long";
+      case "float":
+        return "Float";
+      case "double":
+        return "Double";
+      default:
+        return type;
+    }
+  }
+
+  /**
+   * Property of a generated class: field (defining name and type) and its
+   * accessors.
+   */
+  private static final class Property {
+
+    private final Field field;
+    private final String type;
+    private final List<String> names = new ArrayList<>();
+    private final Method getter;
+    private final Method setter;
+
+    Property(Class<?> clazz, Field field) {
+      this.field = field;
+      type = typeName(field.getGenericType());
+      SerializedName serializedName = field.getAnnotation(SerializedName.class);
+      if (serializedName != null) {
+        names.add(serializedName.value());
+        names.addAll(List.of(serializedName.alternate()));
+      } else {
+        names.add(field.getName());
+      }
+      getter = accessor(clazz, field, "get", 0);
+      setter = accessor(clazz, field, "set", 1);
+      if (getter == null) {
+        throw new IllegalStateException("No getter for " + clazz.getName() + "." + field.getName() + "!");
+      }
+      if ((setter == null) && !Collection.class.isAssignableFrom(field.getType()) && !Map.class.isAssignableFrom(field.getType())) {
+        throw new IllegalStateException("No setter for " + clazz.getName() + "." + field.getName() + "!");
+      }
+    }
+
+    /**
+     * Public getter/setter of the field (name is matched case insensitive as
+     * names like 'schemeURI' are capitalized differently).
+     */
+    private static Method accessor(Class<?> clazz, Field field, String prefix, int parameters) {
+      Method accessor = null;
+      for (Method method : clazz.getMethods()) {
+        boolean nameMatches = method.getName().equalsIgnoreCase(prefix + field.getName())
+                || ((field.getType() == boolean.class) && (parameters == 0) && method.getName().equalsIgnoreCase("is" + field.getName()));
+        if (nameMatches && (method.getParameterCount() == parameters) && !Modifier.isStatic(method.getModifiers())) {
+          boolean typeMatches = (parameters == 0)
+                  ? method.getGenericReturnType().equals(field.getGenericType())
+                  : method.getGenericParameterTypes()[0].equals(field.getGenericType());
+          if (typeMatches) {
+            if (accessor != null) {
+              throw new IllegalStateException("Ambiguous accessors for " + clazz.getName() + "." + field.getName() + "!");
+            }
+            accessor = method;
+          }
+        }
+      }
+      return accessor;
+    }
+
+    String adapterField() {
+      return field.getName() + "Adapter";
+    }
+
+    /**
+     * Statement reading the property (nulls don't overwrite primitives;
+     * collections/maps without setter are replaced in place).
+     */
+    String readStatement() {
+      StringBuilder statement = new StringBuilder();
+      if ((setter != null) && !field.getType().isPrimitive()) {
+        statement.append("          value.").append(setter.getName()).append('(').append(adapterField()).append(".read(in));\n");
+      } else {
+        statement.append("          ").append(boxed(type)).append(" property = ").append(adapterField()).append(".read(in);\n");
+        if (setter != null) {
+          statement.append("          if (property != null) {\n");
+          statement.append("            value.").append(setter.getName()).append("(property);\n");
+          statement.append("          }\n");
+        } else {
+          String addAll = Map.class.isAssignableFrom(field.getType()) ? "putAll" : "addAll";
+          statement.append("          value.").append(getter.getName()).append("().clear();\n");
+          statement.append("          if (property != null) {\n");
+          statement.append("            value.").append(getter.getName()).append("().").append(addAll).append("(property);\n");
+          statement.append("          }\n");
+        }
+      }
+      return statement.toString();
+    }
+  }
+}
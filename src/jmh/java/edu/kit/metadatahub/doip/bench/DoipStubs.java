@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.bench;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.dona.doip.InDoipMessage;
+import net.dona.doip.InDoipMessageFromCollection;
+import net.dona.doip.InDoipSegment;
+import net.dona.doip.InDoipSegmentFromInputStream;
+import net.dona.doip.InDoipSegmentFromJson;
+import net.dona.doip.OutDoipMessage;
+import net.dona.doip.OutDoipMessageImpl;
+import net.dona.doip.server.DoipServerRequest;
+import net.dona.doip.server.DoipServerResponse;
+
+/**
+ * In-process DOIP requests and responses without a connection. Only the
+ * methods used by the hub are backed by data; all other methods return
+ * defaults.
+ */
+public final class DoipStubs {
+
+  /**
+   * Return values of unsupported methods with primitive result.
+   */
+  private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = new HashMap<>();
+
+  static {
+    PRIMITIVE_DEFAULTS.put(boolean.class, false);
+    PRIMITIVE_DEFAULTS.put(byte.class, (byte) 0);
+    PRIMITIVE_DEFAULTS.put(short.class, (short) 0);
+    PRIMITIVE_DEFAULTS.put(char.class, '\0');
+    PRIMITIVE_DEFAULTS.put(int.class, 0);
+    PRIMITIVE_DEFAULTS.put(long.class, 0L);
+    PRIMITIVE_DEFAULTS.put(float.class, 0.0f);
+    PRIMITIVE_DEFAULTS.put(double.class, 0.0);
+  }
+
+  private DoipStubs() {
+    // Utility class
+  }
+
+  /**
+   * Build input of a request.
+   *
+   * @param digitalObject First segment (may be null).
+   * @param elements Content of elements (key: id of element).
+   * @return Input.
+   */
+  public static InDoipMessage input(JsonElement digitalObject, Map<String, byte[]> elements) {
+    List<InDoipSegment> segments = new ArrayList<>();
+    if (digitalObject != null) {
+      segments.add(new InDoipSegmentFromJson(digitalObject));
+    }
+    for (Map.Entry<String, byte[]> element : elements.entrySet()) {
+      JsonObject header = new JsonObject();
+      header.addProperty("id", element.getKey());
+      segments.add(new InDoipSegmentFromJson(header));
+      segments.add(new InDoipSegmentFromInputStream(false, new ByteArrayInputStream(element.getValue())));
+    }
+    return new InDoipMessageFromCollection(segments);
+  }
+
+  /**
+   * Build request.
+   *
+   * @param targetId Target of the request.
+   * @param operationId Operation.
+   * @param attributes Attributes of the request.
+   * @param input Input of the request.
+   * @return Request.
+   */
+  public static DoipServerRequest request(String targetId, String operationId, JsonObject attributes, InDoipMessage input) {
+    JsonObject requestAttributes = (attributes != null) ? attributes : new JsonObject();
+    InDoipMessage requestInput = (input != null) ? input : new InDoipMessageFromCollection(Collections.emptyList());
+    return (DoipServerRequest) Proxy.newProxyInstance(DoipStubs.class.getClassLoader(), new Class<?>[]{DoipServerRequest.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "getTargetId":
+                  return targetId;
+                case "getOperationId":
+                  return operationId;
+                case "getClientId":
+                  return "bench";
+                case "getAttributes":
+                  return requestAttributes;
+                case "getAttribute":
+                  return requestAttributes.get((String) args[0]);
+                case "getAttributeAsString":
+                  JsonElement value = requestAttributes.get((String) args[0]);
+                  return ((value == null) || value.isJsonNull()) ? null : value.getAsString();
+                case "getInput":
+                  return requestInput;
+                default:
+                  return defaultValue(method);
+              }
+            });
+  }
+
+  /**
+   * Build response writing its output to the given stream.
+   *
+   * @param out Stream receiving the DOIP output.
+   * @return Response.
+   */
+  public static DoipServerResponse response(OutputStream out) {
+    OutDoipMessage output = new OutDoipMessageImpl(out);
+    return (DoipServerResponse) Proxy.newProxyInstance(DoipStubs.class.getClassLoader(), new Class<?>[]{DoipServerResponse.class},
+            (proxy, method, args) -> {
+              if ("getOutput".equals(method.getName())) {
+                return output;
+              }
+              return defaultValue(method);
+            });
+  }
+
+  private static Object defaultValue(Method method) {
+    return PRIMITIVE_DEFAULTS.get(method.getReturnType());
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process backend serving schema records like MetaStore.
+ * <ul>
+ * <li>GET /api/v1/schemas/{id}: schema record (JSON with ETag)</li>
+ * <li>GET /api/v1/schemas/{id}/content: schema document of fixed size</li>
+ * <li>POST/PUT /api/v1/schemas[/{id}]: consumes the form and returns the
+ * record</li>
+ * </ul>
+ */
+public final class StubBackend implements Closeable {
+
+  /**
+   * Path of all resources.
+   */
+  public static final String BASE_PATH = "/api/v1/schemas";
+  /**
+   * Suffix of the path of schema documents.
+   */
+  public static final String CONTENT_SUFFIX = "/content";
+  /**
+   * Media type of schema records.
+   */
+  public static final String RECORD_TYPE = "application/vnd.datamanager.schema-record+json";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final byte[] record;
+  private final byte[] document;
+
+  /**
+   * Start backend on a free local port.
+   *
+   * @param documentSize Size of schema documents in bytes.
+   * @throws IOException Server can't be started.
+   */
+  public StubBackend(int documentSize) throws IOException {
+    record = TestData.schemaRecordJson("bench_schema").getBytes(StandardCharsets.UTF_8);
+    document = TestData.payload(documentSize);
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(BASE_PATH, this::handle);
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * @return the base URL of the backend (e.g. 'http://localhost:12345').
+   */
+  public String getUrl() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      // consume upload
+      in.transferTo(OutputStream.nullOutputStream());
+      if ("GET".equals(exchange.getRequestMethod()) && exchange.getRequestURI().getRawPath().endsWith(CONTENT_SUFFIX)) {
+        send(exchange, "application/json", document);
+      } else {
+        exchange.getResponseHeaders().set("ETag", "\"3\"");
+        send(exchange, RECORD_TYPE, record);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.JsonObject;
+import edu.kit.metadatahub.doip.mapping.metadata.impl.SchemaRecordMapper;
+import edu.kit.metadatahub.doip.server.util.DoipUtil;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import edu.kit.turntable.mapping.SchemaRecordSchema;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import net.dona.doip.client.DigitalObject;
+import net.dona.doip.util.GsonUtility;
+
+/**
+ * Realistic payloads for the benchmarks (schema records as served by
+ * MetaStore).
+ */
+public final class TestData {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private TestData() {
+    // Utility class
+  }
+
+  /**
+   * Schema record in JSON format.
+   *
+   * @param schemaId Id of the schema.
+   * @return JSON document.
+   */
+  public static String schemaRecordJson(String schemaId) {
+    return "{\"schemaId\":\"" + schemaId + "\","
+            + "\"pid\":{\"identifier\":\"21.T11148/" + schemaId + "\",\"identifierType\":\"Handle\"},"
+            + "\"schemaVersion\":3,"
+            + "\"mimeType\":\"application/json\","
+            + "\"type\":\"JSON\","
+            + "\"createdAt\":\"2021-08-13T10:00:54Z\","
+            + "\"lastUpdate\":\"2021-08-13T10:00:54.418Z\","
+            + "\"acl\":[{\"id\":1,\"sid\":\"SELF\",\"permission\":\"ADMINISTRATE\"},"
+            + "{\"id\":2,\"sid\":\"anonymousUser\",\"permission\":\"READ\"}],"
+            + "\"schemaDocumentUri\":\"http://localhost:8040/api/v1/schemas/" + schemaId + "?version=3\","
+            + "\"schemaHash\":\"sha1:6a5a7c2c3d1a0c4b8b4a5d1c1f6e4b6d2f8e6a1b\","
+            + "\"doNotSync\":true}";
+  }
+
+  /**
+   * Schema record as object.
+   *
+   * @param schemaId Id of the schema.
+   * @return Schema record.
+   */
+  public static SchemaRecordSchema schemaRecord(String schemaId) {
+    try {
+      return OBJECT_MAPPER.readValue(schemaRecordJson(schemaId), SchemaRecordSchema.class);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Datacite metadata of a schema record.
+   *
+   * @param schemaId Id of the schema.
+   * @return Datacite metadata.
+   */
+  public static Datacite43Schema datacite(String schemaId) {
+    return new SchemaRecordMapper().mapToDatacite(schemaRecord(schemaId));
+  }
+
+  /**
+   * Digital object as sent by clients (datacite as string attribute).
+   *
+   * @param schemaId Id of the schema.
+   * @return Digital object.
+   */
+  public static DigitalObject digitalObject(String schemaId) {
+    DigitalObject digitalObject = new DigitalObject();
+    digitalObject.id = "21.T11148/" + schemaId;
+    digitalObject.type = DoipUtil.TYPE_DO;
+    digitalObject.attributes = new JsonObject();
+    digitalObject.attributes.addProperty(DoipUtil.ATTR_DATACITE, GsonUtility.getGson().toJson(datacite(schemaId)));
+    return digitalObject;
+  }
+
+  /**
+   * Content of an element (printable JSON like characters).
+   *
+   * @param size Size in bytes.
+   * @return Content.
+   */
+  public static byte[] payload(int size) {
+    byte[] payload = new byte[size];
+    Random random = new Random(size);
+    for (int index = 0; index < size; index++) {
+      payload[index] = (byte) (' ' + random.nextInt(95));
+    }
+    return payload;
+  }
+}
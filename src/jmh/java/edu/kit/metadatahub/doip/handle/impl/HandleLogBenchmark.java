@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.handle.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Create and resolve handles of the handle log from several threads. With
+ * synchronous writes concurrent creates share one force of the log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class HandleLogBenchmark {
+
+  @Param({"true", "false"})
+  boolean syncWrites;
+
+  private Path file;
+  private HandleLog handleLog;
+  private String[] handles;
+
+  @Setup
+  public void setup() throws IOException {
+    file = Files.createTempFile("handles", ".log");
+    handleLog = new HandleLog(file, "21.T11148", syncWrites);
+    handles = new String[1024];
+    for (int handle = 0; handle < handles.length; handle++) {
+      handles[handle] = handleLog.createHandle("https://repo.example.org/api/v1/objects/" + handle);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    handleLog.close();
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public String create() {
+    return handleLog.createHandle("https://repo.example.org/api/v1/objects/new");
+  }
+
+  @Benchmark
+  public String resolve() {
+    int index = (int) (Thread.currentThread().getId() + System.nanoTime()) & (handles.length - 1);
+    return handleLog.resolveHandle(handles[index]);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import edu.kit.metadatahub.doip.bench.TestData;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import net.dona.doip.client.DigitalObject;
+import net.dona.doip.client.Element;
+import net.dona.doip.util.GsonUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serializing the digital object of a retrieve: intermediate JSON tree (as
+ * done by Mapping2HttpService) against writing directly to the output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DigitalObjectJsonBenchmark {
+
+  private final Gson gson = GsonUtility.getGson();
+  private DigitalObject digitalObject;
+  private Writer writer;
+
+  @Setup
+  public void setup() {
+    digitalObject = TestData.digitalObject("bench_schema");
+    digitalObject.elements = new ArrayList<>();
+    for (String id : new String[]{"schema", "metadata"}) {
+      Element element = new Element();
+      element.id = id;
+      element.type = "application/json";
+      element.length = 4096L;
+      digitalObject.elements.add(element);
+    }
+    writer = new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public void toJsonTree() throws IOException {
+    JsonElement json = gson.toJsonTree(digitalObject);
+    gson.toJson(json, writer);
+    writer.flush();
+  }
+
+  @Benchmark
+  public void toJsonStreaming() throws IOException {
+    gson.toJson(digitalObject, writer);
+    writer.flush();
+  }
+}
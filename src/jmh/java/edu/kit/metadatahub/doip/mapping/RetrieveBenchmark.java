@@ -0,0 +1,155 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import edu.kit.metadatahub.doip.bench.DoipStubs;
+import edu.kit.metadatahub.doip.bench.StubBackend;
+import edu.kit.metadatahub.doip.handle.impl.HandleMockup;
+import edu.kit.metadatahub.doip.mapping.metadata.IMetadataMapper;
+import edu.kit.metadatahub.doip.mapping.plan.MappingPlan;
+import edu.kit.metadatahub.doip.mapping.plan.OperationPlan;
+import edu.kit.metadatahub.doip.server.util.BackendExecutors;
+import edu.kit.rest.util.HttpTransportRegistry;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import edu.kit.turntable.mapping.HttpCall;
+import edu.kit.turntable.mapping.HttpMapping;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.dona.doip.DoipConstants;
+import net.dona.doip.client.DoipException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.MediaType;
+
+/**
+ * Full retrieve (DOIP request to DOIP output) against an in-process backend.
+ * Measures the overhead of the hub including HTTP calls via loopback.
+ * Preparing the calls of a retrieve is also measured on its own: compiled
+ * operation plans against the former per request path (String.replace of
+ * the request URL, class lookup and mapper instantiation via reflection).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RetrieveBenchmark {
+
+  private static final String TARGET_ID = "21.T11148/bench_schema";
+
+  /**
+   * Selected elements: metadata only, single element or all elements.
+   */
+  @Param({"metadata", "element", "all"})
+  String scope;
+
+  @Param({"4096", "1048576"})
+  int documentSize;
+
+  private StubBackend backend;
+  private ExecutorService executor;
+  private HttpMapping mapping;
+  private MappingPlan plan;
+  private Mapping2HttpService service;
+  private JsonObject attributes;
+
+  @Setup
+  public void setup() throws Exception {
+    backend = new StubBackend(documentSize);
+    executor = BackendExecutors.create(BackendExecutors.MODE_PLATFORM, 8);
+    String url = backend.getUrl() + StubBackend.BASE_PATH;
+    String json = "{"
+            + "\"targetId\": \"" + TARGET_ID + "\","
+            + "\"baseUrl\": \"" + backend.getUrl() + "\","
+            + "\"mappings\": {"
+            + "  \"doipOpRetrieve\": ["
+            + "    {\"label\": \"schema\", \"requestUrl\": \"" + url + "/{targetId}" + StubBackend.CONTENT_SUFFIX + "\","
+            + "     \"verb\": \"GET\", \"mimetype\": \"application/json\"},"
+            + "    {\"label\": \"metadata\", \"requestUrl\": \"" + url + "/{targetId}\","
+            + "     \"verb\": \"GET\", \"mimetype\": \"" + StubBackend.RECORD_TYPE + "\","
+            + "     \"header\": {\"additionalProperties\": {\"ETag\": \"\"}},"
+            + "     \"response\": {"
+            + "       \"className\": \"edu.kit.turntable.mapping.SchemaRecordSchema\","
+            + "       \"mapperClass\": \"edu.kit.metadatahub.doip.mapping.metadata.impl.SchemaRecordMapper\"}}"
+            + "  ]"
+            + "}}";
+    mapping = new Gson().fromJson(json, HttpMapping.class);
+    plan = MappingPlan.compile(mapping);
+    service = new Mapping2HttpService(plan, new HandleMockup(), executor, null, null, null);
+    attributes = new JsonObject();
+    switch (scope) {
+      case "element":
+        attributes.addProperty("element", "schema");
+        break;
+      case "all":
+        attributes.addProperty("includeElementData", true);
+        break;
+      default:
+        break;
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    backend.close();
+    executor.shutdownNow();
+    HttpTransportRegistry.shutdown();
+  }
+
+  @Benchmark
+  public void retrieve() throws DoipException, IOException {
+    service.retrieve(DoipStubs.request(TARGET_ID, DoipConstants.OP_RETRIEVE, attributes, null),
+            DoipStubs.response(OutputStream.nullOutputStream()));
+  }
+
+  @Benchmark
+  public void prepareCallsPerRequest(Blackhole blackhole) throws ReflectiveOperationException {
+    for (HttpCall call : mapping.getMappings().getDoipOpRetrieve()) {
+      blackhole.consume(call.getRequestUrl().replace("{targetId}", URLEncoder.encode(TARGET_ID, Charset.forName("UTF-8"))));
+      blackhole.consume(MediaType.parseMediaType(call.getMimetype()));
+      Class<?> responseClass = Datacite43Schema.class;
+      IMetadataMapper responseMapper = null;
+      if ((call.getResponse() != null) && (call.getResponse().getClassName() != null)) {
+        responseClass = Class.forName(call.getResponse().getClassName());
+        responseMapper = (IMetadataMapper) Class.forName(call.getResponse().getMapperClass()).getDeclaredConstructor().newInstance();
+      }
+      blackhole.consume(responseClass);
+      blackhole.consume(responseMapper);
+    }
+  }
+
+  @Benchmark
+  public void prepareCallsCompiled(Blackhole blackhole) {
+    for (OperationPlan call : plan.getRetrieve()) {
+      blackhole.consume(call.getRequestUrl().expand(TARGET_ID));
+      blackhole.consume(call.getAcceptType());
+      blackhole.consume(call.getResponseClass());
+      blackhole.consume(call.getResponseMapper());
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.metadata.impl;
+
+import edu.kit.metadatahub.doip.bench.TestData;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import edu.kit.turntable.mapping.SchemaRecordSchema;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Mapping of schema records from/to datacite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SchemaRecordMapperBenchmark {
+
+  private final SchemaRecordMapper mapper = new SchemaRecordMapper();
+  private SchemaRecordSchema schemaRecord;
+  private Datacite43Schema datacite;
+
+  @Setup
+  public void setup() {
+    schemaRecord = TestData.schemaRecord("bench_schema");
+    datacite = TestData.datacite("bench_schema");
+  }
+
+  @Benchmark
+  public SchemaRecordSchema mapFromDatacite() {
+    return mapper.mapFromDatacite(datacite);
+  }
+
+  @Benchmark
+  public Datacite43Schema mapToDatacite() {
+    return mapper.mapToDatacite(schemaRecord);
+  }
+}
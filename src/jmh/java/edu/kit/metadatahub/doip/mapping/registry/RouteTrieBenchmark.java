@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.registry;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Lookup of handles in a route table with many prefixes (one per
+ * repository) and exact routes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RouteTrieBenchmark {
+
+  @Param({"1000", "50000"})
+  int routes;
+
+  private RouteTrie<Integer> trie;
+  private String[] handles;
+  private int index = 0;
+
+  @Setup
+  public void setup() {
+    trie = new RouteTrie<>();
+    for (int route = 0; route < routes; route++) {
+      trie.put(String.format("21.T%05d/*", route), route);
+      // nested prefix for a sub collection of the repository
+      trie.put(String.format("21.T%05d/collection-%d/*", route, route % 10), -route);
+      trie.put(String.format("21.T%05d/DOIPServer", route), route);
+    }
+    Random random = new Random(42);
+    handles = new String[1024];
+    for (int handle = 0; handle < handles.length; handle++) {
+      int route = random.nextInt(routes);
+      switch (handle % 3) {
+        case 0:
+          handles[handle] = String.format("21.T%05d/%08x-%04x", route, random.nextInt(), random.nextInt(0xffff));
+          break;
+        case 1:
+          handles[handle] = String.format("21.T%05d/collection-%d/%08x", route, route % 10, random.nextInt());
+          break;
+        default:
+          handles[handle] = String.format("21.T%05d/DOIPServer", route);
+      }
+    }
+  }
+
+  @Benchmark
+  public Integer lookup() {
+    index = (index + 1) & (handles.length - 1);
+    return trie.lookup(handles[index]);
+  }
+
+  @Benchmark
+  public Integer lookupUnknown() {
+    index = (index + 1) & (handles.length - 1);
+    return trie.lookup("99." + handles[index]);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.search;
+
+import edu.kit.metadatahub.doip.bench.TestData;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Field and prefix queries against a search index holding schema records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchIndexBenchmark {
+
+  private static final String MAPPING = "bench_mapping";
+
+  @Param({"10000", "100000"})
+  int objects;
+
+  private SearchIndex index;
+  private IndexQuery[] exactQueries;
+  private IndexQuery prefixQuery;
+  private IndexQuery combinedQuery;
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    index = new SearchIndex(Long.MAX_VALUE);
+    for (int object = 0; object < objects; object++) {
+      String schemaId = "schema_" + object;
+      index.put(MAPPING, "21.T11148/" + schemaId, TestData.datacite(schemaId));
+    }
+    exactQueries = new IndexQuery[1024];
+    for (int query = 0; query < exactQueries.length; query++) {
+      exactQueries[query] = IndexQuery.parse("identifier:schema_" + (query * 97 % objects));
+    }
+    prefixQuery = IndexQuery.parse("identifier:schema_12*");
+    combinedQuery = IndexQuery.parse("title:schema* identifier:schema_12*");
+  }
+
+  @Benchmark
+  public SearchIndex.Hits exact() {
+    next = (next + 1) & (exactQueries.length - 1);
+    return index.search(MAPPING, exactQueries[next], 0, 20);
+  }
+
+  @Benchmark
+  public SearchIndex.Hits prefix() {
+    return index.search(MAPPING, prefixQuery, 0, 20);
+  }
+
+  @Benchmark
+  public SearchIndex.Hits combined() {
+    return index.search(MAPPING, combinedQuery, 0, 20);
+  }
+
+  @Benchmark
+  public IndexQuery parse() {
+    return IndexQuery.parse("title:\"climate data\" creator:smi* format:application/json");
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.server.util;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import edu.kit.metadatahub.doip.bench.TestData;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import net.dona.doip.client.DigitalObject;
+import net.dona.doip.client.DoipException;
+import net.dona.doip.util.GsonUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding the first segment of a create request (digital object with
+ * datacite attribute): JSON tree plus second parse of the datacite string
+ * against the single pass DigitalObjectReader.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DigitalObjectReaderBenchmark {
+
+  /**
+   * Datacite embedded as JSON string or as object.
+   */
+  @Param({"string", "object"})
+  String embedding;
+
+  private byte[] segment;
+
+  @Setup
+  public void setup() {
+    DigitalObject digitalObject = TestData.digitalObject("bench_schema");
+    digitalObject.attributes.add("header", new JsonObject());
+    digitalObject.attributes.getAsJsonObject("header").addProperty("If-Match", "\"etag-1\"");
+    if ("object".equals(embedding)) {
+      digitalObject.attributes.add(DoipUtil.ATTR_DATACITE, JsonCodecs.getGson().toJsonTree(TestData.datacite("bench_schema")));
+    }
+    segment = GsonUtility.getGson().toJson(digitalObject).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private JsonReader newReader() {
+    return new JsonReader(new InputStreamReader(new ByteArrayInputStream(segment), StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public Datacite43Schema treeAndReparse() {
+    DigitalObject digitalObject = GsonUtility.getGson().fromJson(newReader(), DigitalObject.class);
+    String datacite = digitalObject.attributes.get(DoipUtil.ATTR_DATACITE).isJsonPrimitive()
+            ? digitalObject.attributes.get(DoipUtil.ATTR_DATACITE).getAsString()
+            : digitalObject.attributes.get(DoipUtil.ATTR_DATACITE).toString();
+    return GsonUtility.getGson().fromJson(datacite, Datacite43Schema.class);
+  }
+
+  @Benchmark
+  public Datacite43Schema singlePass() throws DoipException, IOException {
+    return DigitalObjectReader.read(newReader()).getDatacite();
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.server.util;
+
+import com.google.gson.JsonElement;
+import edu.kit.metadatahub.doip.bench.DoipStubs;
+import edu.kit.metadatahub.doip.bench.TestData;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.dona.doip.client.DoipException;
+import net.dona.doip.util.GsonUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing the input of a create request: digital object with datacite
+ * attribute followed by two elements. Segments above the spool threshold
+ * (1 MiB) are spilled to temporary files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DoipUtilBenchmark {
+
+  @Param({"1024", "65536", "1048576", "4194304"})
+  int segmentSize;
+
+  private JsonElement digitalObject;
+  private Map<String, byte[]> elements;
+
+  @Setup
+  public void setup() {
+    digitalObject = GsonUtility.getGson().toJsonTree(TestData.digitalObject("bench_schema"));
+    elements = new LinkedHashMap<>();
+    elements.put(DoipUtil.ID_SCHEMA, TestData.payload(segmentSize));
+    elements.put(DoipUtil.ID_METADATA, TestData.payload(Math.min(segmentSize, 4096)));
+  }
+
+  private DoipUtil newRequest() {
+    return new DoipUtil(DoipStubs.request("21.T11148/bench", "0.DOIP/Op.Create", null, DoipStubs.input(digitalObject, elements)));
+  }
+
+  @Benchmark
+  public Object getDatacite() throws DoipException, IOException {
+    return newRequest().getDatacite();
+  }
+
+  @Benchmark
+  public void getStreams(Blackhole blackhole) throws DoipException, IOException {
+    DoipUtil doipUtil = newRequest();
+    try {
+      blackhole.consume(doipUtil.getDatacite());
+      for (SegmentSpool spool : doipUtil.getStreams().values()) {
+        blackhole.consume(spool.length());
+      }
+    } finally {
+      doipUtil.close();
+    }
+  }
+
+  @Benchmark
+  public void getElementSegments(Blackhole blackhole) throws DoipException, IOException {
+    DoipUtil doipUtil = newRequest();
+    blackhole.consume(doipUtil.getDatacite());
+    byte[] buffer = DoipUtil.getCopyBuffer();
+    Iterator<DoipUtil.ElementSegment> segments = doipUtil.getElementSegments();
+    while (segments.hasNext()) {
+      InputStream in = segments.next().getInputStream();
+      long length = 0;
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        length += read;
+      }
+      blackhole.consume(length);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.server.util;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import edu.kit.metadatahub.doip.bench.TestData;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import edu.kit.turntable.mapping.SchemaRecordSchema;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import net.dona.doip.client.DoipException;
+import net.dona.doip.util.GsonUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Generated streaming type adapters (JsonCodecs) against Gson's reflection
+ * (GsonUtility): writing a search result, reading datacite and serializing
+ * a schema record as element content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonCodecsBenchmark {
+
+  private final Gson reflective = GsonUtility.getGson();
+  private final Gson streaming = JsonCodecs.getGson();
+  private Datacite43Schema datacite;
+  private String dataciteJson;
+  private SchemaRecordSchema schemaRecord;
+  private JsonWriter writer;
+
+  @Setup
+  public void setup() {
+    datacite = TestData.datacite("bench_schema");
+    dataciteJson = reflective.toJson(datacite);
+    schemaRecord = TestData.schemaRecord("bench_schema");
+    Writer output = new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8);
+    writer = new JsonWriter(output);
+    writer.setLenient(true);
+  }
+
+  @Benchmark
+  public void writeSearchResultReflective() throws IOException, DoipException {
+    reflective.toJson(reflective.toJsonTree(DoipUtil.ofDataResource(datacite)), writer);
+    writer.flush();
+  }
+
+  @Benchmark
+  public void writeSearchResultStreaming() throws IOException {
+    DoipUtil.writeDataResource(writer, datacite);
+    writer.flush();
+  }
+
+  @Benchmark
+  public Datacite43Schema readDataciteReflective() {
+    return reflective.fromJson(dataciteJson, Datacite43Schema.class);
+  }
+
+  @Benchmark
+  public Datacite43Schema readDataciteStreaming() {
+    return streaming.fromJson(dataciteJson, Datacite43Schema.class);
+  }
+
+  @Benchmark
+  public byte[] schemaRecordContentReflective() {
+    return reflective.toJsonTree(schemaRecord).toString().getBytes();
+  }
+
+  @Benchmark
+  public byte[] schemaRecordContentStreaming() {
+    return streaming.toJson(schemaRecord).getBytes();
+  }
+}
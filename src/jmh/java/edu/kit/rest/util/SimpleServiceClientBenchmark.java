@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import edu.kit.metadatahub.doip.bench.TestData;
+import edu.kit.turntable.mapping.SchemaRecordSchema;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Adding the metadata of a create/update to the form.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SimpleServiceClientBenchmark {
+
+  private HttpTransport transport;
+  private SchemaRecordSchema schemaRecord;
+  private String schemaRecordJson;
+
+  @Setup
+  public void setup() {
+    transport = HttpTransportRegistry.getTransport("http://localhost:8040");
+    schemaRecord = TestData.schemaRecord("bench_schema");
+    schemaRecordJson = TestData.schemaRecordJson("bench_schema");
+  }
+
+  @Benchmark
+  public SimpleServiceClient withFormParamObject() throws IOException {
+    return SimpleServiceClient.create(transport, "http://localhost:8040/api/v1/schemas").withFormParam("record", schemaRecord);
+  }
+
+  @Benchmark
+  public SimpleServiceClient withFormParamString() throws IOException {
+    return SimpleServiceClient.create(transport, "http://localhost:8040/api/v1/schemas").withFormParam("record", schemaRecordJson);
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import edu.kit.metadatahub.doip.server.MetadataHubProcessor;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import edu.kit.turntable.mapping.Title;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import net.dona.doip.client.AuthenticationInfo;
+import net.dona.doip.client.DigitalObject;
+import net.dona.doip.client.DoipClient;
+import net.dona.doip.client.Element;
+import net.dona.doip.client.ServiceInfo;
+import net.dona.doip.client.TokenAuthenticationInfo;
+import net.dona.doip.server.DoipServer;
+import net.dona.doip.server.DoipServerConfig;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load driver running the hub and a stub repository in one process. N
+ * clients loop over hello, create, retrieve (several times) and update until
+ * the test is over. Throughput and latency per operation are printed at the
+ * end.
+ *
+ * Options (key=value): clients, warmupSeconds, durationSeconds,
+ * retrievesPerCreate, stubLatencyMillis, stubJitterMillis, payloadBytes,
+ * config (DOIP configuration), mapping (mapping file using
+ * 'http://localhost:8040' as backend).
+ */
+public final class LoadTest {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+  /**
+   * Backend URL used in the example mapping (replaced by the stub).
+   */
+  private static final String EXAMPLE_BACKEND_URL = "http://localhost:8040";
+  /**
+   * Highest trackable latency in microseconds (1 minute).
+   */
+  private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+  /**
+   * Operations of the load test.
+   */
+  enum Operation {
+    HELLO, CREATE, RETRIEVE, UPDATE
+  }
+
+  /**
+   * Single call to the hub.
+   */
+  private interface Call<T> {
+
+    T call() throws Exception;
+  }
+
+  private final Map<String, String> options;
+  private final Map<Operation, Recorder> latencies = new EnumMap<>(Operation.class);
+  private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+  private final byte[] payload;
+  private volatile boolean running = true;
+
+  private LoadTest(Map<String, String> options) {
+    this.options = options;
+    for (Operation operation : Operation.values()) {
+      latencies.put(operation, new Recorder(MAX_MICROS, 3));
+      errors.put(operation, new LongAdder());
+    }
+    payload = new byte[getInt("payloadBytes", 4096)];
+    Arrays.fill(payload, (byte) 'x');
+  }
+
+  /**
+   * @param args Options (key=value).
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      int index = arg.indexOf('=');
+      if (index <= 0) {
+        System.err.println("Invalid option '" + arg + "' (expected key=value)!");
+        System.exit(1);
+      }
+      options.put(arg.substring(0, index), arg.substring(index + 1));
+    }
+    new LoadTest(options).run();
+  }
+
+  private void run() throws Exception {
+    try (StubRepository stub = new StubRepository(getDouble("stubLatencyMillis", 5), getDouble("stubJitterMillis", 0), payload.length)) {
+      Path mappingsDir = Files.createTempDirectory("metadatahub-loadtest");
+      try {
+        String mapping = Files.readString(Paths.get(options.getOrDefault("mapping", "mappings/example_mappings.json")));
+        Files.writeString(mappingsDir.resolve("loadtest_mappings.json"), mapping.replace(EXAMPLE_BACKEND_URL, stub.getUrl()));
+        DoipServerConfig config = createServerConfig(mappingsDir);
+        MetadataHubProcessor processor = new MetadataHubProcessor();
+        processor.init(config.processorConfig);
+        DoipServer server = new DoipServer(config, processor);
+        server.init();
+        try {
+          String serviceId = config.processorConfig.get("serviceId").getAsString();
+          drive(serviceId, new ServiceInfo(serviceId, config.listenAddress, config.port));
+        } finally {
+          server.shutdown();
+        }
+      } finally {
+        try (Stream<Path> files = Files.walk(mappingsDir)) {
+          files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+      }
+    }
+  }
+
+  /**
+   * Read DOIP configuration and adapt it for the local test.
+   */
+  private DoipServerConfig createServerConfig(Path mappingsDir) throws IOException {
+    Gson gson = new Gson();
+    String configFile = options.getOrDefault("config", "src/main/resources/config/DoipConfiguration.json");
+    DoipServerConfig config = gson.fromJson(Files.readString(Paths.get(configFile)), DoipServerConfig.class);
+    config.listenAddress = "localhost";
+    try (ServerSocket socket = new ServerSocket(0)) {
+      config.port = socket.getLocalPort();
+    }
+    JsonObject processorConfig = config.processorConfig;
+    processorConfig.addProperty("mappingsDir", mappingsDir.toString());
+    processorConfig.addProperty("mappingsSuffix", "_mappings.json");
+    processorConfig.addProperty("watchMappings", false);
+    processorConfig.remove("metricsPort");
+    DoipServerConfig.TlsConfig tlsConfig = new DoipServerConfig.TlsConfig();
+    tlsConfig.id = processorConfig.get("serviceId").getAsString();
+    config.tlsConfig = tlsConfig;
+    return config;
+  }
+
+  /**
+   * Run all clients and print results.
+   */
+  private void drive(String serviceId, ServiceInfo serviceInfo) throws InterruptedException {
+    int clients = getInt("clients", 16);
+    long warmupSeconds = getInt("warmupSeconds", 5);
+    long durationSeconds = getInt("durationSeconds", 30);
+    AuthenticationInfo authInfo = new TokenAuthenticationInfo("loadtest", options.getOrDefault("token", "ProvideAToken"));
+    List<Thread> threads = new ArrayList<>();
+    for (int client = 0; client < clients; client++) {
+      Thread thread = new Thread(() -> runClient(serviceId, serviceInfo, authInfo), "loadtest-client-" + client);
+      thread.start();
+      threads.add(thread);
+    }
+    LOGGER.info("{} clients started. Warm up for {} s...", clients, warmupSeconds);
+    TimeUnit.SECONDS.sleep(warmupSeconds);
+    for (Operation operation : Operation.values()) {
+      latencies.get(operation).reset();
+      errors.get(operation).reset();
+    }
+    long start = System.nanoTime();
+    TimeUnit.SECONDS.sleep(durationSeconds);
+    Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+    for (Operation operation : Operation.values()) {
+      histograms.put(operation, latencies.get(operation).getIntervalHistogram());
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    running = false;
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    report(clients, seconds, histograms);
+  }
+
+  /**
+   * Loop of a single client.
+   */
+  private void runClient(String serviceId, ServiceInfo serviceInfo, AuthenticationInfo authInfo) {
+    int retrievesPerCreate = getInt("retrievesPerCreate", 8);
+    DoipClient client = new DoipClient();
+    try {
+      while (running) {
+        timed(Operation.HELLO, () -> client.hello(serviceId, authInfo, serviceInfo));
+        DigitalObject created = timed(Operation.CREATE, () -> client.create(newDigitalObject(null, null), authInfo, serviceInfo));
+        if ((created == null) || (created.id == null)) {
+          continue;
+        }
+        for (int retrieve = 0; retrieve < retrievesPerCreate; retrieve++) {
+          timed(Operation.RETRIEVE, () -> client.retrieve(created.id, authInfo, serviceInfo));
+        }
+        String etag = null;
+        if ((created.attributes != null) && created.attributes.has("header")
+                && created.attributes.getAsJsonObject("header").has("ETag")) {
+          etag = created.attributes.getAsJsonObject("header").get("ETag").getAsString();
+        }
+        DigitalObject update = newDigitalObject(created.id, etag);
+        timed(Operation.UPDATE, () -> client.update(update, authInfo, serviceInfo));
+      }
+    } finally {
+      client.close();
+    }
+  }
+
+  /**
+   * Execute call and record its latency (errors are only counted).
+   *
+   * @return Result or null if call failed.
+   */
+  private <T> T timed(Operation operation, Call<T> call) {
+    long start = System.nanoTime();
+    try {
+      T result = call.call();
+      long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+      latencies.get(operation).recordValue(Math.min(micros, MAX_MICROS));
+      return result;
+    } catch (Exception ex) {
+      errors.get(operation).increment();
+      LOGGER.debug("{} failed!", operation, ex);
+      return null;
+    }
+  }
+
+  /**
+   * Build digital object for create/update (schema with datacite metadata).
+   */
+  private DigitalObject newDigitalObject(String id, String etag) {
+    Datacite43Schema datacite = new Datacite43Schema();
+    Title title = new Title();
+    title.setTitle((id != null) ? id : "loadtest_schema");
+    datacite.getTitles().add(title);
+    datacite.setPublisher("NFDI4Ing");
+    datacite.getFormats().add("JSON");
+    DigitalObject dobj = new DigitalObject();
+    dobj.id = id;
+    dobj.attributes = new JsonObject();
+    dobj.attributes.addProperty("datacite", new Gson().toJson(datacite));
+    if (etag != null) {
+      JsonObject header = new JsonObject();
+      header.addProperty("If-Match", etag);
+      dobj.attributes.add("header", header);
+    }
+    dobj.elements = new ArrayList<>();
+    Element element = new Element();
+    element.id = "schema";
+    element.type = "application/json";
+    element.in = new ByteArrayInputStream(payload);
+    element.length = (long) payload.length;
+    dobj.elements.add(element);
+    return dobj;
+  }
+
+  private void report(int clients, double seconds, Map<Operation, Histogram> histograms) {
+    System.out.printf("Load test: %d clients, %.1f s, stub latency %s ms (+%s ms jitter), payload %d bytes%n",
+            clients, seconds, options.getOrDefault("stubLatencyMillis", "5"), options.getOrDefault("stubJitterMillis", "0"), payload.length);
+    System.out.printf("%-10s %10s %8s %10s %10s %10s %10s %10s%n",
+            "operation", "count", "errors", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+    long total = 0;
+    for (Operation operation : Operation.values()) {
+      Histogram histogram = histograms.get(operation);
+      long count = histogram.getTotalCount();
+      total += count;
+      System.out.printf("%-10s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+              operation.name().toLowerCase(), count, errors.get(operation).sum(), count / seconds,
+              histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+              histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+    }
+    System.out.printf("%-10s %10d %8s %10.1f%n", "total", total, "", total / seconds);
+  }
+
+  private int getInt(String key, int defaultValue) {
+    return options.containsKey(key) ? Integer.parseInt(options.get(key)) : defaultValue;
+  }
+
+  private double getDouble(String key, double defaultValue) {
+    return options.containsKey(key) ? Double.parseDouble(options.get(key)) : defaultValue;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded repository mimicking the schema API of MetaStore
+ * ('/api/v1/schemas') as used by example_mappings.json.
+ * <ul>
+ * <li>POST /api/v1/schemas: create schema record (new id)</li>
+ * <li>GET /api/v1/schemas/{id}: schema record (Accept:
+ * application/vnd.datamanager.schema-record+json) or schema document</li>
+ * <li>PUT /api/v1/schemas/{id}: update schema record (new version)</li>
+ * </ul>
+ * Each request is delayed by the configured latency. Records carry an ETag
+ * and GET supports 'If-None-Match'.
+ */
+public final class StubRepository implements Closeable {
+
+  /**
+   * Path of the schema API.
+   */
+  public static final String BASE_PATH = "/api/v1/schemas";
+  /**
+   * Media type of schema records.
+   */
+  public static final String RECORD_TYPE = "application/vnd.datamanager.schema-record+json";
+  /**
+   * Prefix of the ids of created schemas (matches the routes of the
+   * example mapping).
+   */
+  public static final String ID_PREFIX = "35.TEST/schema_";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final long latencyMicros;
+  private final long jitterMicros;
+  private final byte[] document;
+  private final AtomicLong nextId = new AtomicLong();
+  /**
+   * Version of all known schemas (key: id).
+   */
+  private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<>();
+
+  /**
+   * Start repository on a free local port.
+   *
+   * @param latencyMillis Latency added to each request in milliseconds.
+   * @param jitterMillis Max. random jitter added to the latency in
+   * milliseconds.
+   * @param payloadBytes Size of schema documents in bytes.
+   * @throws IOException Server can't be started.
+   */
+  public StubRepository(double latencyMillis, double jitterMillis, int payloadBytes) throws IOException {
+    latencyMicros = (long) (latencyMillis * 1000);
+    jitterMicros = (long) (jitterMillis * 1000);
+    document = new byte[payloadBytes];
+    Arrays.fill(document, (byte) 'x');
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+    server.createContext(BASE_PATH, this::handle);
+    // backend shouldn't limit the concurrency of the hub
+    executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "stub-repository");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * @return the base URL of the repository (e.g. 'http://localhost:12345').
+   */
+  public String getUrl() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      // consume upload
+      in.transferTo(OutputStream.nullOutputStream());
+      delay();
+      String path = exchange.getRequestURI().getRawPath();
+      String id = null;
+      if (path.length() > BASE_PATH.length() + 1) {
+        id = URLDecoder.decode(path.substring(BASE_PATH.length() + 1), StandardCharsets.UTF_8);
+      }
+      Long version;
+      switch (exchange.getRequestMethod()) {
+        case "POST":
+          if (id != null) {
+            exchange.sendResponseHeaders(405, -1);
+            break;
+          }
+          id = ID_PREFIX + nextId.incrementAndGet();
+          versions.put(id, 1L);
+          sendRecord(exchange, 201, id, 1L);
+          break;
+        case "PUT":
+          version = (id != null) ? versions.computeIfPresent(id, (key, old) -> old + 1) : null;
+          if (version == null) {
+            exchange.sendResponseHeaders(404, -1);
+          } else {
+            sendRecord(exchange, 200, id, version);
+          }
+          break;
+        case "GET":
+          version = (id != null) ? versions.get(id) : null;
+          if (version == null) {
+            exchange.sendResponseHeaders(404, -1);
+          } else if (getEtag(version).equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.getResponseHeaders().set("ETag", getEtag(version));
+            exchange.sendResponseHeaders(304, -1);
+          } else if (String.valueOf(exchange.getRequestHeaders().getFirst("Accept")).contains(RECORD_TYPE)) {
+            sendRecord(exchange, 200, id, version);
+          } else {
+            exchange.getResponseHeaders().set("ETag", getEtag(version));
+            send(exchange, 200, "text/plain", document);
+          }
+          break;
+        default:
+          exchange.sendResponseHeaders(405, -1);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void delay() {
+    long micros = latencyMicros;
+    if (jitterMicros > 0) {
+      micros += ThreadLocalRandom.current().nextLong(jitterMicros + 1);
+    }
+    if (micros > 0) {
+      try {
+        TimeUnit.MICROSECONDS.sleep(micros);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static String getEtag(long version) {
+    return "\"" + version + "\"";
+  }
+
+  private static void sendRecord(HttpExchange exchange, int status, String id, long version) throws IOException {
+    String record = "{\"schemaId\":\"" + id + "\","
+            + "\"pid\":{\"identifier\":\"" + id + "\",\"identifierType\":\"Handle\"},"
+            + "\"schemaVersion\":" + version + ","
+            + "\"mimeType\":\"application/json\","
+            + "\"type\":\"JSON\","
+            + "\"createdAt\":\"2021-08-13T10:00:54Z\","
+            + "\"lastUpdate\":\"2021-08-13T10:00:54.418Z\","
+            + "\"acl\":[{\"id\":1,\"sid\":\"SELF\",\"permission\":\"ADMINISTRATE\"}],"
+            + "\"schemaDocumentUri\":\"" + BASE_PATH + "/" + id + "?version=" + version + "\"}";
+    exchange.getResponseHeaders().set("ETag", getEtag(version));
+    send(exchange, status, RECORD_TYPE, record.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
@@ -24,5 +24,17 @@ public class ExtendedOperations {
    * Extended operation for validating metadata documents.
    */
   public static final String OP_VALIDATE = "0.DOIP/Op.Validate";
+  /**
+   * Extended operation for reading statistics of the service.
+   */
+  public static final String OP_STATS = "0.DOIP/Op.Stats";
+  /**
+   * Extended operation for retrieving many digital objects at once.
+   */
+  public static final String OP_BATCH_RETRIEVE = "0.DOIP/Op.BatchRetrieve";
+  /**
+   * Extended operation for creating a stream of digital objects.
+   */
+  public static final String OP_BULK_CREATE = "0.DOIP/Op.BulkCreate";
 
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.exception;
+
+/**
+ * Thrown if a mapping file can't be compiled into an executable plan.
+ */
+public class MappingException extends Exception {
+
+  /**
+   * Create exception.
+   *
+   * @param message Message describing the invalid mapping.
+   */
+  public MappingException(String message) {
+    super(message);
+  }
+
+  /**
+   * Create exception.
+   *
+   * @param message Message describing the invalid mapping.
+   * @param cause Cause of the error.
+   */
+  public MappingException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
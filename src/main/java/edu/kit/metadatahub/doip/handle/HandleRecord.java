@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.handle;
+
+/**
+ * Resolved handle: resolve URL and its time to live as given by the handle
+ * record.
+ */
+public final class HandleRecord {
+
+  /**
+   * TTL of records which don't define one.
+   */
+  public static final long TTL_UNKNOWN = -1;
+
+  private final String handle;
+  private final String resolveUrl;
+  private final long ttl;
+
+  /**
+   * Create record.
+   *
+   * @param handle Handle.
+   * @param resolveUrl URL to access digital object.
+   * @param ttl Time to live in seconds (TTL_UNKNOWN if not defined).
+   */
+  public HandleRecord(String handle, String resolveUrl, long ttl) {
+    this.handle = handle;
+    this.resolveUrl = resolveUrl;
+    this.ttl = ttl;
+  }
+
+  /**
+   * @return the handle.
+   */
+  public String getHandle() {
+    return handle;
+  }
+
+  /**
+   * @return the URL to access the digital object.
+   */
+  public String getResolveUrl() {
+    return resolveUrl;
+  }
+
+  /**
+   * @return the time to live in seconds (TTL_UNKNOWN if not defined).
+   */
+  public long getTtl() {
+    return ttl;
+  }
+}
@@ -62,4 +62,15 @@ public interface IHandleManager {
      */
     String resolveHandle(String handle);
 
+    /**
+     * Resolve Handle including the time to live of the record.
+     *
+     * @param handle Handle of the referenced digital object.
+     * @return Record or null if the handle is unknown.
+     */
+    default HandleRecord resolveHandleRecord(String handle) {
+        String resolveUrl = resolveHandle(handle);
+        return (resolveUrl != null) ? new HandleRecord(handle, resolveUrl, HandleRecord.TTL_UNKNOWN) : null;
+    }
+
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.handle;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service minting and registering handles (e.g. a remote handle server).
+ * All operations work on batches, so a single call covers many handles.
+ */
+public interface IHandleService {
+
+  /**
+   * Mint new handles (without resolve URL).
+   *
+   * @param count Number of handles.
+   * @return New handles.
+   * @throws IOException Error while accessing the service.
+   */
+  List<String> mintHandles(int count) throws IOException;
+
+  /**
+   * Register resolve URLs of handles.
+   *
+   * @param resolveUrls Resolve URL per handle.
+   * @throws IOException Error while accessing the service.
+   */
+  void registerHandles(Map<String, String> resolveUrls) throws IOException;
+
+  /**
+   * Resolve handle including the time to live of the record.
+   *
+   * @param handle Handle of the referenced digital object.
+   * @return Record (null if unknown).
+   * @throws IOException Error while accessing the service.
+   */
+  HandleRecord resolveHandleRecord(String handle) throws IOException;
+}
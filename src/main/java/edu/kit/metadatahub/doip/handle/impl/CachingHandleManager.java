@@ -0,0 +1,217 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.handle.impl;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.google.gson.JsonObject;
+import edu.kit.metadatahub.doip.handle.HandleRecord;
+import edu.kit.metadatahub.doip.handle.IHandleManager;
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of resolved handles in front of another handle manager.
+ * Entries expire after the TTL of the handle record (or a default TTL);
+ * unknown handles are cached for a short negative TTL. Entries read after 80%
+ * of their TTL are refreshed in the background, so lookups of hot handles
+ * never wait for the handle service. Handles created/edited via this manager
+ * update the cache directly.
+ */
+public class CachingHandleManager implements IHandleManager, Closeable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachingHandleManager.class);
+  /**
+   * Default for max. number of cached handles.
+   */
+  public static final long DEFAULT_MAX_ENTRIES = 100000;
+  /**
+   * Default TTL of records without TTL (in s).
+   */
+  public static final long DEFAULT_TTL = 3600;
+  /**
+   * Default TTL of unknown handles (in s).
+   */
+  public static final long DEFAULT_NEGATIVE_TTL = 30;
+  /**
+   * Number of threads refreshing entries.
+   */
+  private static final int REFRESH_THREADS = 4;
+  /**
+   * Part of the TTL after which entries are refreshed when read.
+   */
+  private static final double REFRESH_AHEAD = 0.8;
+
+  private final IHandleManager delegate;
+  private final long defaultTtlNanos;
+  private final long negativeTtlNanos;
+  private final ExecutorService refreshExecutor;
+  private final LoadingCache<String, Resolution> cache;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder negativeHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder refreshes = new LongAdder();
+
+  /**
+   * Create cache.
+   *
+   * @param delegate Handle manager resolving uncached handles.
+   * @param maxEntries Max. number of cached handles.
+   * @param defaultTtl TTL of records without TTL (in s).
+   * @param negativeTtl TTL of unknown handles (in s).
+   */
+  public CachingHandleManager(IHandleManager delegate, long maxEntries, long defaultTtl, long negativeTtl) {
+    this.delegate = delegate;
+    defaultTtlNanos = TimeUnit.SECONDS.toNanos(defaultTtl);
+    negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtl);
+    AtomicInteger threadNumber = new AtomicInteger();
+    refreshExecutor = Executors.newFixedThreadPool(REFRESH_THREADS, runnable -> {
+      Thread thread = new Thread(runnable, "handle-refresh-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    cache = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfter(new Expiry<String, Resolution>() {
+              @Override
+              public long expireAfterCreate(String key, Resolution value, long currentTime) {
+                return value.ttlNanos;
+              }
+
+              @Override
+              public long expireAfterUpdate(String key, Resolution value, long currentTime, long currentDuration) {
+                return value.ttlNanos;
+              }
+
+              @Override
+              public long expireAfterRead(String key, Resolution value, long currentTime, long currentDuration) {
+                return currentDuration;
+              }
+            })
+            .executor(refreshExecutor)
+            .build(this::load);
+  }
+
+  @Override
+  public String createHandle() {
+    return delegate.createHandle();
+  }
+
+  @Override
+  public String createHandle(String resolveUrl) {
+    String newHandle = delegate.createHandle(resolveUrl);
+    if ((resolveUrl != null) && !resolveUrl.isEmpty()) {
+      cache.put(newHandle, new Resolution(resolveUrl, defaultTtlNanos));
+    }
+    return newHandle;
+  }
+
+  @Override
+  public String editHandle(String handle, String resolveUrl) {
+    String editedHandle = delegate.editHandle(handle, resolveUrl);
+    // replaces negative entries as well
+    String url = ((resolveUrl != null) && !resolveUrl.isEmpty()) ? resolveUrl : null;
+    cache.put(handle, new Resolution(url, (url != null) ? defaultTtlNanos : negativeTtlNanos));
+    return editedHandle;
+  }
+
+  @Override
+  public String resolveHandle(String handle) {
+    Resolution resolution = cache.getIfPresent(handle);
+    if (resolution == null) {
+      misses.increment();
+      resolution = cache.get(handle);
+    } else if (resolution.resolveUrl == null) {
+      negativeHits.increment();
+    } else {
+      hits.increment();
+      if ((System.nanoTime() - resolution.loaded > resolution.refreshAfterNanos) && resolution.refreshing.compareAndSet(false, true)) {
+        refreshes.increment();
+        Resolution stale = resolution;
+        // failed refreshes keep the entry and may be retried
+        cache.refresh(handle).whenComplete((fresh, ex) -> {
+          if (ex != null) {
+            stale.refreshing.set(false);
+          }
+        });
+      }
+    }
+    LOGGER.trace("Resolve handle: '{}' -> '{}'", handle, resolution.resolveUrl);
+    return resolution.resolveUrl;
+  }
+
+  /**
+   * @return counters of the cache.
+   */
+  public JsonObject getStatistics() {
+    JsonObject json = new JsonObject();
+    json.addProperty("hitCount", hits.sum());
+    json.addProperty("negativeHitCount", negativeHits.sum());
+    json.addProperty("missCount", misses.sum());
+    json.addProperty("refreshCount", refreshes.sum());
+    json.addProperty("estimatedSize", cache.estimatedSize());
+    return json;
+  }
+
+  /**
+   * Stop refreshing entries.
+   */
+  @Override
+  public void close() {
+    refreshExecutor.shutdownNow();
+  }
+
+  /**
+   * Resolve handle via the delegate (initial load and refresh).
+   */
+  private Resolution load(String handle) {
+    HandleRecord record = delegate.resolveHandleRecord(handle);
+    if ((record == null) || (record.getResolveUrl() == null)) {
+      return new Resolution(null, negativeTtlNanos);
+    }
+    long ttlNanos = (record.getTtl() > 0) ? TimeUnit.SECONDS.toNanos(record.getTtl()) : defaultTtlNanos;
+    return new Resolution(record.getResolveUrl(), ttlNanos);
+  }
+
+  /**
+   * Cached resolve URL (null for unknown handles).
+   */
+  private static final class Resolution {
+
+    private final String resolveUrl;
+    private final long ttlNanos;
+    private final long refreshAfterNanos;
+    private final long loaded = System.nanoTime();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    Resolution(String resolveUrl, long ttlNanos) {
+      this.resolveUrl = resolveUrl;
+      this.ttlNanos = ttlNanos;
+      refreshAfterNanos = (long) (ttlNanos * REFRESH_AHEAD);
+    }
+  }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.handle.impl;
+
+import edu.kit.metadatahub.doip.handle.HandleRecord;
+import edu.kit.metadatahub.doip.handle.IHandleManager;
+import edu.kit.metadatahub.doip.handle.IHandleService;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handles stored in an append-only log file. Every create/edit appends a
+ * record (length, CRC32, handle, resolve URL) to the memory-mapped end of the
+ * file; the latest URL of each handle is kept in a concurrent map, so lookups
+ * never lock. The map is rebuilt from the log at startup, a torn record at the
+ * end of the log (crash while writing) is ignored.
+ *
+ * Records are written by a single writer thread. It takes all records queued
+ * since its last write, appends them and forces them to disk once (group
+ * commit). With 'syncWrites' the calling thread waits until its record is on
+ * disk.
+ *
+ * The log may also serve as handle service behind a PooledHandleManager.
+ */
+public class HandleLog implements IHandleManager, IHandleService, Closeable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(HandleLog.class);
+  /**
+   * Default size of the mapped region at the end of the log.
+   */
+  public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+  /**
+   * Max. number of records written with one force.
+   */
+  private static final int MAX_GROUP_SIZE = 4096;
+  /**
+   * Max. length of handle and resolve URL (UTF-8).
+   */
+  private static final int MAX_RECORD_LENGTH = 64 * 1024;
+  /**
+   * Length of the record header (length and CRC32).
+   */
+  private static final int HEADER_LENGTH = 8;
+
+  private final String prefix;
+  private final boolean syncWrites;
+  private final int regionSize;
+  private final long ttl;
+  private final FileChannel channel;
+  private final Map<String, String> handles = new ConcurrentHashMap<>();
+  private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+  /**
+   * Orders updates of the map and the log, so both agree after a restart.
+   */
+  private final ReentrantLock appendLock = new ReentrantLock();
+  private final Object commitMonitor = new Object();
+  private final Thread writer;
+  private MappedByteBuffer region;
+  private long regionStart;
+  private long lastSequence = 0;
+  private long committedSequence = 0;
+  /**
+   * Error of the writer thread (set once, the log accepts no further
+   * records).
+   */
+  private volatile IOException failure;
+  private volatile boolean running = true;
+
+  /**
+   * Open log with default region size. The file is created if it doesn't
+   * exist.
+   *
+   * @param file Log file.
+   * @param prefix Prefix of created handles (e.g. '21.T11148/').
+   * @param syncWrites Wait until records are on disk.
+   * @throws IOException Log can't be read or mapped.
+   */
+  public HandleLog(Path file, String prefix, boolean syncWrites) throws IOException {
+    this(file, prefix, syncWrites, DEFAULT_REGION_SIZE);
+  }
+
+  /**
+   * Open log. The file is created if it doesn't exist.
+   *
+   * @param file Log file.
+   * @param prefix Prefix of created handles (e.g. '21.T11148/').
+   * @param syncWrites Wait until records are on disk.
+   * @param regionSize Size of the mapped region at the end of the log.
+   * @throws IOException Log can't be read or mapped.
+   */
+  public HandleLog(Path file, String prefix, boolean syncWrites, int regionSize) throws IOException {
+    this(file, prefix, syncWrites, regionSize, HandleRecord.TTL_UNKNOWN);
+  }
+
+  /**
+   * Open log. The file is created if it doesn't exist.
+   *
+   * @param file Log file.
+   * @param prefix Prefix of created handles (e.g. '21.T11148/').
+   * @param syncWrites Wait until records are on disk.
+   * @param regionSize Size of the mapped region at the end of the log.
+   * @param ttl Time to live of resolved records (in s).
+   * @throws IOException Log can't be read or mapped.
+   */
+  public HandleLog(Path file, String prefix, boolean syncWrites, int regionSize, long ttl) throws IOException {
+    this.prefix = prefix.endsWith("/") ? prefix : prefix + "/";
+    this.syncWrites = syncWrites;
+    this.regionSize = Math.max(regionSize, MAX_RECORD_LENGTH + HEADER_LENGTH);
+    this.ttl = ttl;
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long end = replay();
+    // drop torn records, the mapped region beyond the log is zero-filled
+    channel.truncate(end);
+    mapRegion(end);
+    LOGGER.info("Loaded {} handle(s) from '{}'.", handles.size(), file);
+    writer = new Thread(this::writeLoop, "handle-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @Override
+  public String createHandle() {
+    return createHandle("");
+  }
+
+  @Override
+  public String createHandle(String resolveUrl) {
+    String newHandle = prefix + UUID.randomUUID();
+    append(newHandle, resolveUrl);
+    LOGGER.trace("Create handle -> '{}': '{}'", newHandle, resolveUrl);
+    return newHandle;
+  }
+
+  @Override
+  public String editHandle(String handle, String resolveUrl) {
+    append(handle, resolveUrl);
+    LOGGER.trace("Edit handle -> '{}': '{}'", handle, resolveUrl);
+    return handle;
+  }
+
+  @Override
+  public String resolveHandle(String handle) {
+    String resolveUrl = handles.get(handle);
+    LOGGER.trace("Resolve handle: '{}' -> '{}'", handle, resolveUrl);
+    return ((resolveUrl != null) && !resolveUrl.isEmpty()) ? resolveUrl : null;
+  }
+
+  @Override
+  public HandleRecord resolveHandleRecord(String handle) {
+    String resolveUrl = resolveHandle(handle);
+    return (resolveUrl != null) ? new HandleRecord(handle, resolveUrl, ttl) : null;
+  }
+
+  @Override
+  public List<String> mintHandles(int count) throws IOException {
+    List<String> newHandles = new ArrayList<>(count);
+    long sequence = 0;
+    for (int index = 0; index < count; index++) {
+      String newHandle = prefix + UUID.randomUUID();
+      sequence = enqueue(newHandle, "");
+      newHandles.add(newHandle);
+    }
+    // wait for the whole block at once
+    if (syncWrites) {
+      awaitCommit(sequence);
+    }
+    return newHandles;
+  }
+
+  @Override
+  public void registerHandles(Map<String, String> resolveUrls) throws IOException {
+    long sequence = 0;
+    for (Map.Entry<String, String> entry : resolveUrls.entrySet()) {
+      sequence = enqueue(entry.getKey(), entry.getValue());
+    }
+    if (syncWrites && (sequence > 0)) {
+      awaitCommit(sequence);
+    }
+  }
+
+  /**
+   * @return the number of handles.
+   */
+  public int size() {
+    return handles.size();
+  }
+
+  /**
+   * Write all queued records and close the log.
+   *
+   * @throws IOException Error while writing.
+   */
+  @Override
+  public void close() throws IOException {
+    running = false;
+    try {
+      writer.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      region.force();
+    } finally {
+      channel.close();
+    }
+    synchronized (commitMonitor) {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  private void append(String handle, String resolveUrl) {
+    long sequence = enqueue(handle, resolveUrl);
+    if (syncWrites) {
+      awaitCommit(sequence);
+    }
+  }
+
+  /**
+   * Update map and queue record for the writer thread.
+   *
+   * @return Sequence number of the record.
+   */
+  private long enqueue(String handle, String resolveUrl) {
+    String url = (resolveUrl != null) ? resolveUrl : "";
+    byte[] handleBytes = handle.getBytes(StandardCharsets.UTF_8);
+    byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+    if (2 + handleBytes.length + urlBytes.length > MAX_RECORD_LENGTH) {
+      throw new IllegalArgumentException("Handle/URL too long: '" + handle + "'");
+    }
+    if (!running) {
+      throw new IllegalStateException("Handle log is closed!");
+    }
+    IOException writeFailure = failure;
+    if (writeFailure != null) {
+      // writer thread is gone, records would never reach the disk
+      throw new UncheckedIOException("Handle log is not writable!", writeFailure);
+    }
+    long sequence;
+    appendLock.lock();
+    try {
+      sequence = ++lastSequence;
+      handles.put(handle, url);
+      queue.add(new Record(sequence, handleBytes, urlBytes));
+    } finally {
+      appendLock.unlock();
+    }
+    return sequence;
+  }
+
+  private void awaitCommit(long sequence) {
+    synchronized (commitMonitor) {
+      while ((committedSequence < sequence) && (failure == null)) {
+        try {
+          commitMonitor.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting for handle log!", ex);
+        }
+      }
+      if (failure != null) {
+        throw new UncheckedIOException(failure);
+      }
+    }
+  }
+
+  /**
+   * Loop of the writer thread (group commit).
+   */
+  private void writeLoop() {
+    List<Record> group = new ArrayList<>();
+    while (running || !queue.isEmpty()) {
+      try {
+        Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        group.add(first);
+        queue.drainTo(group, MAX_GROUP_SIZE - 1);
+        for (Record record : group) {
+          write(record);
+        }
+        if (syncWrites) {
+          region.force();
+        }
+        synchronized (commitMonitor) {
+          committedSequence = group.get(group.size() - 1).sequence;
+          commitMonitor.notifyAll();
+        }
+      } catch (InterruptedException ex) {
+        // close() stops the loop via 'running'
+      } catch (IOException | RuntimeException ex) {
+        LOGGER.error("Can't write handle log!", ex);
+        synchronized (commitMonitor) {
+          failure = (ex instanceof IOException) ? (IOException) ex : new IOException(ex);
+          commitMonitor.notifyAll();
+        }
+        return;
+      } finally {
+        group.clear();
+      }
+    }
+  }
+
+  private void write(Record record) throws IOException {
+    int length = 2 + record.handle.length + record.url.length;
+    if (region.remaining() < HEADER_LENGTH + length + HEADER_LENGTH) {
+      // keep a zero header behind the last record as end mark
+      region.force();
+      mapRegion(regionStart + region.position());
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record.handle);
+    crc.update(record.url);
+    region.putInt(length);
+    region.putInt((int) crc.getValue());
+    region.putShort((short) record.handle.length);
+    region.put(record.handle);
+    region.put(record.url);
+  }
+
+  private void mapRegion(long start) throws IOException {
+    region = channel.map(FileChannel.MapMode.READ_WRITE, start, regionSize);
+    regionStart = start;
+  }
+
+  /**
+   * Read all records of the log into the map.
+   *
+   * @return Position after the last valid record.
+   */
+  private long replay() throws IOException {
+    long position = 0;
+    channel.position(0);
+    InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+    DataInputStream data = new DataInputStream(in);
+    try {
+      while (true) {
+        int length = data.readInt();
+        if ((length <= 2) || (length > MAX_RECORD_LENGTH)) {
+          break;
+        }
+        int checksum = data.readInt();
+        int handleLength = data.readUnsignedShort();
+        if (handleLength > length - 2) {
+          break;
+        }
+        byte[] handle = new byte[handleLength];
+        byte[] url = new byte[length - 2 - handleLength];
+        data.readFully(handle);
+        data.readFully(url);
+        CRC32 crc = new CRC32();
+        crc.update(handle);
+        crc.update(url);
+        if ((int) crc.getValue() != checksum) {
+          LOGGER.warn("Invalid record at position {} of handle log; ignoring the rest.", position);
+          break;
+        }
+        handles.put(new String(handle, StandardCharsets.UTF_8), new String(url, StandardCharsets.UTF_8));
+        position += HEADER_LENGTH + length;
+      }
+    } catch (EOFException ex) {
+      // end of log
+    }
+    return position;
+  }
+
+  /**
+   * Record queued for the writer thread.
+   */
+  private static final class Record {
+
+    private final long sequence;
+    private final byte[] handle;
+    private final byte[] url;
+
+    Record(long sequence, byte[] handle, byte[] url) {
+      this.sequence = sequence;
+      this.handle = handle;
+      this.url = url;
+    }
+  }
+}
@@ -16,9 +16,9 @@
 package edu.kit.metadatahub.doip.handle.impl;
 
 import edu.kit.metadatahub.doip.handle.IHandleManager;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,7 +31,7 @@ public class HandleMockup implements IHandleManager {
    */
   private final static Logger LOGGER = LoggerFactory.getLogger(HandleMockup.class);
     private static final String NO_URL = "not resolved yet!";
-    private Map<String, String> handleMap = new HashMap<>();
+    private Map<String, String> handleMap = new ConcurrentHashMap<>();
     private static final String PREFIX = "123456/";
 
     @Override
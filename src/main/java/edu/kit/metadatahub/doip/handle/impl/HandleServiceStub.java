@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.handle.impl;
+
+import edu.kit.metadatahub.doip.handle.HandleRecord;
+import edu.kit.metadatahub.doip.handle.IHandleService;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for a remote handle service (for tests and load tests).
+ * Every call is delayed by a fixed latency like a round trip to a handle
+ * server; the number of calls is counted.
+ */
+public class HandleServiceStub implements IHandleService {
+
+  private final String prefix;
+  private final long latencyMillis;
+  private final long ttl;
+  private final Map<String, String> handleMap = new ConcurrentHashMap<>();
+  private final AtomicLong mintCalls = new AtomicLong();
+  private final AtomicLong registerCalls = new AtomicLong();
+  private final AtomicLong resolveCalls = new AtomicLong();
+
+  /**
+   * Create stub.
+   *
+   * @param prefix Prefix of minted handles.
+   * @param latencyMillis Latency of each call (in ms).
+   */
+  public HandleServiceStub(String prefix, long latencyMillis) {
+    this(prefix, latencyMillis, HandleRecord.TTL_UNKNOWN);
+  }
+
+  /**
+   * Create stub.
+   *
+   * @param prefix Prefix of minted handles.
+   * @param latencyMillis Latency of each call (in ms).
+   * @param ttl Time to live of resolved records (in s).
+   */
+  public HandleServiceStub(String prefix, long latencyMillis, long ttl) {
+    this.prefix = prefix.endsWith("/") ? prefix : prefix + "/";
+    this.latencyMillis = latencyMillis;
+    this.ttl = ttl;
+  }
+
+  @Override
+  public List<String> mintHandles(int count) throws IOException {
+    mintCalls.incrementAndGet();
+    delay();
+    List<String> handles = new ArrayList<>(count);
+    for (int index = 0; index < count; index++) {
+      String handle = prefix + UUID.randomUUID();
+      handleMap.put(handle, "");
+      handles.add(handle);
+    }
+    return handles;
+  }
+
+  @Override
+  public void registerHandles(Map<String, String> resolveUrls) throws IOException {
+    registerCalls.incrementAndGet();
+    delay();
+    handleMap.putAll(resolveUrls);
+  }
+
+  @Override
+  public HandleRecord resolveHandleRecord(String handle) throws IOException {
+    resolveCalls.incrementAndGet();
+    delay();
+    String resolveUrl = handleMap.get(handle);
+    return ((resolveUrl != null) && !resolveUrl.isEmpty()) ? new HandleRecord(handle, resolveUrl, ttl) : null;
+  }
+
+  /**
+   * @return the number of mint calls.
+   */
+  public long getMintCalls() {
+    return mintCalls.get();
+  }
+
+  /**
+   * @return the number of register calls.
+   */
+  public long getRegisterCalls() {
+    return registerCalls.get();
+  }
+
+  /**
+   * @return the number of resolve calls.
+   */
+  public long getResolveCalls() {
+    return resolveCalls.get();
+  }
+
+  private void delay() throws IOException {
+    if (latencyMillis > 0) {
+      try {
+        Thread.sleep(latencyMillis);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted call of handle service!");
+      }
+    }
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.handle.impl;
+
+import com.google.gson.JsonObject;
+import edu.kit.metadatahub.doip.handle.HandleRecord;
+import edu.kit.metadatahub.doip.handle.IHandleManager;
+import edu.kit.metadatahub.doip.handle.IHandleService;
+import edu.kit.metadatahub.doip.mapping.bulk.BulkBatcher;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handle manager keeping the round trips to a handle service off the request
+ * path. Handles are taken from a block minted in advance; the block is
+ * refilled in the background when half of it is used. Resolve URLs are
+ * registered asynchronously in batches (max. 'batchSize' handles or after
+ * 'lingerMillis'). Until a registration is done the handle is resolved
+ * locally. Failed registrations stay pending and are retried with growing
+ * delay; handles still not registered on shutdown are logged.
+ *
+ * Handles still in the pool on shutdown are never used.
+ */
+public class PooledHandleManager implements IHandleManager, Closeable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(PooledHandleManager.class);
+  /**
+   * Delay before the first retry of a failed registration (in ms).
+   */
+  private static final long RETRY_DELAY_MILLIS = 100;
+  /**
+   * Max. delay between retries of a failed registration (in ms).
+   */
+  private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+  private final IHandleService service;
+  private final int blockSize;
+  private final Queue<String> pool = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger poolSize = new AtomicInteger();
+  private final AtomicBoolean refilling = new AtomicBoolean();
+  private final Object mintLock = new Object();
+  private final Map<String, String> pending = new ConcurrentHashMap<>();
+  private final BulkBatcher<Registration> batcher;
+  private final ExecutorService refillExecutor;
+  private final ScheduledThreadPoolExecutor registerExecutor;
+  private final AtomicLong mintedHandles = new AtomicLong();
+  private final AtomicLong emptyPoolCount = new AtomicLong();
+  private final AtomicLong registeredHandles = new AtomicLong();
+  private final AtomicLong failedRegistrations = new AtomicLong();
+  /**
+   * Handles of failed registrations waiting for a retry.
+   */
+  private final Set<String> retrying = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Create manager.
+   *
+   * @param service Handle service.
+   * @param blockSize Number of handles minted at once.
+   * @param batchSize Max. number of handles registered at once.
+   * @param lingerMillis Max. time a registration waits for further
+   * registrations (in ms).
+   */
+  public PooledHandleManager(IHandleService service, int blockSize, int batchSize, long lingerMillis) {
+    this.service = service;
+    this.blockSize = Math.max(1, blockSize);
+    refillExecutor = Executors.newSingleThreadExecutor(runnable -> newThread(runnable, "handle-refill"));
+    registerExecutor = new ScheduledThreadPoolExecutor(1, runnable -> newThread(runnable, "handle-register"));
+    // retries waiting on shutdown are replaced by a final attempt in close()
+    registerExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    batcher = new BulkBatcher<>(batchSize, lingerMillis, batch -> registerExecutor.execute(() -> register(toMap(batch), 0)));
+    refillAsync();
+  }
+
+  private static Thread newThread(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  @Override
+  public String createHandle() {
+    return takeHandle();
+  }
+
+  @Override
+  public String createHandle(String resolveUrl) {
+    String newHandle = takeHandle();
+    if ((resolveUrl != null) && !resolveUrl.isEmpty()) {
+      editHandle(newHandle, resolveUrl);
+    }
+    LOGGER.trace("Create handle -> '{}': '{}'", newHandle, resolveUrl);
+    return newHandle;
+  }
+
+  @Override
+  public String editHandle(String handle, String resolveUrl) {
+    pending.put(handle, resolveUrl);
+    batcher.add(new Registration(handle, resolveUrl));
+    LOGGER.trace("Edit handle -> '{}': '{}'", handle, resolveUrl);
+    return handle;
+  }
+
+  @Override
+  public String resolveHandle(String handle) {
+    HandleRecord record = resolveHandleRecord(handle);
+    return (record != null) ? record.getResolveUrl() : null;
+  }
+
+  @Override
+  public HandleRecord resolveHandleRecord(String handle) {
+    HandleRecord record = null;
+    String resolveUrl = pending.get(handle);
+    if (resolveUrl != null) {
+      // not yet registered, so the service can't tell its TTL
+      record = new HandleRecord(handle, resolveUrl, HandleRecord.TTL_UNKNOWN);
+    } else {
+      try {
+        record = service.resolveHandleRecord(handle);
+      } catch (IOException ex) {
+        LOGGER.warn("Can't resolve handle '{}'!", handle, ex);
+      }
+    }
+    LOGGER.trace("Resolve handle: '{}' -> '{}'", handle, (record != null) ? record.getResolveUrl() : null);
+    return record;
+  }
+
+  /**
+   * @return counters of pool and registrations.
+   */
+  public JsonObject getStatistics() {
+    JsonObject json = new JsonObject();
+    json.addProperty("pooledHandles", poolSize.get());
+    json.addProperty("mintedHandles", mintedHandles.get());
+    json.addProperty("emptyPoolCount", emptyPoolCount.get());
+    json.addProperty("pendingRegistrations", pending.size());
+    json.addProperty("registeredHandles", registeredHandles.get());
+    json.addProperty("failedRegistrations", failedRegistrations.get());
+    json.addProperty("retryingRegistrations", retrying.size());
+    return json;
+  }
+
+  /**
+   * Register all pending resolve URLs and stop the background threads.
+   * Handles which still can't be registered are logged with their resolve
+   * URL.
+   */
+  @Override
+  public void close() {
+    batcher.close();
+    refillExecutor.shutdownNow();
+    registerExecutor.shutdown();
+    try {
+      if (!registerExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+        LOGGER.warn("Registration of handles not finished on shutdown!");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    if (!pending.isEmpty()) {
+      // final attempt for failed registrations waiting for a retry
+      Map<String, String> resolveUrls = new LinkedHashMap<>(pending);
+      try {
+        service.registerHandles(resolveUrls);
+        registeredHandles.addAndGet(resolveUrls.size());
+        resolveUrls.forEach(pending::remove);
+      } catch (IOException | RuntimeException ex) {
+        LOGGER.error("{} handle(s) not registered on shutdown!", pending.size(), ex);
+      }
+      pending.forEach((handle, resolveUrl) -> LOGGER.error("Handle not registered: '{}' -> '{}'", handle, resolveUrl));
+    }
+  }
+
+  private String takeHandle() {
+    String handle = pollPool();
+    if (handle == null) {
+      // pool is empty: the caller has to wait for a new block
+      emptyPoolCount.incrementAndGet();
+      synchronized (mintLock) {
+        handle = pollPool();
+        if (handle == null) {
+          List<String> block = mint();
+          handle = block.get(0);
+          addToPool(block.subList(1, block.size()));
+        }
+      }
+    }
+    if (poolSize.get() < blockSize / 2) {
+      refillAsync();
+    }
+    return handle;
+  }
+
+  private String pollPool() {
+    String handle = pool.poll();
+    if (handle != null) {
+      poolSize.decrementAndGet();
+    }
+    return handle;
+  }
+
+  private void addToPool(List<String> handles) {
+    pool.addAll(handles);
+    poolSize.addAndGet(handles.size());
+  }
+
+  private List<String> mint() {
+    try {
+      List<String> block = service.mintHandles(blockSize);
+      if (block.isEmpty()) {
+        throw new IOException("Handle service minted no handles!");
+      }
+      mintedHandles.addAndGet(block.size());
+      return block;
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Can't mint handles!", ex);
+    }
+  }
+
+  private void refillAsync() {
+    if (refilling.compareAndSet(false, true)) {
+      try {
+        refillExecutor.execute(() -> {
+          try {
+            List<String> block = mint();
+            synchronized (mintLock) {
+              addToPool(block);
+            }
+          } catch (RuntimeException ex) {
+            LOGGER.warn("Can't refill handle pool!", ex);
+          } finally {
+            refilling.set(false);
+          }
+        });
+      } catch (RuntimeException ex) {
+        // executor is shut down
+        refilling.set(false);
+      }
+    }
+  }
+
+  private static Map<String, String> toMap(List<Registration> batch) {
+    Map<String, String> resolveUrls = new LinkedHashMap<>();
+    for (Registration registration : batch) {
+      resolveUrls.put(registration.handle, registration.resolveUrl);
+    }
+    return resolveUrls;
+  }
+
+  /**
+   * Register batch (runs on the register thread, so batches keep their
+   * order). If the registration fails the handles stay pending and the
+   * batch is retried after a delay growing with every retry.
+   *
+   * @param resolveUrls Resolve URL per handle.
+   * @param retries Number of failed attempts so far.
+   */
+  private void register(Map<String, String> resolveUrls, int retries) {
+    try {
+      service.registerHandles(resolveUrls);
+      registeredHandles.addAndGet(resolveUrls.size());
+      retrying.removeAll(resolveUrls.keySet());
+      // later edits of the same handle stay pending
+      resolveUrls.forEach(pending::remove);
+    } catch (IOException | RuntimeException ex) {
+      failedRegistrations.addAndGet(resolveUrls.size());
+      retrying.addAll(resolveUrls.keySet());
+      long delay = Math.min(RETRY_DELAY_MILLIS << Math.min(retries, 20), MAX_RETRY_DELAY_MILLIS);
+      LOGGER.warn("Registration of {} handle(s) failed (attempt {}), retry in {} ms.", resolveUrls.size(), retries + 1, delay, ex);
+      try {
+        registerExecutor.schedule(() -> retry(resolveUrls.keySet(), retries + 1), delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException ree) {
+        // shutting down: close() makes a final attempt
+        LOGGER.debug("Retry of {} handle(s) left to shutdown.", resolveUrls.size());
+      }
+    }
+  }
+
+  /**
+   * Retry failed registration with the latest resolve URL of each handle
+   * (handles registered meanwhile by a later batch are skipped).
+   */
+  private void retry(Set<String> handles, int retries) {
+    Map<String, String> resolveUrls = new LinkedHashMap<>();
+    for (String handle : handles) {
+      String resolveUrl = pending.get(handle);
+      if (resolveUrl != null) {
+        resolveUrls.put(handle, resolveUrl);
+      } else {
+        retrying.remove(handle);
+      }
+    }
+    if (!resolveUrls.isEmpty()) {
+      register(resolveUrls, retries);
+    }
+  }
+
+  /**
+   * Resolve URL waiting for registration.
+   */
+  private static final class Registration {
+
+    private final String handle;
+    private final String resolveUrl;
+
+    Registration(String handle, String resolveUrl) {
+      this.handle = handle;
+      this.resolveUrl = resolveUrl;
+    }
+  }
+}
@@ -17,29 +17,55 @@ package edu.kit.metadatahub.doip.mapping;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import edu.kit.metadatahub.doip.exception.MappingException;
 import edu.kit.metadatahub.doip.handle.IHandleManager;
 import edu.kit.metadatahub.doip.handle.impl.HandleMockup;
+import edu.kit.metadatahub.doip.mapping.cache.CachedElement;
+import edu.kit.metadatahub.doip.mapping.cache.RetrieveCache;
+import edu.kit.metadatahub.doip.mapping.coalesce.RetrieveResult;
+import edu.kit.metadatahub.doip.mapping.coalesce.SingleFlight;
 import edu.kit.metadatahub.doip.mapping.metadata.IMetadataMapper;
-import edu.kit.metadatahub.doip.mapping.metadata.impl.SchemaRecordMapper;
+import edu.kit.metadatahub.doip.mapping.plan.MappingPlan;
+import edu.kit.metadatahub.doip.mapping.plan.OperationPlan;
+import edu.kit.metadatahub.doip.mapping.plan.PagingPlan;
+import edu.kit.metadatahub.doip.mapping.search.SearchCursor;
+import edu.kit.metadatahub.doip.mapping.search.SearchIndex;
+import edu.kit.metadatahub.doip.mapping.search.SearchWindow;
+import edu.kit.metadatahub.doip.mapping.search.SortOrder;
+import edu.kit.metadatahub.doip.metrics.MetricsRegistry;
 import edu.kit.metadatahub.doip.server.util.DoipUtil;
+import edu.kit.metadatahub.doip.server.util.JsonCodecs;
+import edu.kit.rest.util.BackendResponseStream;
+import edu.kit.rest.util.BackendUnavailableException;
+import edu.kit.rest.util.CircuitBreaker;
+import edu.kit.rest.util.FormPart;
+import edu.kit.rest.util.HttpTransport;
+import edu.kit.rest.util.HttpTransportRegistry;
+import edu.kit.rest.util.ResultPage;
 import edu.kit.rest.util.SimpleServiceClient;
 import edu.kit.turntable.mapping.Datacite43Schema;
-import edu.kit.turntable.mapping.HttpCall;
 import edu.kit.turntable.mapping.HttpMapping;
-import edu.kit.turntable.mapping.Pid;
-import edu.kit.turntable.mapping.SchemaRecordSchema;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.net.URLEncoder;
-import java.nio.charset.Charset;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import net.dona.doip.DoipConstants;
 import net.dona.doip.client.DigitalObject;
 import net.dona.doip.client.DoipException;
@@ -49,8 +75,9 @@ import net.dona.doip.server.DoipServerResponse;
 import net.dona.doip.util.GsonUtility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
+import org.springframework.web.client.HttpStatusCodeException;
 
 /**
  * Generic Mapping service from DOIP to HTTP. For adaptions to an existing
@@ -66,16 +93,92 @@ public class Mapping2HttpService implements IMappingInterface {
 
   private static final String ATTRIBUTE_ALL_ELEMENTS = "includeElementData";
   private static final String ATTRIBUTE_ELEMENT = "element";
+  private static final String ATTRIBUTE_TYPE = "type";
+  private static final String SEARCH_TYPE_ID = "id";
+  private static final String SEARCH_ALL = "*";
+  private static final String ATTRIBUTE_PID = "pid";
 
-  HttpMapping mappingSchema;
+  MappingPlan mappingPlan;
 
   IHandleManager handleManager;
+  /**
+   * Executor for fetching elements concurrently (may be null).
+   */
+  ExecutorService executor;
+  /**
+   * Cache for retrieved elements (may be null).
+   */
+  RetrieveCache retrieveCache;
+  /**
+   * Table of running retrieves (may be null).
+   */
+  SingleFlight<RetrieveResult> singleFlight;
+  /**
+   * Index of the metadata seen by the hub (may be null).
+   */
+  SearchIndex searchIndex;
+
+  /**
+   * Create service. The mapping has to be initialized via initMapping().
+   */
+  public Mapping2HttpService() {
+    // Mapping will be set later.
+  }
+
+  /**
+   * Create service for a compiled mapping.
+   *
+   * @param mappingPlan Compiled mapping.
+   * @param handleManager Handle manager shared by all services.
+   * @param executor Executor for fetching elements concurrently (if null all
+   * calls are executed sequentially).
+   * @param retrieveCache Cache for retrieved elements (may be null).
+   * @param singleFlight Table of running retrieves shared by all services (if
+   * null identical retrieves are not coalesced).
+   * @param searchIndex Index of the metadata shared by all services (may be
+   * null).
+   */
+  public Mapping2HttpService(MappingPlan mappingPlan, IHandleManager handleManager, ExecutorService executor, RetrieveCache retrieveCache, SingleFlight<RetrieveResult> singleFlight, SearchIndex searchIndex) {
+    this.mappingPlan = mappingPlan;
+    this.handleManager = handleManager;
+    this.executor = executor;
+    this.retrieveCache = retrieveCache;
+    this.singleFlight = singleFlight;
+    this.searchIndex = searchIndex;
+  }
 
   @Override
   public void initMapping(HttpMapping mapping) {
-    mappingSchema = mapping;
-    LOGGER.trace("Initialise mapping service with mapping: '{}'", mappingSchema);
-    handleManager = new HandleMockup();
+    LOGGER.trace("Initialise mapping service with mapping: '{}'", mapping);
+    try {
+      mappingPlan = MappingPlan.compile(mapping);
+    } catch (MappingException ex) {
+      throw new IllegalArgumentException(ex.getMessage(), ex);
+    }
+    // services created by the registry share the handle manager
+    if (handleManager == null) {
+      handleManager = new HandleMockup();
+    }
+  }
+
+  /**
+   * @return the compiled mapping.
+   */
+  public MappingPlan getMappingPlan() {
+    return mappingPlan;
+  }
+
+  /**
+   * Get the id of an object from its resolve URL (as registered for minted
+   * handles, see mintHandle()).
+   *
+   * @param resolveUrl Resolve URL of a handle.
+   * @return Id of the object or null if the URL doesn't belong to this
+   * mapping.
+   */
+  public String getObjectId(String resolveUrl) {
+    List<OperationPlan> retrieve = mappingPlan.getRetrieve();
+    return ((retrieve != null) && !retrieve.isEmpty()) ? retrieve.get(0).getRequestUrl().extractTargetId(resolveUrl) : null;
   }
 
   @Override
@@ -86,14 +189,82 @@ public class Mapping2HttpService implements IMappingInterface {
   @Override
   public void create(DoipServerRequest req, DoipServerResponse resp) throws DoipException, IOException {
     LOGGER.debug("Repo: Create...");
-    doRestCall(req, resp, mappingSchema.getMappings().getDoipOpCreate());
+    doRestCall(req, resp, getOperation(mappingPlan.getCreate(), "create"));
     resp.setAttribute(DoipConstants.MESSAGE_ATT, "Successfully created!");
     LOGGER.trace("Returning from create().");
   }
 
+  /**
+   * Search via the list/query endpoint of the backend. The results are
+   * written while the pages of the backend are read, so a page of the search
+   * may span several backend pages without being held in memory. If more
+   * results are available, the output contains a cursor for fetching the next
+   * page (attribute 'cursor').
+   */
   @Override
   public void search(DoipServerRequest req, DoipServerResponse resp) throws DoipException, IOException {
-    throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+    LOGGER.debug("Repo: Search...");
+    OperationPlan mapping = getOperation(mappingPlan.getSearch(), "search");
+    SearchCursor cursor = SearchCursor.fromRequest(req, mapping.getPaging().getDefaultPageSize());
+    SortOrder sort = null;
+    if (cursor.getSortFields() != null) {
+      if (mapping.getPaging().getSortParam() == null) {
+        throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Sorting is not supported by '" + mappingPlan.getTargetId() + "'!");
+      }
+      sort = SortOrder.parse(cursor.getSortFields());
+    }
+    boolean idsOnly = SEARCH_TYPE_ID.equals(req.getAttributeAsString(ATTRIBUTE_TYPE));
+    DoipUtil doipUtil = DoipUtil.forItem(req.getTargetId(), req.getAuthentication());
+    long written = 0;
+    // errors of the first call are still reported via the status
+    try (SearchPages pages = new SearchPages(doipUtil, mapping, cursor.getQuery(), sort, cursor.getOffset(), cursor.getPageSize())) {
+      resp.setStatus(DoipConstants.STATUS_OK);
+      try (JsonWriter writer = new JsonWriter(resp.getOutput().getJsonWriter())) {
+        writer.beginObject();
+        writer.name("size").value(pages.getSize());
+        writer.name("results").beginArray();
+        for (Datacite43Schema datacite = pages.next(); datacite != null; datacite = pages.next()) {
+          if (writeSearchResult(writer, doipUtil, datacite, idsOnly)) {
+            written++;
+          }
+        }
+        writer.endArray();
+        if (pages.hasMoreResults() && (cursor.getPageSize() > 0)) {
+          writer.name(SearchCursor.ATTRIBUTE_CURSOR).value(cursor.next(pages.getOffset()).encode());
+        }
+        writer.endObject();
+      }
+    }
+    LOGGER.trace("Returning from search(): {} result(s).", written);
+  }
+
+  /**
+   * Fetch consecutive results of a search. Used by federated searches which
+   * merge the results of all backends.
+   *
+   * @param doipUtil Target and authentication of the request.
+   * @param query Query of the search.
+   * @param sort Sort order (null for the default order of the backend).
+   * @param offset Index of the first result.
+   * @param limit Max. number of results.
+   * @return Results.
+   * @throws DoipException Search is not mapped or backend reports an error.
+   * @throws IOException Error while accessing the backend or search was
+   * interrupted.
+   */
+  public SearchWindow searchWindow(DoipUtil doipUtil, String query, SortOrder sort, long offset, int limit) throws DoipException, IOException {
+    OperationPlan mapping = getOperation(mappingPlan.getSearch(), "search");
+    List<Datacite43Schema> results = new ArrayList<>();
+    try (SearchPages pages = new SearchPages(doipUtil, mapping, query, sort, offset, limit)) {
+      for (Datacite43Schema datacite = pages.next(); datacite != null; datacite = pages.next()) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("Search of '" + mappingPlan.getTargetId() + "' cancelled!");
+        }
+        index(doipUtil, DoipUtil.getIdentifier(datacite), datacite);
+        results.add(datacite);
+      }
+      return new SearchWindow(pages.getSize(), results, pages.hasMoreResults());
+    }
   }
 
   @Override
@@ -113,56 +284,58 @@ public class Mapping2HttpService implements IMappingInterface {
       resp.setAttribute(DoipConstants.MESSAGE_ATT, "Input is not allowed for retrieving a digital object!");
       throw new DoipException(DoipConstants.MESSAGE_ATT, "Input is not allowed for retrieving a digital object!");
     }
-    Set<String> elementSet = new HashSet<>();
-    for (HttpCall call : mappingSchema.getMappings().getDoipOpRetrieve()) {
-      elementSet.add(call.getLabel());
-    }
-    String[] allElements = elementSet.toArray(new String[1]);
     DigitalObject digitalObject = new DigitalObject();
     digitalObject.elements = new ArrayList<>();
     digitalObject.id = doipUtil.getTargetId();
-    String[] selectedElements = new String[1];
-    selectedElements[0] = "metadata";
+    List<OperationPlan> httpCall = new ArrayList<>();
     boolean retrieveNoElements = true;
-    if (req.getAttribute(ATTRIBUTE_ALL_ELEMENTS) != null && req.getAttribute(ATTRIBUTE_ALL_ELEMENTS).getAsBoolean()) {
-      selectedElements = allElements;
-      retrieveNoElements = false;
-    }
     if (req.getAttribute(ATTRIBUTE_ELEMENT) != null) {
       retrieveElementOnly = true;
-      selectedElements = new String[1];
-      selectedElements[0] = req.getAttributeAsString(ATTRIBUTE_ELEMENT);
       retrieveNoElements = false;
-    }
-    // Collect all elements.
-    List<HttpCall> httpCall = new ArrayList<>();
-    for (String element : selectedElements) {
-      for (HttpCall singleCall : mappingSchema.getMappings().getDoipOpRetrieve()) {
-        if (singleCall.getLabel().equals(element)) {
-          httpCall.add(singleCall);
-          break;
-        }
+      addRetrieveCall(httpCall, req.getAttributeAsString(ATTRIBUTE_ELEMENT));
+      if (httpCall.isEmpty()) {
+        throw new DoipException(DoipConstants.STATUS_NOT_FOUND, "Element '" + req.getAttributeAsString(ATTRIBUTE_ELEMENT) + "' is not available!");
       }
+    } else if (req.getAttribute(ATTRIBUTE_ALL_ELEMENTS) != null && req.getAttribute(ATTRIBUTE_ALL_ELEMENTS).getAsBoolean()) {
+      retrieveNoElements = false;
+      httpCall.addAll(mappingPlan.getRetrieve());
+    } else {
+      addRetrieveCall(httpCall, DoipUtil.ID_METADATA);
     }
-    // Fetch all elements 
-    DigitalObject collectDigitalObject = new DigitalObject();
-    for (HttpCall restCall : httpCall) {
-      HttpStatus resource = doPartialRestCall(doipUtil, collectDigitalObject, restCall);
-    }
-    JsonElement digitalObjectAsJson = GsonUtility.getGson().toJsonTree(collectDigitalObject);
-    LOGGER.debug("JSON element: '{}'", digitalObjectAsJson.toString());
-    if (retrieveElementOnly) {
-      LOGGER.trace("Write element directly to output...");
-      resp.getOutput().writeBytes(collectDigitalObject.elements.get(0).in);
+    // Fetch all elements (identical concurrent retrieves share one fetch)
+    if (singleFlight == null) {
+      writeRetrieveOutput(resp, fetchElements(doipUtil, httpCall), retrieveElementOnly, retrieveNoElements);
     } else {
-      resp.getOutput().writeJson(digitalObjectAsJson);
-      // attach elements
-      if (!retrieveNoElements) {
-        for (Element singleElement : collectDigitalObject.elements) {
-          writeElementToOutput(resp, singleElement);
+      SingleFlight.Flight<RetrieveResult> flight = singleFlight.join(getFlightKey(doipUtil, httpCall, retrieveElementOnly, retrieveNoElements));
+      if (flight.isLeader()) {
+        DigitalObject collectDigitalObject;
+        try {
+          collectDigitalObject = fetchElements(doipUtil, httpCall);
+        } catch (DoipException | IOException | RuntimeException | Error ex) {
+          // followers must not wait forever
+          flight.fail(ex);
+          throw ex;
+        }
+        int followers = flight.seal();
+        if (followers == 0) {
+          writeRetrieveOutput(resp, collectDigitalObject, retrieveElementOnly, retrieveNoElements);
+        } else {
+          LOGGER.trace("Share retrieve of '{}' with {} other request(s).", digitalObject.id, followers);
+          RetrieveResult result;
+          try {
+            result = RetrieveResult.share(collectDigitalObject, followers + 1);
+          } catch (IOException | RuntimeException ex) {
+            flight.fail(ex);
+            throw ex;
+          } finally {
+            closeElements(collectDigitalObject);
+          }
+          flight.complete(result);
+          writeSharedOutput(resp, result, retrieveElementOnly, retrieveNoElements);
         }
       } else {
-        collectDigitalObject.elements = new ArrayList<>();
+        LOGGER.trace("Wait for identical retrieve of '{}'.", digitalObject.id);
+        writeSharedOutput(resp, awaitFlight(flight), retrieveElementOnly, retrieveNoElements);
       }
     }
     resp.setStatus(DoipConstants.STATUS_OK);
@@ -176,7 +349,7 @@ public class Mapping2HttpService implements IMappingInterface {
   public void update(DoipServerRequest req, DoipServerResponse resp) throws DoipException, IOException {
     LOGGER.debug("Repo: Update...");
 
-    doRestCall(req, resp, mappingSchema.getMappings().getDoipOpUpdate());
+    doRestCall(req, resp, getOperation(mappingPlan.getUpdate(), "update"));
     LOGGER.trace("Returning from update().");
   }
 
@@ -190,205 +363,785 @@ public class Mapping2HttpService implements IMappingInterface {
     throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
   }
 
+  /**
+   * Retrieve a single item of a batch. Selection of the elements works like
+   * retrieve: a single element, all elements or only the metadata.
+   *
+   * @param doipUtil Util of the item (see DoipUtil.forItem()).
+   * @param element Id of the element (may be null).
+   * @param includeElementData Fetch all elements (if no element is given).
+   * @return Digital object. Open element streams have to be written or closed
+   * via writeElements().
+   * @throws DoipException Item can't be retrieved.
+   * @throws IOException Error while accessing the backend.
+   */
+  public DigitalObject retrieveItem(DoipUtil doipUtil, String element, boolean includeElementData) throws DoipException, IOException {
+    List<OperationPlan> httpCall = new ArrayList<>();
+    if (element != null) {
+      addRetrieveCall(httpCall, element);
+      if (httpCall.isEmpty()) {
+        throw new DoipException(DoipConstants.STATUS_NOT_FOUND, "Element '" + element + "' is not available!");
+      }
+    } else if (includeElementData) {
+      httpCall.addAll(mappingPlan.getRetrieve());
+    } else {
+      addRetrieveCall(httpCall, DoipUtil.ID_METADATA);
+    }
+    DigitalObject collectDigitalObject = fetchElements(doipUtil, httpCall);
+    if (collectDigitalObject.id == null) {
+      collectDigitalObject.id = doipUtil.getTargetId();
+    }
+    return collectDigitalObject;
+  }
+
+  /**
+   * Write all elements with content to the output (JSON segment holding the
+   * id followed by a bytes segment). All element streams are closed
+   * afterwards.
+   *
+   * @param resp Response.
+   * @param digitalObject Digital object.
+   * @throws IOException Error while writing output.
+   */
+  public void writeElements(DoipServerResponse resp, DigitalObject digitalObject) throws IOException {
+    try {
+      if (digitalObject.elements != null) {
+        for (Element singleElement : digitalObject.elements) {
+          writeElementToOutput(resp, singleElement);
+        }
+      }
+    } finally {
+      closeElements(digitalObject);
+    }
+  }
+
+  /**
+   * Create a single object of a bulk request via the create mapping.
+   *
+   * @param doipUtil Util holding the object (see DoipUtil.forItem()). Closed
+   * afterwards.
+   * @return Created digital object.
+   * @throws DoipException Object can't be created.
+   * @throws IOException Error while accessing the backend.
+   */
+  public DigitalObject createItem(DoipUtil doipUtil) throws DoipException, IOException {
+    DigitalObject collectDigitalObject = new DigitalObject();
+    try {
+      HttpStatus status = doPartialRestCall(doipUtil, collectDigitalObject, getOperation(mappingPlan.getCreate(), "create"));
+      if ((status == null) || !status.is2xxSuccessful()) {
+        throw toDoipException(status);
+      }
+    } finally {
+      doipUtil.close();
+      invalidateCache(collectDigitalObject.id);
+    }
+    return collectDigitalObject;
+  }
+
+  /**
+   * @return true if the create mapping declares a bulk endpoint.
+   */
+  public boolean supportsBulkCreate() {
+    return (mappingPlan.getCreate() != null) && (mappingPlan.getCreate().getBulkUrl() != null);
+  }
+
+  /**
+   * Create several objects (without elements) with one call of the bulk
+   * endpoint. The metadata of all objects is sent as JSON array; the backend
+   * answers with the created records in the same order.
+   *
+   * @param items Utils holding the objects (see DoipUtil.forItem()). Closed
+   * afterwards.
+   * @return Created digital objects (same order as items).
+   * @throws DoipException Objects can't be created.
+   * @throws IOException Error while accessing the backend.
+   */
+  public List<DigitalObject> createBulk(List<DoipUtil> items) throws DoipException, IOException {
+    try {
+      return doCreateBulk(items);
+    } finally {
+      for (DoipUtil item : items) {
+        item.close();
+      }
+    }
+  }
+
+  private List<DigitalObject> doCreateBulk(List<DoipUtil> items) throws DoipException, IOException {
+    OperationPlan mapping = getOperation(mappingPlan.getCreate(), "create");
+    if (mapping.getBulkUrl() == null) {
+      throw new DoipException(DoipConstants.STATUS_DECLINED, "No bulk endpoint mapped for '" + mappingPlan.getTargetId() + "'!");
+    }
+    DoipUtil firstItem = items.get(0);
+    String baseUrl = mapping.getBulkUrl().expand(firstItem.getTargetId());
+    HttpTransport transport = HttpTransportRegistry.getTransport(mappingPlan.getBackendUrl() != null ? mappingPlan.getBackendUrl() : HttpTransportRegistry.getKeyForUrl(baseUrl));
+    List<Object> records = new ArrayList<>(items.size());
+    for (DoipUtil item : items) {
+      Datacite43Schema datacite = item.getDatacite();
+      if (datacite == null) {
+        throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Missing datacite metadata!");
+      }
+      records.add((mapping.getMetadataMapper() != null) ? mapping.getMetadataMapper().mapFromDatacite(datacite) : datacite);
+    }
+    Map<String, String> container = new HashMap<>();
+    SimpleServiceClient simpleClient = prepareClient(firstItem, mapping, baseUrl, transport, container);
+    Class<?> arrayClass = Array.newInstance(mapping.getResponseClass(), 0).getClass();
+    Object response = callBackend(mapping, transport, simpleClient, false, () -> simpleClient.postJson(records, arrayClass));
+    int length = (response != null) ? Array.getLength(response) : 0;
+    if (length != items.size()) {
+      throw new DoipException(DoipConstants.STATUS_ERROR, "Bulk endpoint returned " + length + " records for " + items.size() + " objects!");
+    }
+    List<DigitalObject> created = new ArrayList<>(length);
+    for (int index = 0; index < length; index++) {
+      Object record = Array.get(response, index);
+      Datacite43Schema datacite = toDatacite(mapping, record);
+      DigitalObject digitalObject = new DigitalObject();
+      digitalObject.id = datacite.getIdentifiers().iterator().next().getIdentifier();
+      digitalObject.type = DoipUtil.TYPE_DO;
+      digitalObject.elements = new ArrayList<>();
+      digitalObject.attributes = new JsonObject();
+      digitalObject.attributes.add(DoipUtil.ATTR_DATACITE, JsonCodecs.getGson().toJsonTree(datacite));
+      JsonObject restHeader = new JsonObject();
+      container.forEach(restHeader::addProperty);
+      digitalObject.attributes.add("header", restHeader);
+      mintHandle(digitalObject);
+      created.add(digitalObject);
+      invalidateCache(digitalObject.id);
+      index(firstItem, digitalObject.id, datacite);
+    }
+    return created;
+  }
+
+  /**
+   * Mint handle for a created object and return it as attribute 'pid'. The
+   * handle resolves to the first retrieve call of the object.
+   */
+  private void mintHandle(DigitalObject digitalObject) {
+    List<OperationPlan> retrieve = mappingPlan.getRetrieve();
+    String resolveUrl = ((retrieve != null) && !retrieve.isEmpty()) ? retrieve.get(0).getRequestUrl().expand(digitalObject.id) : null;
+    digitalObject.attributes.addProperty(ATTRIBUTE_PID, handleManager.createHandle(resolveUrl));
+  }
+
+  /**
+   * Write digital object of a retrieve to the output. All element streams are
+   * closed afterwards.
+   */
+  private void writeRetrieveOutput(DoipServerResponse resp, DigitalObject collectDigitalObject, boolean retrieveElementOnly, boolean retrieveNoElements) throws IOException {
+    try {
+      JsonElement digitalObjectAsJson = GsonUtility.getGson().toJsonTree(collectDigitalObject);
+      LOGGER.debug("JSON element: '{}'", digitalObjectAsJson);
+      if (retrieveElementOnly) {
+        LOGGER.trace("Write element directly to output...");
+        writeStreamToOutput(resp, collectDigitalObject.elements.get(0).in);
+      } else {
+        resp.getOutput().writeJson(digitalObjectAsJson);
+        // attach elements
+        if (!retrieveNoElements) {
+          for (Element singleElement : collectDigitalObject.elements) {
+            writeElementToOutput(resp, singleElement);
+          }
+        }
+      }
+    } finally {
+      closeElements(collectDigitalObject);
+    }
+  }
+
+  /**
+   * Write shared result of a retrieve to the output.
+   */
+  private void writeSharedOutput(DoipServerResponse resp, RetrieveResult result, boolean retrieveElementOnly, boolean retrieveNoElements) throws IOException {
+    try {
+      writeRetrieveOutput(resp, result.open(), retrieveElementOnly, retrieveNoElements);
+    } finally {
+      result.release();
+    }
+  }
+
+  /**
+   * Wait for the result of an identical retrieve. Errors of the leader are
+   * forwarded to the follower.
+   */
+  private RetrieveResult awaitFlight(SingleFlight.Flight<RetrieveResult> flight) throws DoipException, IOException {
+    try {
+      return flight.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      // the leader counts this request as consumer of the shared result
+      flight.abandon(RetrieveResult::release);
+      throw new DoipException(DoipConstants.STATUS_ERROR, "Interrupted while waiting for retrieve!");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof DoipException) {
+        throw new DoipException(((DoipException) cause).getStatusCode(), cause.getMessage());
+      }
+      if (cause instanceof IOException) {
+        throw new IOException(cause.getMessage(), cause);
+      }
+      throw new DoipException(DoipConstants.STATUS_ERROR, String.valueOf(cause.getMessage()));
+    }
+  }
+
+  /**
+   * Key of a retrieve. Contains everything the response depends on: target,
+   * selected elements and authentication.
+   */
+  private static String getFlightKey(DoipUtil doipUtil, List<OperationPlan> httpCall, boolean retrieveElementOnly, boolean retrieveNoElements) {
+    StringBuilder key = new StringBuilder(doipUtil.getTargetId());
+    key.append('\n').append(retrieveElementOnly).append('/').append(retrieveNoElements);
+    for (OperationPlan call : httpCall) {
+      key.append('\n').append(call.getLabel());
+    }
+    JsonElement authentication = doipUtil.getAuthentication();
+    key.append('\n').append((authentication != null) ? authentication.toString() : "");
+    return key.toString();
+  }
+
+  /**
+   * Fetch all elements. If there is more than one element the calls will be
+   * executed concurrently. The results are merged in the order of the mapping.
+   * If one call fails all other calls will be cancelled.
+   */
+  private DigitalObject fetchElements(DoipUtil doipUtil, List<OperationPlan> httpCall) throws DoipException, IOException {
+    DigitalObject collectDigitalObject = new DigitalObject();
+    if ((executor == null) || (httpCall.size() < 2)) {
+      for (OperationPlan restCall : httpCall) {
+        doPartialRestCall(doipUtil, collectDigitalObject, restCall);
+      }
+      return collectDigitalObject;
+    }
+    // Read input before sharing util between threads.
+    doipUtil.getStreams();
+    // All partial results (streams have to be closed if retrieve fails).
+    Queue<DigitalObject> fetched = new ConcurrentLinkedQueue<>();
+    AtomicBoolean aborted = new AtomicBoolean(false);
+    List<Future<DigitalObject>> futures = new ArrayList<>();
+    for (OperationPlan restCall : httpCall) {
+      futures.add(executor.submit(() -> {
+        DigitalObject partialDigitalObject = new DigitalObject();
+        doPartialRestCall(doipUtil, partialDigitalObject, restCall);
+        fetched.add(partialDigitalObject);
+        if (aborted.get()) {
+          closeElements(partialDigitalObject);
+        }
+        return partialDigitalObject;
+      }));
+    }
+    int index = 0;
+    boolean success = false;
+    try {
+      for (; index < futures.size(); index++) {
+        mergeDigitalObject(collectDigitalObject, futures.get(index).get());
+      }
+      success = true;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new DoipException(DoipConstants.STATUS_ERROR, "Interrupted while retrieving elements!");
+    } catch (ExecutionException ex) {
+      LOGGER.error("Error retrieving element '{}'!", httpCall.get(index).getLabel(), ex.getCause());
+      Throwable cause = ex.getCause();
+      if (cause instanceof DoipException) {
+        throw (DoipException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      if (!success) {
+        // Cancel all calls still in flight and release streams already opened.
+        aborted.set(true);
+        for (Future<DigitalObject> future : futures) {
+          future.cancel(true);
+        }
+        for (DigitalObject partialDigitalObject : fetched) {
+          closeElements(partialDigitalObject);
+        }
+      }
+    }
+    return collectDigitalObject;
+  }
+
+  /**
+   * Merge the result of a single call into the digital object.
+   */
+  private void mergeDigitalObject(DigitalObject collectDigitalObject, DigitalObject partialDigitalObject) {
+    if (collectDigitalObject.id == null) {
+      collectDigitalObject.id = partialDigitalObject.id;
+    }
+    if (partialDigitalObject.type != null) {
+      collectDigitalObject.type = partialDigitalObject.type;
+    }
+    if (partialDigitalObject.attributes != null) {
+      if (collectDigitalObject.attributes == null) {
+        collectDigitalObject.attributes = new JsonObject();
+      }
+      for (Map.Entry<String, JsonElement> attribute : partialDigitalObject.attributes.entrySet()) {
+        JsonElement existing = collectDigitalObject.attributes.get(attribute.getKey());
+        if ((existing != null) && existing.isJsonObject() && attribute.getValue().isJsonObject()) {
+          for (Map.Entry<String, JsonElement> item : attribute.getValue().getAsJsonObject().entrySet()) {
+            existing.getAsJsonObject().add(item.getKey(), item.getValue());
+          }
+        } else if ((existing == null) || !attribute.getValue().isJsonNull()) {
+          collectDigitalObject.attributes.add(attribute.getKey(), attribute.getValue());
+        }
+      }
+    }
+    if (partialDigitalObject.elements != null) {
+      if (collectDigitalObject.elements == null) {
+        collectDigitalObject.elements = new ArrayList<>();
+      }
+      collectDigitalObject.elements.addAll(partialDigitalObject.elements);
+    }
+  }
+
+  /**
+   * Add compiled call for the given element (if mapped).
+   */
+  private void addRetrieveCall(List<OperationPlan> httpCall, String element) {
+    OperationPlan plan = mappingPlan.getRetrieve(element);
+    if (plan != null) {
+      httpCall.add(plan);
+    }
+  }
+
+  /**
+   * Rebuild index from the list endpoint of the backend (all pages of search
+   * '*'). Only objects listed without authentication are indexed.
+   *
+   * @return Number of indexed objects.
+   * @throws DoipException Error while listing objects.
+   * @throws IOException Error while accessing the backend.
+   */
+  public long rebuildIndex() throws DoipException, IOException {
+    if ((searchIndex == null) || (mappingPlan.getSearch() == null)) {
+      return 0;
+    }
+    OperationPlan mapping = mappingPlan.getSearch();
+    DoipUtil doipUtil = DoipUtil.forItem(mappingPlan.getTargetId(), null);
+    long count = 0;
+    boolean success = false;
+    searchIndex.startRebuild(mappingPlan.getTargetId());
+    try (SearchPages pages = new SearchPages(doipUtil, mapping, SEARCH_ALL, null, 0, -1)) {
+      for (Datacite43Schema datacite = pages.next(); datacite != null; datacite = pages.next()) {
+        index(doipUtil, DoipUtil.getIdentifier(datacite), datacite);
+        count++;
+      }
+      success = true;
+    } finally {
+      if (!searchIndex.finishRebuild(mappingPlan.getTargetId(), success) && success) {
+        LOGGER.warn("Search index of '{}' is incomplete (max. size exceeded?), searches are forwarded to the backend.", mappingPlan.getTargetId());
+      }
+    }
+    LOGGER.info("Indexed {} object(s) of '{}'.", count, mappingPlan.getTargetId());
+    return count;
+  }
+
+  /**
+   * Open page of the list/query endpoint. The page holds the permit of the
+   * transport until it is closed.
+   */
+  private ResultPage<?> openSearchPage(DoipUtil doipUtil, OperationPlan mapping, String query, SortOrder sort, long pageNum, int pageSize) throws DoipException, IOException {
+    PagingPlan paging = mapping.getPaging();
+    String baseUrl = mapping.getRequestUrl().expand(doipUtil.getTargetId());
+    HttpTransport transport = HttpTransportRegistry.getTransport(mappingPlan.getBackendUrl() != null ? mappingPlan.getBackendUrl() : HttpTransportRegistry.getKeyForUrl(baseUrl));
+    SimpleServiceClient simpleClient = prepareClient(doipUtil, mapping, baseUrl, transport, new HashMap<>());
+    if (!query.isEmpty() && !SEARCH_ALL.equals(query)) {
+      simpleClient.withQueryParam(paging.getQueryParam(), query);
+    }
+    simpleClient.withQueryParam(paging.getPageParam(), Long.toString(pageNum));
+    simpleClient.withQueryParam(paging.getSizeParam(), Integer.toString(pageSize));
+    if ((sort != null) && (paging.getSortParam() != null)) {
+      simpleClient.withQueryParam(paging.getSortParam(), sort.toParam());
+    }
+    LOGGER.trace("Open page {} (size {}) of search '{}'.", pageNum, pageSize, query);
+    BackendCall<ResultPage<?>> call = () -> simpleClient.getResources(mapping.getResponseClass(), transport::release);
+    return callBackend(mapping, transport, simpleClient, true, call);
+  }
+
+  /**
+   * Write a single result of a search (id or digital object). Results
+   * without identifier are skipped.
+   *
+   * @return true if the result was written.
+   */
+  private boolean writeSearchResult(JsonWriter writer, DoipUtil doipUtil, Datacite43Schema datacite, boolean idsOnly) throws IOException {
+    String id = DoipUtil.getIdentifier(datacite);
+    if (id == null) {
+      LOGGER.warn("Skip result of '{}' without identifier.", mappingPlan.getTargetId());
+      return false;
+    }
+    index(doipUtil, id, datacite);
+    if (idsOnly) {
+      writer.value(id);
+    } else {
+      DoipUtil.writeDataResource(writer, datacite);
+    }
+    return true;
+  }
+
+  /**
+   * Results of a search read from the pages of the list/query endpoint. Pages
+   * are opened on demand and at most one page (and its permit) is held at a
+   * time. The offset may point into the middle of a backend page.
+   */
+  private final class SearchPages implements Closeable {
+
+    private final DoipUtil doipUtil;
+    private final OperationPlan mapping;
+    private final String query;
+    private final SortOrder sort;
+    private final int limit;
+    private final int backendPageSize;
+    private final long size;
+    private ResultPage<?> page;
+    private int readFromPage;
+    private long offset;
+    private long returned = 0;
+    private boolean moreResults = false;
+
+    /**
+     * Open the first page.
+     *
+     * @param limit Max. number of results (-1 for all results, 0 for the
+     * number of results only).
+     */
+    SearchPages(DoipUtil doipUtil, OperationPlan mapping, String query, SortOrder sort, long offset, int limit) throws DoipException, IOException {
+      this.doipUtil = doipUtil;
+      this.mapping = mapping;
+      this.query = query;
+      this.sort = sort;
+      this.offset = offset;
+      this.limit = limit;
+      backendPageSize = (limit == 0) ? 1 : mapping.getPaging().getBackendPageSize(limit);
+      openPage();
+      size = (page.getContentRange() != null) ? page.getContentRange().getTotal() : -1;
+    }
+
+    /**
+     * @return the next result or null if the limit or the end of the results
+     * is reached.
+     */
+    Datacite43Schema next() throws DoipException, IOException {
+      while (page != null) {
+        if ((limit >= 0) && (returned >= limit)) {
+          moreResults = (size >= 0) ? (offset < size) : ((readFromPage == backendPageSize) || (page.next() != null));
+          closePage();
+          return null;
+        }
+        Object record = page.next();
+        if (record != null) {
+          readFromPage++;
+          offset++;
+          returned++;
+          return toDatacite(mapping, record);
+        }
+        boolean fullPage = (readFromPage == backendPageSize);
+        closePage();
+        moreResults = fullPage && ((size < 0) || (offset < size));
+        if (moreResults) {
+          openPage();
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return the total number of results (-1 if unknown).
+     */
+    long getSize() {
+      return size;
+    }
+
+    /**
+     * @return the index of the next result.
+     */
+    long getOffset() {
+      return offset;
+    }
+
+    /**
+     * @return true if more results are available (valid after next() returned
+     * null).
+     */
+    boolean hasMoreResults() {
+      return moreResults;
+    }
+
+    private void openPage() throws DoipException, IOException {
+      page = openSearchPage(doipUtil, mapping, query, sort, offset / backendPageSize, backendPageSize);
+      readFromPage = 0;
+      // skip results before the offset
+      try {
+        for (long skip = offset % backendPageSize; (skip > 0) && (page.next() != null); skip--) {
+          readFromPage++;
+        }
+      } catch (IOException | RuntimeException ex) {
+        closePage();
+        throw ex;
+      }
+    }
+
+    private void closePage() throws IOException {
+      ResultPage<?> current = page;
+      page = null;
+      current.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (page != null) {
+        closePage();
+      }
+    }
+  }
+
+  private static Datacite43Schema toDatacite(OperationPlan mapping, Object record) {
+    return ((mapping.getResponseMapper() != null) && !(record instanceof Datacite43Schema))
+            ? mapping.getResponseMapper().mapToDatacite(record)
+            : (Datacite43Schema) record;
+  }
+
+  /**
+   * Get compiled call for an operation.
+   */
+  private OperationPlan getOperation(OperationPlan plan, String operation) throws DoipException {
+    if (plan == null) {
+      throw new DoipException(DoipConstants.STATUS_DECLINED, "Operation '" + operation + "' is not mapped for '" + mappingPlan.getTargetId() + "'!");
+    }
+    return plan;
+  }
+
   private void writeElementToOutput(DoipServerResponse resp, Element element) throws IOException {
-    byte[] elementContent = element.in.readAllBytes();
     if (element.in != null) {
-      if (LOGGER.isDebugEnabled()) {
-        LOGGER.debug("Add stream for Element: '{}'", element.id);
-        LOGGER.debug("No of Bytes: " + elementContent.length);
-        LOGGER.debug("Content: " + new String(elementContent));
-      }
+      LOGGER.debug("Add stream for Element: '{}'", element.id);
       JsonObject json = new JsonObject();
       json.addProperty("id", element.id);
       resp.getOutput().writeJson(json);
-      resp.getOutput().writeBytes(elementContent);
+      writeStreamToOutput(resp, element.in);
     }
 
   }
 
+  /**
+   * Pipe stream into a bytes segment of the output. The stream is copied via a
+   * fixed size buffer and closed afterwards.
+   */
+  private void writeStreamToOutput(DoipServerResponse resp, InputStream in) throws IOException {
+    try (InputStream input = in; OutputStream output = resp.getOutput().getBytesOutputStream()) {
+      long noOfBytes = DoipUtil.copy(input, output);
+      LOGGER.debug("No of Bytes: {}", noOfBytes);
+    }
+  }
+
+  /**
+   * Close streams of all elements.
+   *
+   * @param digitalObject Digital object (may be null).
+   */
+  public static void closeElements(DigitalObject digitalObject) {
+    if ((digitalObject != null) && (digitalObject.elements != null)) {
+      for (Element element : digitalObject.elements) {
+        if (element.in != null) {
+          try {
+            element.in.close();
+          } catch (IOException ex) {
+            LOGGER.warn("Error closing stream of element '{}'!", element.id);
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Make REST call based on defined mapping.
    *
    * @param mapping
    * @return
    */
-  private HttpStatus doRestCall(DoipServerRequest req, DoipServerResponse resp, HttpCall... mapping) throws DoipException, IOException {
+  private HttpStatus doRestCall(DoipServerRequest req, DoipServerResponse resp, OperationPlan... mapping) throws DoipException, IOException {
     HttpStatus resource = null;
     LOGGER.debug("Repo: do REST call ...");
     DoipUtil doipUtil = new DoipUtil(req);
     DigitalObject collectDigitalObject = new DigitalObject();
-    for (HttpCall singleMapping : mapping) {
-      resource = doPartialRestCall(doipUtil, collectDigitalObject, singleMapping);
-      evaluateHttpStatus(resource, resp);
-      JsonElement dobjJson = GsonUtility.getGson().toJsonTree(collectDigitalObject);
-      LOGGER.trace("Writing DigitalObject to output message.");
-      resp.writeCompactOutput(dobjJson);
-      resp.setStatus(DoipConstants.STATUS_OK);
+    try {
+      if (mapping.length > 1) {
+        // segments have to be sent several times
+        doipUtil.getStreams();
+      }
+      for (OperationPlan singleMapping : mapping) {
+        resource = doPartialRestCall(doipUtil, collectDigitalObject, singleMapping);
+        evaluateHttpStatus(resource, resp);
+        JsonElement dobjJson = GsonUtility.getGson().toJsonTree(collectDigitalObject);
+        LOGGER.trace("Writing DigitalObject to output message.");
+        resp.writeCompactOutput(dobjJson);
+        resp.setStatus(DoipConstants.STATUS_OK);
+      }
+    } finally {
+      doipUtil.close();
+      // cached elements are outdated after create/update
+      invalidateCache(doipUtil.getTargetId(), collectDigitalObject.id);
     }
     LOGGER.trace("Returning from do REST call.");
     return resource;
   }
 
+  /**
+   * Update search index with metadata read from the backend. The index
+   * answers searches of all clients, so metadata read with authentication
+   * isn't indexed; older metadata of the object is dropped instead.
+   */
+  private void index(DoipUtil doipUtil, String id, Datacite43Schema datacite) {
+    if (searchIndex == null) {
+      return;
+    }
+    if (doipUtil.getAuthentication() == null) {
+      searchIndex.put(mappingPlan.getTargetId(), id, datacite);
+    } else if (id != null) {
+      searchIndex.remove(id);
+    }
+  }
+
+  /**
+   * Remove all cached elements of the given digital objects.
+   *
+   * @param ids Ids of the digital objects (may contain null).
+   */
+  private void invalidateCache(String... ids) {
+    if (retrieveCache != null) {
+      List<String> labels = new ArrayList<>();
+      for (OperationPlan call : mappingPlan.getRetrieve()) {
+        labels.add(call.getLabel());
+      }
+      for (String id : ids) {
+        if (id != null) {
+          retrieveCache.invalidate(id, labels);
+        }
+      }
+    }
+  }
+
+  /**
+   * Transform element segments of the request to form parameters.
+   *
+   * @param segments Element segments.
+   * @param mapping Mapping of the call.
+   * @return Iterator over form parameters.
+   */
+  private static Iterator<FormPart> toFormParts(Iterator<DoipUtil.ElementSegment> segments, OperationPlan mapping) {
+    return new Iterator<FormPart>() {
+      @Override
+      public boolean hasNext() {
+        return segments.hasNext();
+      }
+
+      @Override
+      public FormPart next() {
+        DoipUtil.ElementSegment segment = segments.next();
+        LOGGER.trace("Found stream: '{}'", segment.getId());
+        return FormPart.ofStream(mapping.getBodyKey(segment.getId()), "stream#" + UUID.randomUUID().toString(), segment.getInputStream());
+      }
+    };
+  }
+
   /**
    * Make REST call based on defined mapping.
    *
    * @param mapping
    * @return
    */
-  private HttpStatus doPartialRestCall(DoipUtil doipUtil, DigitalObject collectDigitalObject, HttpCall mapping) throws DoipException, IOException {
+  private HttpStatus doPartialRestCall(DoipUtil doipUtil, DigitalObject collectDigitalObject, OperationPlan mapping) throws DoipException, IOException {
     HttpStatus resource = null;
     LOGGER.debug("Repo: prepare REST call ...");
     // First of all get targetId.
     String targetId = doipUtil.getTargetId();
-    DigitalObject digitalObject = doipUtil.getDigitalObject();
-    Map<String, byte[]> streamMap = doipUtil.getStreams();
     Datacite43Schema datacite = doipUtil.getDatacite();
-    // There should be an implementation class inside the mapping...
-//    SchemaRecordSchema metadata = metadataMapper.mapFromDatacite(datacite);
-    // for Metastore handle is created outside (yet)
-    Pid pid = new Pid();
-    pid.setIdentifier(handleManager.createHandle());
-    pid.setIdentifierType("HANDLE");
-//    metadata.setPid(pid);
-
-    String baseUrl = mapping.getRequestUrl();//"http://localhost:8040/api/v1/schemas";
-    baseUrl = baseUrl.replace("{targetId}", URLEncoder.encode(targetId, Charset.forName("UTF-8")));
+
+    String baseUrl = mapping.getRequestUrl().expand(targetId);
     LOGGER.trace("baseURL: '{}'", baseUrl);
-    String acceptType = mapping.getMimetype(); //"application/json";
 
-    SimpleServiceClient simpleClient = SimpleServiceClient.create(baseUrl);
-    simpleClient.accept(MediaType.parseMediaType(acceptType));
-    // Add authentication if available
-    if (doipUtil.getAuthentication() != null) {
-      JsonElement authentication = doipUtil.getAuthentication();
-      LOGGER.trace("Authentication available: " + authentication.toString());
-      if (authentication.isJsonObject()) {
-        JsonObject object = (JsonObject) authentication;
-        if (object.has("token")) {
-          simpleClient.withBearerToken(object.get("token").getAsString());
-        } else {
-          LOGGER.warn("Only authorization via token supported yet!");
-        }
-      }
+    HttpTransport transport = HttpTransportRegistry.getTransport(mappingPlan.getBackendUrl() != null ? mappingPlan.getBackendUrl() : HttpTransportRegistry.getKeyForUrl(baseUrl));
+    Class<?> metadataClassResponse = mapping.getResponseClass();
+    IMetadataMapper metadataMapperResponse = mapping.getResponseMapper();
+    // Elements with ETag may be served from cache after revalidation.
+    CachedElement cachedElement = null;
+    boolean cacheable = (retrieveCache != null)
+            && (mapping.getVerb() == OperationPlan.Verb.GET)
+            && (mapping.getEtagHeader() != null);
+    if (cacheable) {
+      cachedElement = retrieveCache.get(targetId, mapping.getLabel());
     }
     ///////////////////////////////////////////////////////////////
-    // Prepare metadata
-    ///////////////////////////////////////////////////////////////
-    IMetadataMapper metadataMapper = null;
-    Object metadata = datacite;
-    if (mapping.getMetadata() != null) {
-      try {
-        metadataMapper = (IMetadataMapper) Class.forName(mapping.getMetadata().getMapperClass()).getDeclaredConstructor().newInstance();
-        // There should be an implementation class inside the mapping...
-        metadata = metadataMapper.mapFromDatacite(datacite);
-        LOGGER.trace("Transformed datacite metadata to '{}'.", metadata.getClass());
-      } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | IllegalArgumentException | InstantiationException | SecurityException | InvocationTargetException ex) {
-        LOGGER.error(null, ex);
-      }
-    }
-    Class<?> metadataClassResponse = Datacite43Schema.class;
-    IMetadataMapper metadataMapperResponse = null;
-    if ((mapping.getResponse() != null)
-            && (mapping.getResponse().getClassName() != null)) {
-      LOGGER.trace("Get mapper for '{}'", mapping.getResponse().getMapperClass());
-      LOGGER.trace("Get class for '{}'", mapping.getResponse().getClassName());
-      try {
-        metadataClassResponse = Class.forName(mapping.getResponse().getClassName());
-        metadataMapperResponse = (IMetadataMapper) Class.forName(mapping.getResponse().getMapperClass()).getDeclaredConstructor().newInstance();
-      } catch (ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-        LOGGER.error(null, ex);
-      }
-    }
-    ///////////////////////////////////////////////////////////////
-    // Prepare headers
-    // header with values will be assigned to header send.
-    // header without values will be assigned to collect headers.
-    ///////////////////////////////////////////////////////////////
-    Map<String, String> container = new HashMap<>();
-    if (mapping.getHeader() != null) {
-      for (String attr : mapping.getHeader().getAdditionalProperties().keySet()) {
-        LOGGER.trace("Add header: '{}'", attr);
-        String value = null;
-        if ((digitalObject != null)
-                && (digitalObject.attributes != null)
-                && (digitalObject.attributes.getAsJsonObject("header") != null)
-                && (digitalObject.attributes.getAsJsonObject("header").get(attr) != null)
-                && (!digitalObject.attributes.getAsJsonObject("header").get(attr).isJsonNull())) {
-          value = digitalObject.attributes.getAsJsonObject("header").get(attr).getAsString();
-          if (value != null) {
-            LOGGER.trace("Add header: '{}'= '{}'", attr, value);
-            simpleClient.withHeader(attr, value);
-          }
-        }
-        LOGGER.trace("Add key for collecting header: '{}'", attr);
-        container.put(attr, value);
-      }
-      simpleClient.collectResponseHeader(container);
-    }
-    ///////////////////////////////////////////////////////////////
-    // Prepare request
+    // Make request
     ///////////////////////////////////////////////////////////////
+    SimpleServiceClient simpleClient = null;
+    Map<String, String> container;
+    Object responseBody = null;
     switch (mapping.getVerb()) {
-      case "GET":
+      case GET:
         collectDigitalObject.id = doipUtil.getTargetId();
+        CachedElement revalidate = cachedElement;
+        GetResponse response;
+        if (mapping.getHedgePolicy() != null) {
+          // Read input before sharing util between threads.
+          doipUtil.getDigitalObject();
+          doipUtil.getStreams();
+          response = mapping.getHedgePolicy().execute(executor, () -> doGet(doipUtil, mapping, baseUrl, transport, revalidate), GetResponse::discard);
+        } else {
+          response = doGet(doipUtil, mapping, baseUrl, transport, revalidate);
+        }
+        resource = response.status;
+        responseBody = response.body;
+        container = response.headers;
+        if (responseBody instanceof Datacite43Schema) {
+          datacite = (Datacite43Schema) responseBody;
+        }
+        if ((resource == HttpStatus.NOT_MODIFIED) && (cachedElement != null)) {
+          LOGGER.trace("Element '{}' not modified. Serve it from cache.", mapping.getLabel());
+          retrieveCache.recordNotModified();
+          resource = HttpStatus.OK;
+          responseBody = cachedElement;
+          datacite = cachedElement.getDatacite();
+          // 304 may not repeat all headers of the cached response
+          cachedElement.getHeaders().forEach(container::putIfAbsent);
+        }
         break;
-      case "POST":
-      case "PUT":
-        // add entries to form
-        for (String key : streamMap.keySet()) {
-          LOGGER.trace("Found stream: '{}' -> '{}'", key, streamMap.get(key).length);
-          String mappingKey = key;
-          if (mapping.getBody().getAdditionalProperties().containsKey(key)) {
-            mappingKey = mapping.getBody().getAdditionalProperties().get(key);
-          }
-          InputStream documentStream = new ByteArrayInputStream(streamMap.get("schema"));
-          simpleClient.withFormParam(mappingKey, documentStream);
+      case POST:
+      case PUT:
+        ///////////////////////////////////////////////////////////////
+        // Prepare metadata
+        ///////////////////////////////////////////////////////////////
+        Object metadata = datacite;
+        if ((mapping.getMetadataMapper() != null) && (datacite != null)) {
+          // There should be an implementation class inside the mapping...
+          metadata = mapping.getMetadataMapper().mapFromDatacite(datacite);
+          LOGGER.trace("Transformed datacite metadata to '{}'.", metadata.getClass());
         }
-        String mappingKey = DoipUtil.ID_METADATA;
-        if (mapping.getBody() != null) {
-          if (mapping.getBody().getMetadata() != null) {
-            mappingKey = mapping.getBody().getMetadata();
-          }
-          simpleClient.withFormParam(mappingKey, metadata);
+        container = new HashMap<>();
+        SimpleServiceClient formClient = prepareClient(doipUtil, mapping, baseUrl, transport, container);
+        // add entries to form
+        if ((mapping.getMetadataKey() != null) && (metadata != null)) {
+          formClient.withFormParam(mapping.getMetadataKey(), metadata);
         }
+        // elements are streamed from the request while the form is sent
+        formClient.withFormParts(toFormParts(doipUtil.getElementSegments(), mapping));
+        // post/put form and get HTTP status
+        BackendCall<HttpStatus> send = (mapping.getVerb() == OperationPlan.Verb.POST) ? formClient::postForm : formClient::putForm;
+        resource = callBackend(mapping, transport, formClient, false, send);
+        simpleClient = formClient;
         break;
       default:
         throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Mapping verb is not correct!");
 
     }
-    ///////////////////////////////////////////////////////////////
-    // Make request
-    ///////////////////////////////////////////////////////////////
-    Object responseBody = null;
-    switch (mapping.getVerb()) {
-      case "GET":
-        if (metadataMapperResponse != null) {
-          responseBody = simpleClient.getResource(metadataClassResponse);
-          if (!(responseBody instanceof Datacite43Schema)) {
-            datacite = ((IMetadataMapper) metadataMapperResponse).mapToDatacite(responseBody);
-          }
-          responseBody = datacite;
-        } else {
-          responseBody = simpleClient.getResource(String.class);
-        }
-        resource = simpleClient.getResponseStatus();
-
-        break;
-      case "POST":
-        // post form and get HTTP status
-        resource = simpleClient.postForm(); //Resource(srs, SchemaRecordSchema.class);
-        break;
-      case "PUT":
-        resource = simpleClient.putForm(); //Resource(srs, SchemaRecordSchema.class);
-        break;
-    }
-
     ///////////////////////////////////////////////////////////////
     // Collect response
     ///////////////////////////////////////////////////////////////
     if ((resource != null) && resource.is2xxSuccessful()) {
       // get response as object
-      if (responseBody == null) {
+      if ((responseBody == null) && (simpleClient != null)) {
         responseBody = simpleClient.getResponseBody(metadataClassResponse);
         if (metadataMapperResponse != null) {
           datacite = ((IMetadataMapper) metadataMapperResponse).mapToDatacite(responseBody);
@@ -402,23 +1155,56 @@ public class Mapping2HttpService implements IMappingInterface {
       if (collectDigitalObject.attributes == null) {
         collectDigitalObject.attributes = new JsonObject();
       }
-      collectDigitalObject.attributes.add(DoipUtil.ATTR_DATACITE, GsonUtility.getGson().toJsonTree(datacite));
+      collectDigitalObject.attributes.add(DoipUtil.ATTR_DATACITE, JsonCodecs.getGson().toJsonTree(datacite));
       collectDigitalObject.type = DoipUtil.TYPE_DO;
+      index(doipUtil, collectDigitalObject.id, datacite);
+      // handles are only minted for created objects
+      if (mapping == mappingPlan.getCreate()) {
+        mintHandle(collectDigitalObject);
+      }
       if (collectDigitalObject.elements == null) {
         collectDigitalObject.elements = new ArrayList<>();
       } //= digitalObject.elements;
       switch (mapping.getVerb()) {
-        case "GET":
+        case GET:
           LOGGER.trace("Add element '{}' to digital object. ", mapping.getLabel());
           // Add response to response object
           Element doipElement = new Element();
           doipElement.id = mapping.getLabel();
-          if (responseBody instanceof String) {
-            doipElement.in = new ByteArrayInputStream(((String) responseBody).getBytes());
+          byte[] content = null;
+          if (responseBody instanceof CachedElement) {
+            content = ((CachedElement) responseBody).getContent();
+            cacheable = false;
+          } else if (responseBody instanceof BackendResponseStream) {
+            BackendResponseStream stream = (BackendResponseStream) responseBody;
+            long length = stream.getContentLength();
+            if (length >= 0) {
+              doipElement.length = length;
+            }
+            doipElement.in = stream;
+            if (cacheable && (length <= retrieveCache.getMaxEntryBytes())) {
+              // buffer small elements for the cache, stream all others
+              byte[] head = readHead(stream, retrieveCache.getMaxEntryBytes());
+              if (head.length <= retrieveCache.getMaxEntryBytes()) {
+                stream.close();
+                content = head;
+              } else {
+                doipElement.in = new SequenceInputStream(new ByteArrayInputStream(head), stream);
+              }
+            }
+          } else if (responseBody instanceof String) {
+            content = ((String) responseBody).getBytes();
           } else {
-            JsonElement jsonElement = GsonUtility.getGson().toJsonTree(responseBody);
             LOGGER.trace("Writing DigitalObject to output message.");
-            doipElement.in = new ByteArrayInputStream(jsonElement.toString().getBytes());
+            content = JsonCodecs.getGson().toJson(responseBody).getBytes();
+          }
+          if (content != null) {
+            doipElement.in = new ByteArrayInputStream(content);
+            doipElement.length = content.length;
+            String etag = container.get(mapping.getEtagHeader());
+            if (cacheable && (etag != null)) {
+              retrieveCache.put(targetId, mapping.getLabel(), new CachedElement(etag, content, datacite, container));
+            }
           }
           collectDigitalObject.elements.add(doipElement);
           break;
@@ -432,38 +1218,262 @@ public class Mapping2HttpService implements IMappingInterface {
         restHeader.addProperty(items, container.get(items));
       }
       collectDigitalObject.attributes.add("header", restHeader);
+    } else if (responseBody instanceof BackendResponseStream) {
+      ((BackendResponseStream) responseBody).close();
     }
     LOGGER.trace("Returning digital object from REST call.");
     return resource;
   }
 
+  /**
+   * Create client for a call including authentication and headers. Values of
+   * headers to collect are taken from the digital object (if available) and
+   * the keys are registered in the container.
+   */
+  private SimpleServiceClient prepareClient(DoipUtil doipUtil, OperationPlan mapping, String baseUrl, HttpTransport transport, Map<String, String> container) throws DoipException, IOException {
+    SimpleServiceClient simpleClient = SimpleServiceClient.create(transport, baseUrl);
+    simpleClient.withTimeouts(mapping.getTimeouts());
+    simpleClient.accept(mapping.getAcceptType());
+    // Add authentication if available
+    if (doipUtil.getAuthentication() != null) {
+      JsonElement authentication = doipUtil.getAuthentication();
+      LOGGER.trace("Authentication available: " + authentication.toString());
+      if (authentication.isJsonObject()) {
+        JsonObject object = (JsonObject) authentication;
+        if (object.has("token")) {
+          simpleClient.withBearerToken(object.get("token").getAsString());
+        } else {
+          LOGGER.warn("Only authorization via token supported yet!");
+        }
+      }
+    }
+    ///////////////////////////////////////////////////////////////
+    // Prepare headers
+    // header with values will be assigned to header send.
+    // header without values will be assigned to collect headers.
+    ///////////////////////////////////////////////////////////////
+    for (Map.Entry<String, String> header : mapping.getSendHeaders().entrySet()) {
+      LOGGER.trace("Add header: '{}'= '{}'", header.getKey(), header.getValue());
+      simpleClient.withHeader(header.getKey(), header.getValue());
+    }
+    if (!mapping.getCollectHeaders().isEmpty()) {
+      DigitalObject digitalObject = doipUtil.getDigitalObject();
+      JsonObject doipHeader = null;
+      if ((digitalObject != null)
+              && (digitalObject.attributes != null)
+              && (digitalObject.attributes.get("header") != null)
+              && digitalObject.attributes.get("header").isJsonObject()) {
+        doipHeader = digitalObject.attributes.getAsJsonObject("header");
+      }
+      for (String attr : mapping.getCollectHeaders()) {
+        String value = null;
+        if ((doipHeader != null)
+                && (doipHeader.get(attr) != null)
+                && (!doipHeader.get(attr).isJsonNull())) {
+          value = doipHeader.get(attr).getAsString();
+          LOGGER.trace("Add header: '{}'= '{}'", attr, value);
+          simpleClient.withHeader(attr, value);
+        }
+        LOGGER.trace("Add key for collecting header: '{}'", attr);
+        container.put(attr, value);
+      }
+      simpleClient.collectResponseHeader(container);
+    }
+    return simpleClient;
+  }
+
+  /**
+   * Single GET of an element. With hedging two of them may run concurrently,
+   * so each one uses its own client and header container.
+   *
+   * @param cachedElement Cached element to revalidate (may be null).
+   */
+  private GetResponse doGet(DoipUtil doipUtil, OperationPlan mapping, String baseUrl, HttpTransport transport, CachedElement cachedElement) throws DoipException, IOException {
+    Map<String, String> container = new HashMap<>();
+    SimpleServiceClient simpleClient = prepareClient(doipUtil, mapping, baseUrl, transport, container);
+    if (cachedElement != null) {
+      LOGGER.trace("Revalidate cached element '{}' with ETag '{}'.", mapping.getLabel(), cachedElement.getEtag());
+      simpleClient.withHeader(HttpHeaders.IF_NONE_MATCH, cachedElement.getEtag());
+    }
+    Object responseBody = null;
+    IMetadataMapper metadataMapperResponse = mapping.getResponseMapper();
+    if (metadataMapperResponse != null) {
+      responseBody = callBackend(mapping, transport, simpleClient, false, () -> simpleClient.getResource(mapping.getResponseClass()));
+      if ((simpleClient.getResponseStatus() != HttpStatus.NOT_MODIFIED) && !(responseBody instanceof Datacite43Schema)) {
+        responseBody = metadataMapperResponse.mapToDatacite(responseBody);
+      }
+    } else {
+      // No mapper: pass body through without buffering it.
+      BackendResponseStream stream = callBackend(mapping, transport, simpleClient, true, () -> new BackendResponseStream(simpleClient.openResource(), transport::release));
+      if (simpleClient.getResponseStatus() == HttpStatus.NOT_MODIFIED) {
+        stream.close();
+      } else {
+        responseBody = stream;
+      }
+    }
+    return new GetResponse(simpleClient.getResponseStatus(), responseBody, container);
+  }
+
+  /**
+   * Call backend within the limits of its transport (bulkhead and circuit
+   * breaker) and record the outcome.
+   *
+   * @param keepPermit The result holds the permit of the transport (streamed
+   * response releasing the permit when closed).
+   */
+  private <T> T callBackend(OperationPlan mapping, HttpTransport transport, SimpleServiceClient simpleClient, boolean keepPermit, BackendCall<T> call) throws DoipException, IOException {
+    try {
+      transport.acquire();
+    } catch (BackendUnavailableException ex) {
+      // fail fast instead of blocking a worker thread of the server
+      LOGGER.warn("Call '{}' rejected: {}", mapping.getLabel(), ex.getMessage());
+      MetricsRegistry.recordBackendCall(mappingPlan.getTargetId(), mapping.getVerb().name(), String.valueOf(mapping.getLabel()), "rejected", true, 0);
+      throw new DoipException(DoipConstants.STATUS_DECLINED, ex.getMessage());
+    }
+    boolean releasePermit = true;
+    long callStart = System.nanoTime();
+    HttpStatus callStatus = null;
+    try {
+      T result = call.call();
+      callStatus = simpleClient.getResponseStatus();
+      releasePermit = !keepPermit;
+      return result;
+    } catch (HttpStatusCodeException ex) {
+      callStatus = ex.getStatusCode();
+      LOGGER.warn("Call '{}' returned with status {}.", mapping.getLabel(), callStatus.value());
+      throw new DoipException(toDoipStatus(callStatus, transport), callStatus.getReasonPhrase());
+    } finally {
+      if (releasePermit) {
+        transport.release();
+      }
+      transport.onResult((callStatus == null) || callStatus.is5xxServerError(), System.nanoTime() - callStart);
+      MetricsRegistry.recordBackendCall(mappingPlan.getTargetId(), mapping.getVerb().name(), String.valueOf(mapping.getLabel()),
+              (callStatus != null) ? Integer.toString(callStatus.value()) : "error",
+              (callStatus == null) || callStatus.isError(), System.nanoTime() - callStart);
+    }
+  }
+
+  /**
+   * Request sent to the backend.
+   *
+   * @param <T> Type of the result.
+   */
+  private interface BackendCall<T> {
+
+    T call() throws IOException;
+  }
+
+  /**
+   * Outcome of a single GET.
+   */
+  private static final class GetResponse {
+
+    private final HttpStatus status;
+    /**
+     * Datacite, open stream or null (not modified).
+     */
+    private final Object body;
+    private final Map<String, String> headers;
+
+    GetResponse(HttpStatus status, Object body, Map<String, String> headers) {
+      this.status = status;
+      this.body = body;
+      this.headers = headers;
+    }
+
+    /**
+     * Release response of a losing attempt.
+     */
+    void discard() {
+      if (body instanceof BackendResponseStream) {
+        try {
+          ((BackendResponseStream) body).close();
+        } catch (IOException ex) {
+          LOGGER.debug("Error closing discarded response!", ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the first bytes of a stream.
+   *
+   * @param stream Stream.
+   * @param limit Max. number of bytes expected.
+   * @return At most limit + 1 bytes (content is complete if less).
+   */
+  private static byte[] readHead(InputStream stream, int limit) throws IOException {
+    try {
+      return stream.readNBytes(limit + 1);
+    } catch (IOException ex) {
+      stream.close();
+      throw ex;
+    }
+  }
+
   private void evaluateHttpStatus(HttpStatus httpStatus, DoipServerResponse resp) throws DoipException {
     if ((httpStatus == null) || !httpStatus.is2xxSuccessful()) {
       // do some error handling
-      String status = null;
-      switch (httpStatus) {
-        case BAD_REQUEST:
-          status = DoipConstants.STATUS_BAD_REQUEST;
-          break;
-        case UNAUTHORIZED:
-          status = DoipConstants.STATUS_UNAUTHENTICATED;
-          break;
-        case CONFLICT:
-          status = DoipConstants.STATUS_CONFLICT;
-          break;
-        case FORBIDDEN:
-          status = DoipConstants.STATUS_FORBIDDEN;
-          break;
-        case NOT_FOUND:
-          status = DoipConstants.STATUS_NOT_FOUND;
-          break;
-        default:
-          status = DoipConstants.STATUS_ERROR;
-      }
-      resp.setStatus(status);
-      resp.setAttribute(DoipConstants.MESSAGE_ATT, httpStatus.getReasonPhrase());
-      throw new DoipException(DoipConstants.MESSAGE_ATT, httpStatus.getReasonPhrase());
+      DoipException error = toDoipException(httpStatus);
+      resp.setStatus(error.getStatusCode());
+      resp.setAttribute(DoipConstants.MESSAGE_ATT, error.getMessage());
+      throw error;
     }
 
   }
+
+  /**
+   * Build exception for a failed call.
+   *
+   * @param httpStatus HTTP status (null if there was no response).
+   * @return Exception holding the DOIP status.
+   */
+  private DoipException toDoipException(HttpStatus httpStatus) {
+    HttpTransport transport = (mappingPlan.getBackendUrl() != null) ? HttpTransportRegistry.getTransport(mappingPlan.getBackendUrl()) : null;
+    String status = (httpStatus != null) ? toDoipStatus(httpStatus, transport) : DoipConstants.STATUS_ERROR;
+    String message = (httpStatus != null) ? httpStatus.getReasonPhrase() : "No response from backend!";
+    return new DoipException(status, message);
+  }
+
+  /**
+   * Map HTTP status of a backend to DOIP status. Server errors of a backend
+   * whose circuit breaker is no longer closed are reported as declined, so
+   * clients may retry later.
+   *
+   * @param httpStatus HTTP status (no success).
+   * @param transport Transport of the backend.
+   * @return DOIP status.
+   */
+  private static String toDoipStatus(HttpStatus httpStatus, HttpTransport transport) {
+    String status;
+    switch (httpStatus) {
+      case BAD_REQUEST:
+        status = DoipConstants.STATUS_BAD_REQUEST;
+        break;
+      case UNAUTHORIZED:
+        status = DoipConstants.STATUS_UNAUTHENTICATED;
+        break;
+      case CONFLICT:
+      case PRECONDITION_FAILED:
+        status = DoipConstants.STATUS_CONFLICT;
+        break;
+      case FORBIDDEN:
+        status = DoipConstants.STATUS_FORBIDDEN;
+        break;
+      case NOT_FOUND:
+        status = DoipConstants.STATUS_NOT_FOUND;
+        break;
+      case TOO_MANY_REQUESTS:
+      case SERVICE_UNAVAILABLE:
+        status = DoipConstants.STATUS_DECLINED;
+        break;
+      default:
+        if (httpStatus.is5xxServerError() && (transport != null) && (transport.getCircuitState() != CircuitBreaker.State.CLOSED)) {
+          status = DoipConstants.STATUS_DECLINED;
+        } else {
+          status = DoipConstants.STATUS_ERROR;
+        }
+    }
+    return status;
+  }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.bulk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups items into batches. A batch is handed over as soon as it reaches
+ * the max. size or the first item waited for the linger time. Remaining
+ * items are handed over on close().
+ *
+ * @param <T> Type of the items.
+ */
+public final class BulkBatcher<T> implements AutoCloseable {
+
+  /**
+   * Timer flushing lingering batches (shared by all batchers).
+   */
+  private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+  private final int maxBatchSize;
+  private final long lingerMillis;
+  private final Consumer<List<T>> consumer;
+  private List<T> batch = new ArrayList<>();
+  private ScheduledFuture<?> lingerTimer;
+
+  /**
+   * Create batcher.
+   *
+   * @param maxBatchSize Max. number of items of a batch.
+   * @param lingerMillis Max. time an item waits for further items (in ms).
+   * @param consumer Receives the batches (has to return quickly, e.g. by
+   * submitting them to an executor).
+   */
+  public BulkBatcher(int maxBatchSize, long lingerMillis, Consumer<List<T>> consumer) {
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.lingerMillis = lingerMillis;
+    this.consumer = consumer;
+  }
+
+  private static ScheduledThreadPoolExecutor createTimer() {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "bulk-linger");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.setRemoveOnCancelPolicy(true);
+    return timer;
+  }
+
+  /**
+   * Add item.
+   *
+   * @param item Item.
+   */
+  public void add(T item) {
+    List<T> full = null;
+    synchronized (this) {
+      batch.add(item);
+      if (batch.size() >= maxBatchSize) {
+        full = takeBatch();
+      } else if ((batch.size() == 1) && (lingerMillis > 0)) {
+        lingerTimer = TIMER.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+      } else if (lingerMillis <= 0) {
+        full = takeBatch();
+      }
+    }
+    if (full != null) {
+      consumer.accept(full);
+    }
+  }
+
+  /**
+   * Hand over all pending items.
+   */
+  public void flush() {
+    List<T> pending;
+    synchronized (this) {
+      pending = batch.isEmpty() ? null : takeBatch();
+    }
+    if (pending != null) {
+      consumer.accept(pending);
+    }
+  }
+
+  private List<T> takeBatch() {
+    List<T> full = batch;
+    batch = new ArrayList<>();
+    if (lingerTimer != null) {
+      lingerTimer.cancel(false);
+      lingerTimer = null;
+    }
+    return full;
+  }
+
+  @Override
+  public void close() {
+    flush();
+  }
+}
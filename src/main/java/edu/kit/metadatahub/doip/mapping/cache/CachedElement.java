@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.cache;
+
+import edu.kit.metadatahub.doip.server.util.JsonCodecs;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Element retrieved from a backend together with its ETag. Instances are
+ * immutable and shared between requests.
+ */
+public final class CachedElement {
+
+  private final String etag;
+  private final byte[] content;
+  private final String datacite;
+  private final Map<String, String> headers;
+
+  /**
+   * Create cache entry.
+   *
+   * @param etag ETag of the element.
+   * @param content Content of the element (must not be modified afterwards).
+   * @param datacite Datacite metadata of the response (may be null).
+   * @param headers Collected response headers.
+   */
+  public CachedElement(String etag, byte[] content, Datacite43Schema datacite, Map<String, String> headers) {
+    this.etag = etag;
+    this.content = content;
+    this.datacite = (datacite != null) ? JsonCodecs.getGson().toJson(datacite) : null;
+    this.headers = Collections.unmodifiableMap(new HashMap<>(headers));
+  }
+
+  /**
+   * @return the ETag.
+   */
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * @return the content (must not be modified).
+   */
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * @return new instance of the datacite metadata (may be null).
+   */
+  public Datacite43Schema getDatacite() {
+    return (datacite != null) ? JsonCodecs.getGson().fromJson(datacite, Datacite43Schema.class) : null;
+  }
+
+  /**
+   * @return the collected response headers.
+   */
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Estimated size of the entry in bytes (used for eviction).
+   *
+   * @return Size in bytes.
+   */
+  int weight() {
+    long size = content.length + ((datacite != null) ? 2L * datacite.length() : 0L) + 128;
+    return (int) Math.min(Integer.MAX_VALUE, size);
+  }
+}
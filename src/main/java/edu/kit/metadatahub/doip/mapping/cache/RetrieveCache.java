@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.gson.JsonObject;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of retrieved elements (key: targetId and element label).
+ * Entries are always revalidated at the backend via 'If-None-Match', so the
+ * cache only saves transferring and mapping the body, never the authorization
+ * check of the backend. Eviction is size based (W-TinyLFU).
+ */
+public class RetrieveCache {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(RetrieveCache.class);
+  /**
+   * Default for max. size of all entries in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  /**
+   * Default for max. size of a single entry in bytes.
+   */
+  public static final int DEFAULT_MAX_ENTRY_BYTES = 1024 * 1024;
+
+  private final Cache<String, CachedElement> cache;
+  private final int maxEntryBytes;
+  /**
+   * Number of responses served from cache after revalidation.
+   */
+  private final LongAdder notModified = new LongAdder();
+
+  /**
+   * Create cache.
+   *
+   * @param maxBytes Max. size of all entries in bytes.
+   * @param maxEntryBytes Max. size of a single entry in bytes.
+   */
+  public RetrieveCache(long maxBytes, int maxEntryBytes) {
+    LOGGER.debug("Create retrieve cache (max. {} bytes, max. {} bytes per entry).", maxBytes, maxEntryBytes);
+    this.maxEntryBytes = maxEntryBytes;
+    cache = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String key, CachedElement value) -> value.weight())
+            .recordStats()
+            .build();
+  }
+
+  private static String key(String targetId, String label) {
+    return targetId + '\n' + label;
+  }
+
+  /**
+   * Get cached element.
+   *
+   * @param targetId Id of the digital object.
+   * @param label Label of the element.
+   * @return Cached element or null.
+   */
+  public CachedElement get(String targetId, String label) {
+    return cache.getIfPresent(key(targetId, label));
+  }
+
+  /**
+   * Store element. Elements larger than the max. entry size are ignored.
+   *
+   * @param targetId Id of the digital object.
+   * @param label Label of the element.
+   * @param element Element with ETag.
+   */
+  public void put(String targetId, String label, CachedElement element) {
+    if ((element.getEtag() != null) && (element.getContent().length <= maxEntryBytes)) {
+      cache.put(key(targetId, label), element);
+    }
+  }
+
+  /**
+   * Remove all elements of a digital object.
+   *
+   * @param targetId Id of the digital object.
+   * @param labels Labels of all elements.
+   */
+  public void invalidate(String targetId, Collection<String> labels) {
+    for (String label : labels) {
+      cache.invalidate(key(targetId, label));
+    }
+  }
+
+  /**
+   * Count response served from cache after revalidation.
+   */
+  public void recordNotModified() {
+    notModified.increment();
+  }
+
+  /**
+   * @return max. size of a single entry in bytes.
+   */
+  public int getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  /**
+   * Get counters of the cache.
+   *
+   * @return Counters as JSON.
+   */
+  public JsonObject getStatistics() {
+    CacheStats stats = cache.stats();
+    JsonObject json = new JsonObject();
+    json.addProperty("hitCount", stats.hitCount());
+    json.addProperty("missCount", stats.missCount());
+    json.addProperty("notModifiedCount", notModified.sum());
+    json.addProperty("evictionCount", stats.evictionCount());
+    json.addProperty("evictionWeight", stats.evictionWeight());
+    json.addProperty("estimatedSize", cache.estimatedSize());
+    return json;
+  }
+}
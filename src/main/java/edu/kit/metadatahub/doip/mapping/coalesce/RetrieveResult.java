@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.coalesce;
+
+import edu.kit.metadatahub.doip.server.util.DoipUtil;
+import edu.kit.metadatahub.doip.server.util.SegmentSpool;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.dona.doip.client.DigitalObject;
+import net.dona.doip.client.Element;
+
+/**
+ * Result of a retrieve shared by several requests. The streams of all
+ * elements are buffered once; each consumer reads its own copy and has to
+ * call release() afterwards. Buffers are dropped after the last release.
+ */
+public final class RetrieveResult {
+
+  private final DigitalObject digitalObject;
+  private final List<SegmentSpool> spools;
+  private final AtomicInteger consumers;
+
+  private RetrieveResult(DigitalObject digitalObject, List<SegmentSpool> spools, int consumers) {
+    this.digitalObject = digitalObject;
+    this.spools = spools;
+    this.consumers = new AtomicInteger(consumers);
+  }
+
+  /**
+   * Buffer all elements of a digital object. The streams of the elements are
+   * consumed and closed.
+   *
+   * @param dobj Digital object holding open element streams.
+   * @param consumers Number of consumers of the result.
+   * @return Shared result.
+   * @throws IOException Error while reading elements.
+   */
+  public static RetrieveResult share(DigitalObject dobj, int consumers) throws IOException {
+    List<SegmentSpool> spools = new ArrayList<>();
+    try {
+      if (dobj.elements != null) {
+        for (Element element : dobj.elements) {
+          try (InputStream in = element.in) {
+            spools.add(SegmentSpool.spool(in, DoipUtil.getSpoolThreshold()));
+          }
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      spools.forEach(SegmentSpool::close);
+      throw ex;
+    }
+    return new RetrieveResult(dobj, spools, consumers);
+  }
+
+  /**
+   * Create copy of the digital object with new streams for all elements.
+   *
+   * @return Digital object.
+   * @throws IOException Error opening buffered elements.
+   */
+  public DigitalObject open() throws IOException {
+    DigitalObject copy = new DigitalObject();
+    copy.id = digitalObject.id;
+    copy.type = digitalObject.type;
+    copy.attributes = (digitalObject.attributes != null) ? digitalObject.attributes.deepCopy() : null;
+    if (digitalObject.elements != null) {
+      copy.elements = new ArrayList<>();
+      for (int index = 0; index < digitalObject.elements.size(); index++) {
+        Element element = new Element();
+        element.id = digitalObject.elements.get(index).id;
+        element.type = digitalObject.elements.get(index).type;
+        if (digitalObject.elements.get(index).attributes != null) {
+          element.attributes = digitalObject.elements.get(index).attributes.deepCopy();
+        }
+        element.in = spools.get(index).openStream();
+        element.length = spools.get(index).length();
+        copy.elements.add(element);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Release result after the consumer has written it.
+   */
+  public void release() {
+    if (consumers.decrementAndGet() == 0) {
+      spools.forEach(SegmentSpool::close);
+    }
+  }
+}
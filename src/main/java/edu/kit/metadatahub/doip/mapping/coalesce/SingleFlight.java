@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.coalesce;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Table of in-flight calls. Concurrent callers with the same key share the
+ * result of the first caller (leader). The leader seals the flight before it
+ * publishes the result; callers arriving afterwards start a new flight.
+ *
+ * @param <T> Type of the result.
+ */
+public class SingleFlight<T> {
+
+  private final ConcurrentMap<String, Flight<T>> flights = new ConcurrentHashMap<>();
+  /**
+   * Number of calls served by the result of another call.
+   */
+  private final LongAdder collapsed = new LongAdder();
+
+  /**
+   * Join flight for the given key. If there is no open flight the caller
+   * becomes the leader of a new one.
+   *
+   * @param key Key of the call (has to contain everything the result depends
+   * on, e.g. the authorization).
+   * @return Flight.
+   */
+  public Flight<T> join(String key) {
+    while (true) {
+      Flight<T> newFlight = new Flight<>(this, key);
+      Flight<T> flight = flights.putIfAbsent(key, newFlight);
+      if (flight == null) {
+        return newFlight;
+      }
+      if (flight.addFollower()) {
+        collapsed.increment();
+        return flight;
+      }
+      // flight is sealed but not yet removed
+      flights.remove(key, flight);
+    }
+  }
+
+  /**
+   * @return the number of calls served by the result of another call.
+   */
+  public long getCollapsedCount() {
+    return collapsed.sum();
+  }
+
+  /**
+   * @return the number of open flights.
+   */
+  public int getInFlightCount() {
+    return flights.size();
+  }
+
+  /**
+   * Single call shared by a leader and its followers.
+   *
+   * @param <T> Type of the result.
+   */
+  public static final class Flight<T> {
+
+    private final SingleFlight<T> owner;
+    private final String key;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final Thread leader = Thread.currentThread();
+    private int followers = 0;
+    private boolean sealed = false;
+
+    private Flight(SingleFlight<T> owner, String key) {
+      this.owner = owner;
+      this.key = key;
+    }
+
+    private synchronized boolean addFollower() {
+      if (sealed) {
+        return false;
+      }
+      followers++;
+      return true;
+    }
+
+    /**
+     * @return true if the current thread has to execute the call.
+     */
+    public boolean isLeader() {
+      return leader == Thread.currentThread();
+    }
+
+    /**
+     * Close flight for new followers (leader only).
+     *
+     * @return Number of followers waiting for the result.
+     */
+    public int seal() {
+      int waiting;
+      synchronized (this) {
+        sealed = true;
+        waiting = followers;
+      }
+      owner.flights.remove(key, this);
+      return waiting;
+    }
+
+    /**
+     * Publish result to all followers (leader only). Flight has to be sealed
+     * before.
+     *
+     * @param value Result.
+     */
+    public void complete(T value) {
+      result.complete(value);
+    }
+
+    /**
+     * Publish failure to all followers (leader only). Seals the flight.
+     *
+     * @param failure Error of the call.
+     */
+    public void fail(Throwable failure) {
+      seal();
+      result.completeExceptionally(failure);
+    }
+
+    /**
+     * Wait for the result (followers only).
+     *
+     * @return Result of the leader.
+     * @throws ExecutionException Leader failed.
+     * @throws InterruptedException Thread was interrupted while waiting.
+     */
+    public T await() throws ExecutionException, InterruptedException {
+      return result.get();
+    }
+
+    /**
+     * Stop waiting for the result (followers only). The result is still
+     * counted for this follower, so it's handed to the given consumer once
+     * available (e.g. for releasing it).
+     *
+     * @param release Consumer of the abandoned result.
+     */
+    public void abandon(Consumer<T> release) {
+      result.thenAccept(release);
+    }
+  }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.plan;
+
+import edu.kit.turntable.mapping.Hedge;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import net.dona.doip.DoipConstants;
+import net.dona.doip.client.DoipException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hedging of an idempotent call. If the call takes longer than a percentile
+ * of the recent latencies, a second attempt is sent and the first response
+ * wins; the response of the other attempt is discarded. Attempts run on the
+ * executor of the backend calls; an attempt still queued when the caller
+ * needs it is run by the caller itself, so a saturated executor never blocks
+ * the call. The number of hedged calls is limited by a token bucket: each
+ * call earns 'maxFraction' tokens, a hedge costs one token.
+ */
+public final class HedgePolicy {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(HedgePolicy.class);
+  /**
+   * Highest trackable latency in microseconds (1 minute).
+   */
+  private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(1);
+  /**
+   * Number of latencies needed before the percentile is used.
+   */
+  private static final long MIN_SAMPLES = 20;
+  /**
+   * Number of latencies after which old latencies are dropped.
+   */
+  private static final long MAX_SAMPLES = 10000;
+  /**
+   * Interval for updating the delay.
+   */
+  private static final long UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  /**
+   * Tokens are counted in millionths.
+   */
+  private static final long TOKEN = 1000000;
+  /**
+   * Max. tokens saved for bursts of slow calls.
+   */
+  private static final long MAX_TOKENS = 10 * TOKEN;
+
+  /**
+   * Single attempt of the call.
+   *
+   * @param <T> Type of the result.
+   */
+  public interface Attempt<T> {
+
+    /**
+     * Execute attempt.
+     *
+     * @return Result.
+     * @throws DoipException Error while executing attempt.
+     * @throws IOException Error while executing attempt.
+     */
+    T call() throws DoipException, IOException;
+  }
+
+  private final double percentile;
+  private final long minDelayMicros;
+  private final long maxDelayMicros;
+  private final long tokensPerCall;
+  private final Recorder recorder = new Recorder(MAX_MICROS, 2);
+  private final AtomicLong tokens = new AtomicLong();
+  private Histogram interval;
+  private final Histogram latencies = new Histogram(MAX_MICROS, 2);
+  private volatile long delayMicros;
+  private volatile long nextUpdate = System.nanoTime();
+
+  private HedgePolicy(Hedge hedge) {
+    percentile = (hedge.getPercentile() != null) ? hedge.getPercentile() : 95.0;
+    minDelayMicros = TimeUnit.MILLISECONDS.toMicros((hedge.getMinDelay() != null) ? hedge.getMinDelay() : 10);
+    maxDelayMicros = Math.max(minDelayMicros, TimeUnit.MILLISECONDS.toMicros((hedge.getMaxDelay() != null) ? hedge.getMaxDelay() : 1000));
+    double maxFraction = (hedge.getMaxFraction() != null) ? hedge.getMaxFraction() : 0.05;
+    tokensPerCall = Math.round(Math.max(0, Math.min(1, maxFraction)) * TOKEN);
+    delayMicros = maxDelayMicros;
+  }
+
+  /**
+   * Create policy.
+   *
+   * @param hedge Settings of the mapping (may be null).
+   * @return Policy or null if hedging is not configured.
+   */
+  public static HedgePolicy of(Hedge hedge) {
+    return (hedge != null) ? new HedgePolicy(hedge) : null;
+  }
+
+  /**
+   * Execute call with hedging.
+   *
+   * @param <T> Type of the result.
+   * @param executor Executor of the backend calls (if null the attempt is
+   * executed on the caller without hedging).
+   * @param attempt Single attempt (has to be idempotent).
+   * @param discard Releases the result of the losing attempt.
+   * @return Result of the first successful attempt.
+   * @throws DoipException Both attempts failed.
+   * @throws IOException Both attempts failed.
+   */
+  public <T> T execute(Executor executor, Attempt<T> attempt, Consumer<T> discard) throws DoipException, IOException {
+    long now = System.nanoTime();
+    if (now - nextUpdate >= 0) {
+      updateDelay(now);
+    }
+    earnTokens();
+    CompletableFuture<T> winner = new CompletableFuture<>();
+    // attempts which may still succeed and the error of the first failure
+    AtomicInteger running = new AtomicInteger(1);
+    AtomicReference<Throwable> firstError = new AtomicReference<>();
+    BiConsumer<T, Throwable> first = (result, error) -> {
+      if (error == null) {
+        if (!winner.complete(result)) {
+          discard.accept(result);
+        }
+      } else {
+        firstError.compareAndSet(null, error);
+        if (running.decrementAndGet() == 0) {
+          winner.completeExceptionally(firstError.get());
+        }
+      }
+    };
+    Run<T> primary = new Run<>(attempt, first);
+    dispatch(executor, primary);
+    long delay = delayMicros;
+    try {
+      return winner.get(delay, TimeUnit.MICROSECONDS);
+    } catch (TimeoutException ex) {
+      // hedge (if budget allows)
+    } catch (InterruptedException ex) {
+      return interrupted(winner, discard);
+    } catch (ExecutionException ex) {
+      throw unwrap(ex.getCause());
+    }
+    if (primary.start()) {
+      // executor is saturated (a hedge would be queued as well)
+      LOGGER.trace("Attempt not started after {} us. Run it on caller.", delay);
+      primary.run();
+      return await(winner, discard);
+    }
+    if (!tryAcquireToken()) {
+      LOGGER.trace("No budget for hedging call after {} us.", delay);
+      return await(winner, discard);
+    }
+    if (running.getAndUpdate(count -> (count > 0) ? count + 1 : count) == 0) {
+      // primary attempt failed meanwhile
+      releaseToken();
+      return await(winner, discard);
+    }
+    LOGGER.debug("No response after {} us. Send hedged call.", delay);
+    Run<T> hedge = new Run<>(attempt, first);
+    dispatch(executor, hedge);
+    try {
+      CompletableFuture.anyOf(winner, primary.done).get();
+    } catch (InterruptedException ex) {
+      return interrupted(winner, discard);
+    } catch (ExecutionException ex) {
+      // reported by winner
+    }
+    if (!winner.isDone() && hedge.start()) {
+      // primary attempt failed and the hedge is still queued
+      hedge.run();
+    }
+    return await(winner, discard);
+  }
+
+  /**
+   * Hand attempt to the executor (or run it on the caller if there is no
+   * executor or the executor is shut down). An attempt run on the caller is
+   * finished before the hedge delay starts, so no hedge is sent.
+   */
+  private static <T> void dispatch(Executor executor, Run<T> run) {
+    if (executor == null) {
+      if (run.start()) {
+        run.run();
+      }
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        if (run.start()) {
+          run.run();
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      if (run.start()) {
+        run.run();
+      }
+    }
+  }
+
+  private static <T> T await(CompletableFuture<T> future, Consumer<T> discard) throws DoipException, IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      return interrupted(future, discard);
+    } catch (ExecutionException ex) {
+      throw unwrap(ex.getCause());
+    }
+  }
+
+  private static <T> T interrupted(CompletableFuture<T> future, Consumer<T> discard) throws DoipException {
+    Thread.currentThread().interrupt();
+    // nobody will pick up the result
+    future.thenAccept(discard);
+    throw new DoipException(DoipConstants.STATUS_ERROR, "Interrupted while waiting for backend!");
+  }
+
+  private static IOException unwrap(Throwable cause) throws DoipException {
+    if (cause instanceof CompletionException && (cause.getCause() != null)) {
+      cause = cause.getCause();
+    }
+    if (cause instanceof DoipException) {
+      throw (DoipException) cause;
+    }
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IOException(cause);
+  }
+
+  /**
+   * Single attempt which is started at most once, either by the executor or
+   * by the caller.
+   */
+  private final class Run<T> {
+
+    private final Attempt<T> attempt;
+    private final BiConsumer<T, Throwable> consumer;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    Run(Attempt<T> attempt, BiConsumer<T, Throwable> consumer) {
+      this.attempt = attempt;
+      this.consumer = consumer;
+    }
+
+    /**
+     * @return true if the attempt wasn't started before.
+     */
+    boolean start() {
+      return started.compareAndSet(false, true);
+    }
+
+    /**
+     * Execute attempt (after start() returned true) and pass the result to
+     * the consumer.
+     */
+    void run() {
+      long start = System.nanoTime();
+      try {
+        T result = attempt.call();
+        recorder.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), MAX_MICROS));
+        consumer.accept(result, null);
+      } catch (DoipException | IOException | RuntimeException ex) {
+        consumer.accept(null, ex);
+      } finally {
+        done.complete(null);
+      }
+    }
+  }
+
+  private void earnTokens() {
+    tokens.accumulateAndGet(tokensPerCall, (current, earned) -> Math.min(MAX_TOKENS, current + earned));
+  }
+
+  private void releaseToken() {
+    tokens.accumulateAndGet(TOKEN, (current, released) -> Math.min(MAX_TOKENS, current + released));
+  }
+
+  private boolean tryAcquireToken() {
+    long current;
+    do {
+      current = tokens.get();
+      if (current < TOKEN) {
+        return false;
+      }
+    } while (!tokens.compareAndSet(current, current - TOKEN));
+    return true;
+  }
+
+  /**
+   * Recalculate delay from the latencies of the successful attempts.
+   */
+  private synchronized void updateDelay(long now) {
+    if (now - nextUpdate < 0) {
+      return;
+    }
+    nextUpdate = now + UPDATE_INTERVAL_NANOS;
+    interval = recorder.getIntervalHistogram(interval);
+    if (latencies.getTotalCount() + interval.getTotalCount() > MAX_SAMPLES) {
+      // keep the delay but follow changes of the backend
+      latencies.reset();
+    }
+    latencies.add(interval);
+    if (latencies.getTotalCount() >= MIN_SAMPLES) {
+      delayMicros = Math.max(minDelayMicros, Math.min(maxDelayMicros, latencies.getValueAtPercentile(percentile)));
+    }
+  }
+
+  /**
+   * @return the current delay before hedging (in microseconds).
+   */
+  public long getDelayMicros() {
+    return delayMicros;
+  }
+
+  @Override
+  public String toString() {
+    return "HedgePolicy{" + "percentile=" + percentile + ", minDelay=" + minDelayMicros / 1000
+            + " ms, maxDelay=" + maxDelayMicros / 1000 + " ms, maxFraction=" + (double) tokensPerCall / TOKEN + '}';
+  }
+}
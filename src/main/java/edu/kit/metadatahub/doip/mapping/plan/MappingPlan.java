@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.plan;
+
+import edu.kit.metadatahub.doip.exception.MappingException;
+import edu.kit.rest.util.HttpTransportRegistry;
+import edu.kit.turntable.mapping.HttpCall;
+import edu.kit.turntable.mapping.HttpMapping;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable plan compiled from a mapping file. It holds one compiled call per
+ * DOIP operation (retrieve may have one call per element).
+ */
+public final class MappingPlan {
+
+  private final HttpMapping mapping;
+  private final String targetId;
+  private final String backendUrl;
+  private final OperationPlan create;
+  private final OperationPlan update;
+  private final OperationPlan search;
+  private final List<OperationPlan> retrieve;
+  private final Map<String, OperationPlan> retrieveByLabel;
+
+  private MappingPlan(HttpMapping mapping) throws MappingException {
+    this.mapping = mapping;
+    if (mapping.getMappings() == null) {
+      throw new MappingException("No mappings defined for '" + mapping.getTargetId() + "'!");
+    }
+    targetId = mapping.getTargetId();
+    create = compileOptional(mapping.getMappings().getDoipOpCreate());
+    update = compileOptional(mapping.getMappings().getDoipOpUpdate());
+    search = compileOptional(mapping.getMappings().getDoipOpSearch());
+    if ((search != null) && (search.getVerb() != OperationPlan.Verb.GET)) {
+      throw new MappingException("Search has to be mapped to a GET call!");
+    }
+    List<OperationPlan> retrieveList = new ArrayList<>();
+    Map<String, OperationPlan> labels = new LinkedHashMap<>();
+    if (mapping.getMappings().getDoipOpRetrieve() != null) {
+      for (HttpCall call : mapping.getMappings().getDoipOpRetrieve()) {
+        OperationPlan plan = OperationPlan.compile(call);
+        if (plan.getLabel() == null) {
+          throw new MappingException("Missing label for retrieve call '" + call.getRequestUrl() + "'!");
+        }
+        retrieveList.add(plan);
+        labels.putIfAbsent(plan.getLabel(), plan);
+      }
+    }
+    retrieve = Collections.unmodifiableList(retrieveList);
+    retrieveByLabel = Collections.unmodifiableMap(labels);
+    if (mapping.getBaseUrl() != null) {
+      backendUrl = mapping.getBaseUrl();
+    } else if (!retrieve.isEmpty()) {
+      backendUrl = getBackendUrl(retrieve.get(0).getRequestUrl());
+    } else {
+      backendUrl = null;
+    }
+  }
+
+  /**
+   * Compile mapping.
+   *
+   * @param mapping Mapping read from file.
+   * @return Executable plan.
+   * @throws MappingException Mapping is invalid.
+   */
+  public static MappingPlan compile(HttpMapping mapping) throws MappingException {
+    return new MappingPlan(mapping);
+  }
+
+  /**
+   * Determine the backend from the literal part of the URL template in front
+   * of the first variable.
+   */
+  private static String getBackendUrl(UrlTemplate template) throws MappingException {
+    String url = template.toString();
+    int variable = url.indexOf('{');
+    if (variable >= 0) {
+      url = url.substring(0, variable);
+    }
+    try {
+      URI uri = URI.create(url);
+      if ((uri.getScheme() == null) || (uri.getRawAuthority() == null)) {
+        throw new MappingException("No backend defined by request URL '" + template + "'! Please set 'baseUrl'.");
+      }
+      return HttpTransportRegistry.getKeyForUrl(url);
+    } catch (IllegalArgumentException ex) {
+      throw new MappingException("Invalid request URL '" + template + "'!", ex);
+    }
+  }
+
+  private static OperationPlan compileOptional(HttpCall call) throws MappingException {
+    OperationPlan plan = null;
+    if ((call != null) && (call.getRequestUrl() != null)) {
+      plan = OperationPlan.compile(call);
+    }
+    return plan;
+  }
+
+  /**
+   * @return the original mapping.
+   */
+  public HttpMapping getMapping() {
+    return mapping;
+  }
+
+  /**
+   * @return the target id of the mapping.
+   */
+  public String getTargetId() {
+    return targetId;
+  }
+
+  /**
+   * @return the base URL of the backend (key of the HTTP transport).
+   */
+  public String getBackendUrl() {
+    return backendUrl;
+  }
+
+  /**
+   * @return the plan for create (may be null).
+   */
+  public OperationPlan getCreate() {
+    return create;
+  }
+
+  /**
+   * @return the plan for update (may be null).
+   */
+  public OperationPlan getUpdate() {
+    return update;
+  }
+
+  /**
+   * @return the plan for search (may be null).
+   */
+  public OperationPlan getSearch() {
+    return search;
+  }
+
+  /**
+   * @return the plans for retrieve in order of the mapping.
+   */
+  public List<OperationPlan> getRetrieve() {
+    return retrieve;
+  }
+
+  /**
+   * Get plan for retrieving a single element.
+   *
+   * @param label Label of the element.
+   * @return Plan or null if element is not mapped.
+   */
+  public OperationPlan getRetrieve(String label) {
+    return retrieveByLabel.get(label);
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.plan;
+
+import edu.kit.metadatahub.doip.exception.MappingException;
+import edu.kit.metadatahub.doip.mapping.metadata.IMetadataMapper;
+import edu.kit.metadatahub.doip.server.util.DoipUtil;
+import edu.kit.rest.util.CallTimeouts;
+import edu.kit.turntable.mapping.Bulk;
+import edu.kit.turntable.mapping.ClassMapper;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import edu.kit.turntable.mapping.HttpCall;
+import edu.kit.turntable.mapping.Timeouts;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+/**
+ * Immutable, pre-resolved form of a single HTTP call of a mapping. All class
+ * lookups, mapper instantiations and template parsing happen while compiling
+ * the plan so executing a request only binds the variables.
+ */
+public final class OperationPlan {
+
+  /**
+   * Supported HTTP verbs.
+   */
+  public enum Verb {
+    GET,
+    POST,
+    PUT
+  }
+
+  /**
+   * Mapper instances are stateless and shared by all plans.
+   */
+  private static final ConcurrentMap<String, IMetadataMapper> MAPPERS = new ConcurrentHashMap<>();
+
+  private final HttpCall call;
+  private final String label;
+  private final Verb verb;
+  private final MediaType acceptType;
+  private final UrlTemplate requestUrl;
+  private final IMetadataMapper metadataMapper;
+  private final Class<?> responseClass;
+  private final IMetadataMapper responseMapper;
+  private final Map<String, String> sendHeaders;
+  private final List<String> collectHeaders;
+  private final String etagHeader;
+  private final Map<String, String> bodyKeys;
+  private final String metadataKey;
+  private final CallTimeouts timeouts;
+  private final HedgePolicy hedgePolicy;
+  private final UrlTemplate bulkUrl;
+  private final int maxBatchSize;
+  private final long lingerMillis;
+  private final PagingPlan paging;
+
+  private OperationPlan(HttpCall call) throws MappingException {
+    this.call = call;
+    label = call.getLabel();
+    if (call.getVerb() == null) {
+      throw new MappingException("Missing verb for call '" + call.getRequestUrl() + "'!");
+    }
+    try {
+      verb = Verb.valueOf(call.getVerb().toUpperCase());
+    } catch (IllegalArgumentException ex) {
+      throw new MappingException("Mapping verb '" + call.getVerb() + "' is not supported!", ex);
+    }
+    try {
+      acceptType = (call.getMimetype() != null) ? MediaType.parseMediaType(call.getMimetype()) : MediaType.ALL;
+    } catch (InvalidMediaTypeException ex) {
+      throw new MappingException("Invalid mimetype '" + call.getMimetype() + "'!", ex);
+    }
+    requestUrl = UrlTemplate.parse(call.getRequestUrl());
+    metadataMapper = (call.getMetadata() != null) ? getMapper(call.getMetadata()) : null;
+    if ((call.getResponse() != null) && (call.getResponse().getClassName() != null)) {
+      responseClass = getClass(call.getResponse().getClassName());
+      responseMapper = getMapper(call.getResponse());
+    } else {
+      responseClass = Datacite43Schema.class;
+      responseMapper = null;
+    }
+    // header with values will be assigned to header send.
+    // header without values will be assigned to collect headers.
+    Map<String, String> send = new LinkedHashMap<>();
+    List<String> collect = new ArrayList<>();
+    if (call.getHeader() != null) {
+      for (Map.Entry<String, String> entry : call.getHeader().getAdditionalProperties().entrySet()) {
+        if ((entry.getValue() != null) && !entry.getValue().isEmpty()) {
+          send.put(entry.getKey(), entry.getValue());
+        } else {
+          collect.add(entry.getKey());
+        }
+      }
+    }
+    sendHeaders = Collections.unmodifiableMap(send);
+    collectHeaders = Collections.unmodifiableList(collect);
+    etagHeader = collect.stream().filter(HttpHeaders.ETAG::equalsIgnoreCase).findFirst().orElse(null);
+    Map<String, String> keys = new HashMap<>();
+    String metadataLabel = null;
+    if (call.getBody() != null) {
+      keys.putAll(call.getBody().getAdditionalProperties());
+      metadataLabel = (call.getBody().getMetadata() != null) ? call.getBody().getMetadata() : DoipUtil.ID_METADATA;
+    }
+    bodyKeys = Collections.unmodifiableMap(keys);
+    metadataKey = metadataLabel;
+    Timeouts callTimeouts = call.getTimeouts();
+    timeouts = (callTimeouts != null)
+            ? CallTimeouts.of(callTimeouts.getConnect(), callTimeouts.getRead(), callTimeouts.getTotal())
+            : CallTimeouts.DEFAULT;
+    if ((call.getHedge() != null) && (verb != Verb.GET)) {
+      // only idempotent calls may be sent twice
+      throw new MappingException("Hedging is only supported for GET (call '" + call.getRequestUrl() + "')!");
+    }
+    hedgePolicy = HedgePolicy.of(call.getHedge());
+    Bulk bulk = call.getBulk();
+    if ((bulk != null) && (verb != Verb.POST)) {
+      throw new MappingException("Bulk endpoint is only supported for POST (call '" + call.getRequestUrl() + "')!");
+    }
+    bulkUrl = (bulk != null) ? UrlTemplate.parse(bulk.getRequestUrl()) : null;
+    maxBatchSize = ((bulk != null) && (bulk.getMaxBatchSize() != null)) ? Math.max(1, bulk.getMaxBatchSize()) : 1;
+    lingerMillis = ((bulk != null) && (bulk.getLingerMillis() != null)) ? Math.max(0, bulk.getLingerMillis()) : 0;
+    if ((call.getPaging() != null) && (verb != Verb.GET)) {
+      throw new MappingException("Paging is only supported for GET (call '" + call.getRequestUrl() + "')!");
+    }
+    paging = PagingPlan.of(call.getPaging());
+  }
+
+  /**
+   * Compile a single HTTP call.
+   *
+   * @param call HTTP call of the mapping.
+   * @return Compiled call.
+   * @throws MappingException Call is invalid.
+   */
+  public static OperationPlan compile(HttpCall call) throws MappingException {
+    return new OperationPlan(call);
+  }
+
+  private static Class<?> getClass(String className) throws MappingException {
+    try {
+      return Class.forName(className);
+    } catch (ClassNotFoundException ex) {
+      throw new MappingException("Class '" + className + "' not found!", ex);
+    }
+  }
+
+  private static IMetadataMapper getMapper(ClassMapper classMapper) throws MappingException {
+    String mapperClass = classMapper.getMapperClass();
+    if (mapperClass == null) {
+      throw new MappingException("Missing mapper class for '" + classMapper.getClassName() + "'!");
+    }
+    IMetadataMapper mapper = MAPPERS.get(mapperClass);
+    if (mapper == null) {
+      try {
+        mapper = (IMetadataMapper) getClass(mapperClass).getDeclaredConstructor().newInstance();
+      } catch (ClassCastException | NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+        throw new MappingException("Can't instantiate mapper '" + mapperClass + "'!", ex);
+      }
+      IMetadataMapper existing = MAPPERS.putIfAbsent(mapperClass, mapper);
+      if (existing != null) {
+        mapper = existing;
+      }
+    }
+    return mapper;
+  }
+
+  /**
+   * @return the original call of the mapping.
+   */
+  public HttpCall getCall() {
+    return call;
+  }
+
+  /**
+   * @return the label (element id).
+   */
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * @return the HTTP verb.
+   */
+  public Verb getVerb() {
+    return verb;
+  }
+
+  /**
+   * @return the accepted mimetype.
+   */
+  public MediaType getAcceptType() {
+    return acceptType;
+  }
+
+  /**
+   * @return the template of the request URL.
+   */
+  public UrlTemplate getRequestUrl() {
+    return requestUrl;
+  }
+
+  /**
+   * @return mapper for the metadata sent to the backend (may be null).
+   */
+  public IMetadataMapper getMetadataMapper() {
+    return metadataMapper;
+  }
+
+  /**
+   * @return class of the response.
+   */
+  public Class<?> getResponseClass() {
+    return responseClass;
+  }
+
+  /**
+   * @return mapper for the response (may be null).
+   */
+  public IMetadataMapper getResponseMapper() {
+    return responseMapper;
+  }
+
+  /**
+   * @return header with fixed values sent with each request.
+   */
+  public Map<String, String> getSendHeaders() {
+    return sendHeaders;
+  }
+
+  /**
+   * @return header forwarded from the digital object and collected from the
+   * response.
+   */
+  public List<String> getCollectHeaders() {
+    return collectHeaders;
+  }
+
+  /**
+   * @return key of the collected ETag header as defined in the mapping (null if
+   * ETag is not collected).
+   */
+  public String getEtagHeader() {
+    return etagHeader;
+  }
+
+  /**
+   * Get key of the form parameter for an element.
+   *
+   * @param elementId Id of the element.
+   * @return Key of the form parameter.
+   */
+  public String getBodyKey(String elementId) {
+    return bodyKeys.getOrDefault(elementId, elementId);
+  }
+
+  /**
+   * @return key of the form parameter for metadata (null if no metadata should
+   * be sent).
+   */
+  public String getMetadataKey() {
+    return metadataKey;
+  }
+
+  /**
+   * @return the timeouts of the call.
+   */
+  public CallTimeouts getTimeouts() {
+    return timeouts;
+  }
+
+  /**
+   * @return the hedging of the call (null if the call is not hedged).
+   */
+  public HedgePolicy getHedgePolicy() {
+    return hedgePolicy;
+  }
+
+  /**
+   * @return the template of the bulk endpoint (null if not available).
+   */
+  public UrlTemplate getBulkUrl() {
+    return bulkUrl;
+  }
+
+  /**
+   * @return the max. number of objects sent to the bulk endpoint at once.
+   */
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * @return the max. time an object waits for further objects (in ms).
+   */
+  public long getLingerMillis() {
+    return lingerMillis;
+  }
+
+  /**
+   * @return the paging of a list/query endpoint (defaults if not mapped).
+   */
+  public PagingPlan getPaging() {
+    return paging;
+  }
+
+  @Override
+  public String toString() {
+    return verb + " " + requestUrl + " (" + label + ")";
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.plan;
+
+import edu.kit.turntable.mapping.Paging;
+
+/**
+ * Immutable paging parameters of a list/query endpoint.
+ */
+public final class PagingPlan {
+
+  /**
+   * Paging used if the mapping doesn't define one.
+   */
+  public static final PagingPlan DEFAULT = new PagingPlan("query", "page", "size", null, 20, 100);
+
+  private final String queryParam;
+  private final String pageParam;
+  private final String sizeParam;
+  private final String sortParam;
+  private final int defaultPageSize;
+  private final int maxPageSize;
+
+  private PagingPlan(String queryParam, String pageParam, String sizeParam, String sortParam, int defaultPageSize, int maxPageSize) {
+    this.queryParam = queryParam;
+    this.pageParam = pageParam;
+    this.sizeParam = sizeParam;
+    this.sortParam = sortParam;
+    this.defaultPageSize = defaultPageSize;
+    this.maxPageSize = maxPageSize;
+  }
+
+  /**
+   * Compile paging of a mapping. Missing values are replaced by their
+   * defaults.
+   *
+   * @param paging Paging of the mapping (may be null).
+   * @return Paging.
+   */
+  public static PagingPlan of(Paging paging) {
+    if (paging == null) {
+      return DEFAULT;
+    }
+    return new PagingPlan((paging.getQueryParam() != null) ? paging.getQueryParam() : DEFAULT.queryParam,
+            (paging.getPageParam() != null) ? paging.getPageParam() : DEFAULT.pageParam,
+            (paging.getSizeParam() != null) ? paging.getSizeParam() : DEFAULT.sizeParam,
+            paging.getSortParam(),
+            (paging.getDefaultPageSize() != null) ? Math.max(1, paging.getDefaultPageSize()) : DEFAULT.defaultPageSize,
+            (paging.getMaxPageSize() != null) ? Math.max(1, paging.getMaxPageSize()) : DEFAULT.maxPageSize);
+  }
+
+  /**
+   * Get size of the backend pages used for fetching a page of the given size.
+   * Requested pages larger than the max. page size of the backend are read
+   * from several backend pages and may start in the middle of one.
+   *
+   * @param pageSize Size of the requested page (-1 for all results).
+   * @return Size of the backend pages.
+   */
+  public int getBackendPageSize(int pageSize) {
+    return ((pageSize < 0) || (pageSize > maxPageSize)) ? maxPageSize : pageSize;
+  }
+
+  /**
+   * @return the name of the query parameter holding the query.
+   */
+  public String getQueryParam() {
+    return queryParam;
+  }
+
+  /**
+   * @return the name of the query parameter holding the page number.
+   */
+  public String getPageParam() {
+    return pageParam;
+  }
+
+  /**
+   * @return the name of the query parameter holding the page size.
+   */
+  public String getSizeParam() {
+    return sizeParam;
+  }
+
+  /**
+   * @return the name of the query parameter holding the sort order (null if
+   * the backend doesn't support sorting).
+   */
+  public String getSortParam() {
+    return sortParam;
+  }
+
+  /**
+   * @return the page size used if the request doesn't define one.
+   */
+  public int getDefaultPageSize() {
+    return defaultPageSize;
+  }
+
+  /**
+   * @return the max. page size supported by the backend.
+   */
+  public int getMaxPageSize() {
+    return maxPageSize;
+  }
+}
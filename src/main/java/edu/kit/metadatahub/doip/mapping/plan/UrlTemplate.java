@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.plan;
+
+import edu.kit.metadatahub.doip.exception.MappingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pre-parsed URL template like 'http://host/api/v1/schemas/{targetId}'. The
+ * template is split once into literals and variables so binding a request
+ * only concatenates the (encoded) values.
+ */
+public final class UrlTemplate {
+
+  /**
+   * Variable holding the target id of the request.
+   */
+  public static final String VAR_TARGET_ID = "targetId";
+
+  private final String template;
+  /**
+   * Literals and variables in order. Variables are stored with their index in
+   * 'isVariable'.
+   */
+  private final String[] parts;
+  private final boolean[] isVariable;
+  private final List<String> variables;
+  private final int literalLength;
+
+  private UrlTemplate(String template, String[] parts, boolean[] isVariable, List<String> variables, int literalLength) {
+    this.template = template;
+    this.parts = parts;
+    this.isVariable = isVariable;
+    this.variables = variables;
+    this.literalLength = literalLength;
+  }
+
+  /**
+   * Parse template.
+   *
+   * @param template URL containing variables in curly brackets.
+   * @return Parsed template.
+   * @throws MappingException Template is invalid.
+   */
+  public static UrlTemplate parse(String template) throws MappingException {
+    if (template == null) {
+      throw new MappingException("Missing request URL!");
+    }
+    List<String> partList = new ArrayList<>();
+    List<Boolean> variableList = new ArrayList<>();
+    List<String> variableNames = new ArrayList<>();
+    int literalLength = 0;
+    int index = 0;
+    while (index < template.length()) {
+      int start = template.indexOf('{', index);
+      if (start < 0) {
+        partList.add(template.substring(index));
+        variableList.add(Boolean.FALSE);
+        literalLength += template.length() - index;
+        break;
+      }
+      int end = template.indexOf('}', start);
+      if (end < 0) {
+        throw new MappingException("Unbalanced brackets in request URL '" + template + "'!");
+      }
+      if (start > index) {
+        partList.add(template.substring(index, start));
+        variableList.add(Boolean.FALSE);
+        literalLength += start - index;
+      }
+      String name = template.substring(start + 1, end);
+      if (name.isEmpty()) {
+        throw new MappingException("Empty variable in request URL '" + template + "'!");
+      }
+      partList.add(name);
+      variableList.add(Boolean.TRUE);
+      variableNames.add(name);
+      index = end + 1;
+    }
+    boolean[] isVariable = new boolean[variableList.size()];
+    for (int i = 0; i < isVariable.length; i++) {
+      isVariable[i] = variableList.get(i);
+    }
+    return new UrlTemplate(template, partList.toArray(new String[0]), isVariable, Collections.unmodifiableList(variableNames), literalLength);
+  }
+
+  /**
+   * Bind target id to template. All other variables will be left empty.
+   *
+   * @param targetId Target id of the request.
+   * @return URL.
+   */
+  public String expand(String targetId) {
+    return expand(Collections.singletonMap(VAR_TARGET_ID, targetId));
+  }
+
+  /**
+   * Bind variables to template. Values are URL encoded.
+   *
+   * @param values Values of the variables.
+   * @return URL.
+   */
+  public String expand(Map<String, String> values) {
+    if (variables.isEmpty()) {
+      return template;
+    }
+    StringBuilder url = new StringBuilder(literalLength + 32 * variables.size());
+    for (int i = 0; i < parts.length; i++) {
+      if (isVariable[i]) {
+        String value = values.get(parts[i]);
+        if (value != null) {
+          url.append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+        }
+      } else {
+        url.append(parts[i]);
+      }
+    }
+    return url.toString();
+  }
+
+  /**
+   * Get the target id from a URL bound via expand(targetId). All other
+   * variables are expected to be empty.
+   *
+   * @param url URL.
+   * @return Decoded target id or null if the URL doesn't match the template.
+   */
+  public String extractTargetId(String url) {
+    String targetId = null;
+    int position = 0;
+    for (int i = 0; i < parts.length; i++) {
+      if (!isVariable[i]) {
+        if (!url.startsWith(parts[i], position)) {
+          return null;
+        }
+        position += parts[i].length();
+      } else if (VAR_TARGET_ID.equals(parts[i])) {
+        int end = url.length();
+        for (int next = i + 1; next < parts.length; next++) {
+          if (!isVariable[next]) {
+            end = url.indexOf(parts[next], position);
+            break;
+          }
+        }
+        if (end <= position) {
+          return null;
+        }
+        targetId = URLDecoder.decode(url.substring(position, end), StandardCharsets.UTF_8);
+        position = end;
+      }
+    }
+    return (position == url.length()) ? targetId : null;
+  }
+
+  /**
+   * @return names of all variables.
+   */
+  public List<String> getVariables() {
+    return variables;
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+}
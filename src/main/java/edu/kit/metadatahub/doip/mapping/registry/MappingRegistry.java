@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.registry;
+
+import edu.kit.metadatahub.doip.mapping.Mapping2HttpService;
+import edu.kit.metadatahub.doip.mapping.plan.MappingPlan;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable snapshot of all mapping services. Changes create a new registry
+ * (copy-on-write), so lookups need no locks and running requests keep the
+ * services of the snapshot they started with.
+ */
+public final class MappingRegistry {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(MappingRegistry.class);
+  private static final MappingRegistry EMPTY = new MappingRegistry(new TreeMap<>());
+
+  /**
+   * Services by mapping file (sorted by path).
+   */
+  private final Map<Path, Mapping2HttpService> files;
+  /**
+   * Services by targetId, base URL and routes of the mappings.
+   */
+  private final RouteTrie<Mapping2HttpService> routes;
+  /**
+   * Service used for unknown targetIds if there is only one mapping (may be
+   * null).
+   */
+  private final Mapping2HttpService defaultService;
+
+  private MappingRegistry(TreeMap<Path, Mapping2HttpService> files) {
+    this.files = Collections.unmodifiableMap(files);
+    routes = new RouteTrie<>();
+    for (Map.Entry<Path, Mapping2HttpService> entry : files.entrySet()) {
+      MappingPlan plan = entry.getValue().getMappingPlan();
+      addRoute(plan.getTargetId(), entry);
+      if (plan.getMapping().getBaseUrl() != null) {
+        addRoute(plan.getMapping().getBaseUrl(), entry);
+      }
+      if (plan.getMapping().getRoutes() != null) {
+        for (String route : plan.getMapping().getRoutes()) {
+          addRoute(route, entry);
+        }
+      }
+    }
+    defaultService = (files.size() == 1) ? files.values().iterator().next() : null;
+  }
+
+  private void addRoute(String route, Map.Entry<Path, Mapping2HttpService> entry) {
+    Mapping2HttpService previous = routes.put(route, entry.getValue());
+    if ((previous != null) && (previous != entry.getValue())) {
+      LOGGER.warn("Route '{}' is defined by several mappings. Use mapping '{}'.", route, entry.getKey().getFileName());
+    }
+  }
+
+  /**
+   * @return registry without any mapping.
+   */
+  public static MappingRegistry empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Create registry with an added/replaced mapping file.
+   *
+   * @param file Mapping file.
+   * @param service Service of the mapping.
+   * @return New registry.
+   */
+  public MappingRegistry withFile(Path file, Mapping2HttpService service) {
+    TreeMap<Path, Mapping2HttpService> copy = new TreeMap<>(files);
+    copy.put(file, service);
+    return new MappingRegistry(copy);
+  }
+
+  /**
+   * Create registry without a mapping file.
+   *
+   * @param file Mapping file.
+   * @return New registry.
+   */
+  public MappingRegistry withoutFile(Path file) {
+    if (!files.containsKey(file)) {
+      return this;
+    }
+    TreeMap<Path, Mapping2HttpService> copy = new TreeMap<>(files);
+    copy.remove(file);
+    return new MappingRegistry(copy);
+  }
+
+  /**
+   * Get the mapping service responsible for the given target id. Exact routes
+   * win, otherwise the longest matching prefix is used. If only one mapping
+   * is available it serves all target ids.
+   *
+   * @param targetId Target id of the request.
+   * @return Service or null if no mapping is available.
+   */
+  public Mapping2HttpService lookup(String targetId) {
+    Mapping2HttpService service = (targetId != null) ? routes.lookup(targetId) : null;
+    return (service != null) ? service : defaultService;
+  }
+
+  /**
+   * Get the mapping service of the repository serving the given URL (e.g. the
+   * resolve URL of a handle). The mapping with the longest matching base URL
+   * or backend URL is used.
+   *
+   * @param url URL of a digital object.
+   * @return Service or null if no mapping matches.
+   */
+  public Mapping2HttpService lookupByUrl(String url) {
+    Mapping2HttpService service = null;
+    int matchLength = 0;
+    for (Mapping2HttpService candidate : files.values()) {
+      MappingPlan plan = candidate.getMappingPlan();
+      for (String prefix : new String[]{plan.getMapping().getBaseUrl(), plan.getBackendUrl()}) {
+        if ((prefix != null) && (prefix.length() > matchLength) && url.startsWith(prefix)) {
+          service = candidate;
+          matchLength = prefix.length();
+        }
+      }
+    }
+    return service;
+  }
+
+  /**
+   * @return all services by mapping file.
+   */
+  public Map<Path, Mapping2HttpService> getFiles() {
+    return files;
+  }
+}
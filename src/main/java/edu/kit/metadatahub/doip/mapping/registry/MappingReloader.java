@@ -0,0 +1,265 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.registry;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import edu.kit.metadatahub.doip.exception.MappingException;
+import edu.kit.metadatahub.doip.mapping.Mapping2HttpService;
+import edu.kit.metadatahub.doip.mapping.plan.MappingPlan;
+import edu.kit.turntable.mapping.HttpMapping;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads all mapping files of a folder and watches the folder for changes.
+ * Changed files are parsed and validated on a background thread; afterwards a
+ * new registry is swapped in atomically. Invalid files are rejected and the
+ * previous version of the mapping stays active.
+ */
+public class MappingReloader implements Closeable {
+
+  /**
+   * Factory for services of compiled mappings.
+   */
+  @FunctionalInterface
+  public interface ServiceFactory {
+
+    /**
+     * Create service.
+     *
+     * @param plan Compiled mapping.
+     * @return Service.
+     */
+    Mapping2HttpService create(MappingPlan plan);
+  }
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(MappingReloader.class);
+  /**
+   * Time without further events before changes are applied (in ms).
+   */
+  private static final long QUIET_PERIOD = 250;
+
+  private final Path mappingsDir;
+  private final String suffix;
+  private final ServiceFactory factory;
+  private final AtomicReference<MappingRegistry> registry;
+  private final Gson gson = new GsonBuilder()
+          .setPrettyPrinting()
+          .disableHtmlEscaping()
+          .create();
+  private WatchService watchService;
+  private Thread watcher;
+
+  /**
+   * Create reloader.
+   *
+   * @param mappingsDir Folder holding all mappings.
+   * @param suffix Suffix of mapping files.
+   * @param factory Factory for services.
+   * @param registry Reference holding the active registry.
+   */
+  public MappingReloader(Path mappingsDir, String suffix, ServiceFactory factory, AtomicReference<MappingRegistry> registry) {
+    this.mappingsDir = mappingsDir;
+    this.suffix = suffix;
+    this.factory = factory;
+    this.registry = registry;
+  }
+
+  /**
+   * Parse all mappings of the folder and replace the registry. If the folder
+   * can't be read the registry is kept.
+   */
+  public void loadAll() {
+    LOGGER.debug("Parse all files with suffix '{}' in folder '{}'", suffix, mappingsDir);
+    MappingRegistry newRegistry = MappingRegistry.empty();
+    try {
+      for (Path path : listMappingFiles()) {
+        try {
+          newRegistry = newRegistry.withFile(path, load(path));
+        } catch (MappingException ex) {
+          LOGGER.error("Invalid mapping in file '{}': {}", path.getFileName(), ex.getMessage());
+        }
+      }
+    } catch (IOException ex) {
+      LOGGER.error("Error reading mapping dir '{}'! Keep mappings.", mappingsDir, ex);
+      return;
+    }
+    registry.set(newRegistry);
+  }
+
+  /**
+   * Reload all files of the folder against the active registry (e.g. after
+   * events were lost). Invalid files keep their previous version, files no
+   * longer available are removed. If the folder can't be read the registry
+   * is kept.
+   */
+  void reloadAll() {
+    Set<Path> all = new LinkedHashSet<>();
+    try {
+      all.addAll(listMappingFiles());
+    } catch (IOException ex) {
+      LOGGER.error("Error reading mapping dir '{}'! Keep mappings.", mappingsDir, ex);
+      return;
+    }
+    all.addAll(registry.get().getFiles().keySet());
+    reload(all);
+  }
+
+  private List<Path> listMappingFiles() throws IOException {
+    try (Stream<Path> list = Files.list(mappingsDir)) {
+      return list.filter(this::isMappingFile).sorted().collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Start watching the folder for changes.
+   *
+   * @throws IOException Folder can't be watched.
+   */
+  public void start() throws IOException {
+    watchService = mappingsDir.getFileSystem().newWatchService();
+    mappingsDir.register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+    watcher = new Thread(this::watch, "mapping-reloader");
+    watcher.setDaemon(true);
+    watcher.start();
+    LOGGER.info("Watching '{}' for changed mappings.", mappingsDir);
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        Set<Path> changed = new LinkedHashSet<>();
+        boolean overflow = false;
+        // collect events until the folder is quiet (files are often written in several steps)
+        while (key != null) {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              overflow = true;
+            } else {
+              Path path = mappingsDir.resolve((Path) event.context());
+              if (isMappingFile(path)) {
+                changed.add(path);
+              }
+            }
+          }
+          if (!key.reset()) {
+            LOGGER.error("Folder '{}' is no longer accessible. Stop watching mappings.", mappingsDir);
+            return;
+          }
+          key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+        }
+        try {
+          if (overflow) {
+            reloadAll();
+          } else if (!changed.isEmpty()) {
+            reload(changed);
+          }
+        } catch (RuntimeException ex) {
+          LOGGER.error("Error applying changed mappings! Keep previous versions.", ex);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException ex) {
+      LOGGER.debug("Stop watching mappings.");
+    }
+  }
+
+  /**
+   * Apply changed files to the registry.
+   *
+   * @param changed All changed files.
+   */
+  void reload(Set<Path> changed) {
+    MappingRegistry newRegistry = registry.get();
+    for (Path path : changed) {
+      if (Files.exists(path)) {
+        try {
+          newRegistry = newRegistry.withFile(path, load(path));
+          LOGGER.info("Reloaded mapping '{}'.", path.getFileName());
+        } catch (MappingException ex) {
+          LOGGER.error("Rejected mapping in file '{}': {}. Keep previous version.", path.getFileName(), ex.getMessage());
+        }
+      } else {
+        LOGGER.info("Removed mapping '{}'.", path.getFileName());
+        newRegistry = newRegistry.withoutFile(path);
+      }
+    }
+    // only this thread modifies the registry after startup
+    registry.set(newRegistry);
+  }
+
+  /**
+   * Parse and validate a single mapping file.
+   *
+   * @param path Mapping file.
+   * @return Service for the mapping.
+   * @throws MappingException File is not readable or invalid.
+   */
+  private Mapping2HttpService load(Path path) throws MappingException {
+    LOGGER.debug("Read mapping from file: '{}'", path.getFileName());
+    try (JsonReader reader = new JsonReader(Files.newBufferedReader(path))) {
+      HttpMapping mappingSchema = gson.fromJson(reader, HttpMapping.class);
+      if ((mappingSchema == null) || (mappingSchema.getTargetId() == null)) {
+        throw new MappingException("Missing targetId!");
+      }
+      LOGGER.debug("Mapping: '{}'", gson.toJson(mappingSchema));
+      return factory.create(MappingPlan.compile(mappingSchema));
+    } catch (IOException | JsonParseException ex) {
+      throw new MappingException("Error reading mapping: " + ex.getMessage(), ex);
+    } catch (RuntimeException ex) {
+      throw new MappingException("Error creating service: " + ex, ex);
+    }
+  }
+
+  private boolean isMappingFile(Path path) {
+    return path.getFileName().toString().endsWith(suffix);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (watchService != null) {
+      watchService.close();
+    }
+    if (watcher != null) {
+      watcher.interrupt();
+    }
+  }
+}
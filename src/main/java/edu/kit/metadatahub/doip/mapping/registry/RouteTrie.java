@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.registry;
+
+import java.util.Arrays;
+
+/**
+ * Character trie mapping targetIds to values. Routes are either exact
+ * (targetId has to match completely) or prefixes (route ends with '*').
+ * Lookup takes O(length of targetId): exact matches win, otherwise the
+ * longest matching prefix is used.
+ *
+ * The trie is filled once and published afterwards; it must not be modified
+ * while other threads read it.
+ *
+ * @param <V> Type of the values.
+ */
+public final class RouteTrie<V> {
+
+  /**
+   * Suffix marking a prefix route.
+   */
+  public static final String WILDCARD = "*";
+
+  private final Node<V> root = new Node<>();
+  private int size = 0;
+
+  /**
+   * Add route.
+   *
+   * @param route Exact targetId or prefix ending with '*'.
+   * @param value Value of the route.
+   * @return Value previously registered for the same route (or null).
+   */
+  public V put(String route, V value) {
+    boolean prefix = route.endsWith(WILDCARD);
+    String key = prefix ? route.substring(0, route.length() - WILDCARD.length()) : route;
+    Node<V> node = root;
+    for (int index = 0; index < key.length(); index++) {
+      node = node.getOrAddChild(key.charAt(index));
+    }
+    V previous;
+    if (prefix) {
+      previous = node.prefixValue;
+      node.prefixValue = value;
+    } else {
+      previous = node.exactValue;
+      node.exactValue = value;
+    }
+    if (previous == null) {
+      size++;
+    }
+    return previous;
+  }
+
+  /**
+   * Find value for targetId.
+   *
+   * @param targetId TargetId of a request.
+   * @return Value of the exact route or of the longest matching prefix (null
+   * if no route matches).
+   */
+  public V lookup(String targetId) {
+    Node<V> node = root;
+    V longestPrefix = root.prefixValue;
+    int length = targetId.length();
+    for (int index = 0; index < length; index++) {
+      node = node.getChild(targetId.charAt(index));
+      if (node == null) {
+        return longestPrefix;
+      }
+      if (node.prefixValue != null) {
+        longestPrefix = node.prefixValue;
+      }
+    }
+    return (node.exactValue != null) ? node.exactValue : longestPrefix;
+  }
+
+  /**
+   * @return the number of routes.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Node of the trie. Children are held in sorted arrays (binary search) to
+   * keep nodes small for large route tables.
+   */
+  private static final class Node<V> {
+
+    private static final char[] NO_KEYS = new char[0];
+
+    private char[] keys = NO_KEYS;
+    private Node<V>[] children = null;
+    private V exactValue = null;
+    private V prefixValue = null;
+
+    Node<V> getChild(char c) {
+      int index = Arrays.binarySearch(keys, c);
+      return (index >= 0) ? children[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    Node<V> getOrAddChild(char c) {
+      int index = Arrays.binarySearch(keys, c);
+      if (index >= 0) {
+        return children[index];
+      }
+      int insert = -index - 1;
+      char[] newKeys = new char[keys.length + 1];
+      Node<V>[] newChildren = new Node[keys.length + 1];
+      System.arraycopy(keys, 0, newKeys, 0, insert);
+      newKeys[insert] = c;
+      System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+      if (children != null) {
+        System.arraycopy(children, 0, newChildren, 0, insert);
+        System.arraycopy(children, insert, newChildren, insert + 1, keys.length - insert);
+      }
+      Node<V> child = new Node<>();
+      newChildren[insert] = child;
+      keys = newKeys;
+      children = newChildren;
+      return child;
+    }
+  }
+}
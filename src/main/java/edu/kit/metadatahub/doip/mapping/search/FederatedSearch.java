@@ -0,0 +1,307 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.search;
+
+import com.google.gson.stream.JsonWriter;
+import edu.kit.metadatahub.doip.mapping.Mapping2HttpService;
+import edu.kit.metadatahub.doip.server.util.DoipUtil;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import net.dona.doip.DoipConstants;
+import net.dona.doip.client.DoipException;
+import net.dona.doip.server.DoipServerRequest;
+import net.dona.doip.server.DoipServerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Search over all backends with a mapped search. The backends are queried in
+ * parallel and each has to answer within the deadline. Every backend returns
+ * at most one page starting at its own offset; these pages are merged by the
+ * sort key of the request (default: id) and the first results form the page
+ * of the federated search. List endpoints don't provide a relevance score, so
+ * the merge is exact if the backends order their results by the sort key.
+ * Pages are merged in the order of the backend, so the offsets of the cursor
+ * stay valid. Searches sorted by other fields than the default (id) are only
+ * sent to backends with 'sortParam' in their paging, all other backends are
+ * reported as declined.
+ *
+ * Backends which fail or miss the deadline are reported with their status in
+ * 'backends' while the results of all other backends are still returned. The
+ * cursor holds the offsets of all backends with further results.
+ */
+public class FederatedSearch {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(FederatedSearch.class);
+
+  private final ExecutorService executor;
+  private final long timeout;
+
+  /**
+   * Create federated search.
+   *
+   * @param executor Executor querying the backends.
+   * @param timeout Deadline for the answers of all backends (in ms).
+   */
+  public FederatedSearch(ExecutorService executor, long timeout) {
+    this.executor = executor;
+    this.timeout = timeout;
+  }
+
+  /**
+   * Search all backends and write the merged page to the response.
+   *
+   * @param services Services of all mappings.
+   * @param req Search request.
+   * @param resp Response.
+   * @param defaultPageSize Page size used if the request doesn't define one.
+   * @throws DoipException Invalid request or no backend supports search.
+   * @throws IOException Error while writing the response.
+   */
+  public void search(Collection<Mapping2HttpService> services, DoipServerRequest req, DoipServerResponse resp, int defaultPageSize) throws DoipException, IOException {
+    SearchCursor cursor = SearchCursor.fromRequest(req, defaultPageSize);
+    if (cursor.getPageSize() < 0) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Federated searches need a page size!");
+    }
+    SortOrder sort = SortOrder.parse(cursor.getSortFields());
+    boolean idsOnly = "id".equals(req.getAttributeAsString("type"));
+    // first page queries all backends, following pages the ones left in the cursor
+    Map<String, Long> offsets = cursor.getBackendOffsets();
+    Map<String, Mapping2HttpService> searchable = new LinkedHashMap<>();
+    for (Mapping2HttpService service : services) {
+      String key = service.getMappingPlan().getTargetId();
+      if ((key != null) && (service.getMappingPlan().getSearch() != null) && (offsets.isEmpty() || offsets.containsKey(key))) {
+        searchable.putIfAbsent(key, service);
+      }
+    }
+    if (searchable.isEmpty()) {
+      throw new DoipException(DoipConstants.STATUS_DECLINED, "No repository supports search!");
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    List<Backend> backends = new ArrayList<>();
+    for (Map.Entry<String, Mapping2HttpService> entry : searchable.entrySet()) {
+      Mapping2HttpService service = entry.getValue();
+      long offset = offsets.getOrDefault(entry.getKey(), 0L);
+      DoipUtil doipUtil = DoipUtil.forItem(entry.getKey(), req.getAuthentication());
+      // backends without sort parameter keep their default order (id)
+      SortOrder backendSort = (cursor.getSortFields() != null) ? sort : null;
+      if ((backendSort != null) && (service.getMappingPlan().getSearch().getPaging().getSortParam() == null)) {
+        backends.add(new Backend(entry.getKey(), offset, null));
+        continue;
+      }
+      Future<SearchWindow> window = executor.submit(() -> service.searchWindow(doipUtil, cursor.getQuery(), backendSort, offset, cursor.getPageSize()));
+      backends.add(new Backend(entry.getKey(), offset, window));
+    }
+    for (Backend backend : backends) {
+      backend.await(deadline, sort);
+    }
+
+    resp.setStatus(DoipConstants.STATUS_OK);
+    long written = 0;
+    try (JsonWriter writer = new JsonWriter(resp.getOutput().getJsonWriter())) {
+      writer.beginObject();
+      writer.name("size").value(getSize(backends));
+      writer.name("results").beginArray();
+      // k-way merge of the (sorted) pages of all backends
+      Comparator<Backend> byHead = Comparator.comparing(Backend::headKey, sort.comparator());
+      PriorityQueue<Backend> heads = new PriorityQueue<>(Math.max(1, backends.size()), byHead);
+      for (Backend backend : backends) {
+        if (backend.hasNext()) {
+          heads.add(backend);
+        }
+      }
+      while ((written < cursor.getPageSize()) && !heads.isEmpty()) {
+        Backend backend = heads.poll();
+        Datacite43Schema datacite = backend.next();
+        if (DoipUtil.getIdentifier(datacite) != null) {
+          writeResult(writer, datacite, idsOnly);
+          written++;
+        } else {
+          // results without id can't be returned, they only count for the offset
+          backend.skipped++;
+        }
+        if (backend.hasNext()) {
+          heads.add(backend);
+        }
+      }
+      writer.endArray();
+      writer.name("backends").beginArray();
+      Map<String, Long> nextOffsets = new LinkedHashMap<>();
+      boolean moreResults = false;
+      for (Backend backend : backends) {
+        backend.write(writer);
+        if (backend.hasMoreResults()) {
+          nextOffsets.put(backend.key, backend.getNextOffset());
+          moreResults |= DoipConstants.STATUS_OK.equals(backend.status);
+        }
+      }
+      writer.endArray();
+      if (moreResults && (cursor.getPageSize() > 0)) {
+        writer.name(SearchCursor.ATTRIBUTE_CURSOR).value(cursor.next(cursor.getOffset() + written, nextOffsets).encode());
+      }
+      writer.endObject();
+    }
+    LOGGER.debug("Federated search over {} backend(s): {} result(s).", backends.size(), written);
+  }
+
+  /**
+   * Total number of results of all backends which answered (-1 if unknown).
+   */
+  private static long getSize(List<Backend> backends) {
+    long size = 0;
+    for (Backend backend : backends) {
+      if (backend.window != null) {
+        if (backend.window.getSize() < 0) {
+          return -1;
+        }
+        size += backend.window.getSize();
+      }
+    }
+    return size;
+  }
+
+  private static void writeResult(JsonWriter writer, Datacite43Schema datacite, boolean idsOnly) throws IOException {
+    if (idsOnly) {
+      writer.value(DoipUtil.getIdentifier(datacite));
+    } else {
+      DoipUtil.writeDataResource(writer, datacite);
+    }
+  }
+
+  /**
+   * Page of a single backend and the position of the merge within this page.
+   */
+  private static final class Backend {
+
+    private final String key;
+    private final long offset;
+    private final Future<SearchWindow> future;
+    private SearchWindow window;
+    private final List<Datacite43Schema> results = new ArrayList<>();
+    private final List<String> keys = new ArrayList<>();
+    private int position = 0;
+    private int skipped = 0;
+    private String status;
+    private String message;
+
+    Backend(String key, long offset, Future<SearchWindow> future) {
+      this.key = key;
+      this.offset = offset;
+      this.future = future;
+    }
+
+    /**
+     * Wait for the page of the backend and get the sort keys of its results.
+     * Backends which can't sort by the requested order are declined.
+     */
+    void await(long deadline, SortOrder sort) {
+      if (future == null) {
+        status = DoipConstants.STATUS_DECLINED;
+        message = "Sorting is not supported";
+        return;
+      }
+      try {
+        window = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        status = DoipConstants.STATUS_OK;
+      } catch (TimeoutException ex) {
+        future.cancel(true);
+        status = DoipConstants.STATUS_ERROR;
+        message = "Deadline exceeded";
+      } catch (InterruptedException ex) {
+        future.cancel(true);
+        Thread.currentThread().interrupt();
+        status = DoipConstants.STATUS_ERROR;
+        message = "Interrupted";
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        status = (cause instanceof DoipException) ? ((DoipException) cause).getStatusCode() : DoipConstants.STATUS_ERROR;
+        message = cause.getMessage();
+      }
+      if (window == null) {
+        LOGGER.warn("Federated search of '{}' failed: {}", key, message);
+        return;
+      }
+      // keep the order of the backend, otherwise the offset of the next page is wrong
+      for (Datacite43Schema datacite : window.getResults()) {
+        results.add(datacite);
+        keys.add(sort.getKey(DoipUtil.getIdentifier(datacite), datacite));
+      }
+    }
+
+    boolean hasNext() {
+      return position < results.size();
+    }
+
+    String headKey() {
+      return keys.get(position);
+    }
+
+    Datacite43Schema next() {
+      return results.get(position++);
+    }
+
+    /**
+     * @return true if the backend failed or has results not returned yet
+     * (false for declined backends).
+     */
+    boolean hasMoreResults() {
+      if (window == null) {
+        return !DoipConstants.STATUS_DECLINED.equals(status);
+      }
+      return hasNext() || window.hasMoreResults();
+    }
+
+    /**
+     * @return offset of the next page (unchanged for failed backends).
+     */
+    long getNextOffset() {
+      return offset + position;
+    }
+
+    void write(JsonWriter writer) throws IOException {
+      writer.beginObject();
+      writer.name("targetId").value(key);
+      writer.name("status").value(status);
+      if (message != null) {
+        writer.name("message").value(message);
+      }
+      if (window != null) {
+        writer.name("size").value(window.getSize());
+        writer.name("returned").value(position - skipped);
+        if (skipped > 0) {
+          writer.name("skipped").value(skipped);
+        }
+      }
+      writer.endObject();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Query answered by the search index. A query consists of terms separated by
+ * white space which all have to match, e.g.
+ * <pre>title:"climate data" creator:smi* format:application/json</pre>
+ * Values ending with '*' match as prefix. Values of text fields (title,
+ * creator, subject, publisher) are split into words; format and identifier
+ * have to match as a whole (case insensitive).
+ */
+public final class IndexQuery {
+
+  private final List<Clause> clauses;
+
+  private IndexQuery(List<Clause> clauses) {
+    this.clauses = Collections.unmodifiableList(clauses);
+  }
+
+  /**
+   * Parse query.
+   *
+   * @param query Query of the search.
+   * @return Query or null if the query can't be answered by the index (e.g.
+   * unknown fields or terms without field).
+   */
+  public static IndexQuery parse(String query) {
+    if (query == null) {
+      return null;
+    }
+    List<Clause> clauses = new ArrayList<>();
+    int length = query.length();
+    int index = 0;
+    while (index < length) {
+      if (Character.isWhitespace(query.charAt(index))) {
+        index++;
+        continue;
+      }
+      int colon = query.indexOf(':', index);
+      if (colon <= index) {
+        return null;
+      }
+      String field = query.substring(index, colon);
+      if (!SearchIndex.isField(field)) {
+        return null;
+      }
+      String value;
+      index = colon + 1;
+      if ((index < length) && (query.charAt(index) == '"')) {
+        int end = query.indexOf('"', index + 1);
+        if (end < 0) {
+          return null;
+        }
+        value = query.substring(index + 1, end);
+        index = end + 1;
+        if ((index < length) && (query.charAt(index) == '*')) {
+          value += '*';
+          index++;
+        }
+      } else {
+        int end = index;
+        while ((end < length) && !Character.isWhitespace(query.charAt(end))) {
+          end++;
+        }
+        value = query.substring(index, end);
+        index = end;
+      }
+      if (!addClauses(clauses, field, value)) {
+        return null;
+      }
+    }
+    return clauses.isEmpty() ? null : new IndexQuery(clauses);
+  }
+
+  private static boolean addClauses(List<Clause> clauses, String field, String value) {
+    boolean prefix = value.endsWith("*");
+    if (prefix) {
+      value = value.substring(0, value.length() - 1);
+    }
+    List<String> tokens = SearchIndex.tokenize(field, value);
+    if (tokens.isEmpty()) {
+      return false;
+    }
+    for (int index = 0; index < tokens.size(); index++) {
+      // only the last word of a value may be incomplete
+      clauses.add(new Clause(field, tokens.get(index), prefix && (index == tokens.size() - 1)));
+    }
+    return true;
+  }
+
+  /**
+   * @return the clauses which all have to match.
+   */
+  public List<Clause> getClauses() {
+    return clauses;
+  }
+
+  /**
+   * Single term of a query.
+   */
+  public static final class Clause {
+
+    private final String field;
+    private final String token;
+    private final boolean prefix;
+
+    Clause(String field, String token, boolean prefix) {
+      this.field = field;
+      this.token = token;
+      this.prefix = prefix;
+    }
+
+    /**
+     * @return the field.
+     */
+    public String getField() {
+      return field;
+    }
+
+    /**
+     * @return the normalized token.
+     */
+    public String getToken() {
+      return token;
+    }
+
+    /**
+     * @return true if the token matches as prefix.
+     */
+    public boolean isPrefix() {
+      return prefix;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.search;
+
+import java.util.Arrays;
+
+/**
+ * Sorted set of document numbers of a term (4 bytes per entry). Not thread
+ * safe.
+ */
+final class Postings {
+
+  private int[] entries = new int[2];
+  private int size = 0;
+
+  /**
+   * Add document.
+   *
+   * @param document Number of the document.
+   * @return true if the document was added.
+   */
+  boolean add(int document) {
+    int index = Arrays.binarySearch(entries, 0, size, document);
+    if (index >= 0) {
+      return false;
+    }
+    index = -index - 1;
+    if (size == entries.length) {
+      entries = Arrays.copyOf(entries, size + (size >> 1) + 1);
+    }
+    System.arraycopy(entries, index, entries, index + 1, size - index);
+    entries[index] = document;
+    size++;
+    return true;
+  }
+
+  /**
+   * Remove document.
+   *
+   * @param document Number of the document.
+   * @return true if the document was removed.
+   */
+  boolean remove(int document) {
+    int index = Arrays.binarySearch(entries, 0, size, document);
+    if (index < 0) {
+      return false;
+    }
+    System.arraycopy(entries, index + 1, entries, index, size - index - 1);
+    size--;
+    if ((entries.length > 16) && (size < entries.length / 4)) {
+      entries = Arrays.copyOf(entries, entries.length / 2);
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of documents.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return copy of the sorted document numbers.
+   */
+  int[] toArray() {
+    return Arrays.copyOf(entries, size);
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.search;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.dona.doip.DoipConstants;
+import net.dona.doip.client.DoipException;
+import net.dona.doip.server.DoipServerRequest;
+
+/**
+ * Position within the results of a search. The cursor is handed to the client
+ * as opaque string and holds everything needed to continue the search.
+ */
+public final class SearchCursor {
+
+  /**
+   * Attributes of a search request.
+   */
+  public static final String ATTRIBUTE_QUERY = "query";
+  public static final String ATTRIBUTE_PAGE_NUM = "pageNum";
+  public static final String ATTRIBUTE_PAGE_SIZE = "pageSize";
+  public static final String ATTRIBUTE_CURSOR = "cursor";
+  public static final String ATTRIBUTE_SORT_FIELDS = "sortFields";
+  public static final String ATTRIBUTE_FEDERATED = "federated";
+
+  private final String query;
+  private final long offset;
+  private final int pageSize;
+  private final String sortFields;
+  private final Map<String, Long> backendOffsets;
+
+  /**
+   * Create cursor.
+   *
+   * @param query Query of the search.
+   * @param offset Index of the next result.
+   * @param pageSize Number of results per page (-1 for all results).
+   */
+  public SearchCursor(String query, long offset, int pageSize) {
+    this(query, offset, pageSize, null, null);
+  }
+
+  /**
+   * Create cursor.
+   *
+   * @param query Query of the search.
+   * @param offset Index of the next result.
+   * @param pageSize Number of results per page (-1 for all results).
+   * @param sortFields Sort fields (may be null).
+   * @param backendOffsets Index of the next result per backend of a federated
+   * search (null if the search isn't federated).
+   */
+  public SearchCursor(String query, long offset, int pageSize, String sortFields, Map<String, Long> backendOffsets) {
+    this.query = query;
+    this.offset = offset;
+    this.pageSize = pageSize;
+    this.sortFields = sortFields;
+    this.backendOffsets = (backendOffsets != null) ? Collections.unmodifiableMap(backendOffsets) : null;
+  }
+
+  /**
+   * Get position of a search either from the cursor or from query, pageNum
+   * and pageSize of the request.
+   *
+   * @param req Search request.
+   * @param defaultPageSize Page size used if the request doesn't define one.
+   * @return Cursor.
+   * @throws DoipException Attributes are missing or invalid.
+   */
+  public static SearchCursor fromRequest(DoipServerRequest req, int defaultPageSize) throws DoipException {
+    String cursor = req.getAttributeAsString(ATTRIBUTE_CURSOR);
+    if (cursor != null) {
+      return decode(cursor);
+    }
+    String query = req.getAttributeAsString(ATTRIBUTE_QUERY);
+    if (query == null) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Missing query");
+    }
+    int pageNum;
+    int pageSize;
+    try {
+      pageNum = (req.getAttribute(ATTRIBUTE_PAGE_NUM) != null) ? req.getAttribute(ATTRIBUTE_PAGE_NUM).getAsInt() : 0;
+      pageSize = (req.getAttribute(ATTRIBUTE_PAGE_SIZE) != null) ? req.getAttribute(ATTRIBUTE_PAGE_SIZE).getAsInt() : defaultPageSize;
+    } catch (RuntimeException ex) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Invalid pageNum/pageSize!");
+    }
+    if ((pageNum < 0) || (pageSize < -1)) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Invalid pageNum/pageSize!");
+    }
+    long offset = (pageSize > 0) ? (long) pageNum * pageSize : 0;
+    Map<String, Long> backendOffsets = null;
+    if ((req.getAttribute(ATTRIBUTE_FEDERATED) != null) && req.getAttribute(ATTRIBUTE_FEDERATED).getAsBoolean()) {
+      if (offset > 0) {
+        throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Federated searches have to be continued with the cursor!");
+      }
+      backendOffsets = Collections.emptyMap();
+    }
+    return new SearchCursor(query, offset, pageSize, req.getAttributeAsString(ATTRIBUTE_SORT_FIELDS), backendOffsets);
+  }
+
+  /**
+   * Decode cursor.
+   *
+   * @param cursor Cursor as returned by encode().
+   * @return Cursor.
+   * @throws DoipException Cursor is invalid.
+   */
+  public static SearchCursor decode(String cursor) throws DoipException {
+    try {
+      String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      JsonObject object = JsonParser.parseString(json).getAsJsonObject();
+      String sortFields = object.has("f") ? object.get("f").getAsString() : null;
+      Map<String, Long> backendOffsets = null;
+      if (object.has("b")) {
+        backendOffsets = new LinkedHashMap<>();
+        for (Map.Entry<String, JsonElement> entry : object.getAsJsonObject("b").entrySet()) {
+          if (entry.getValue().getAsLong() < 0) {
+            throw new IllegalArgumentException("Negative offset!");
+          }
+          backendOffsets.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+      }
+      SearchCursor searchCursor = new SearchCursor(object.get("q").getAsString(), object.get("o").getAsLong(), object.get("s").getAsInt(), sortFields, backendOffsets);
+      if (searchCursor.offset < 0) {
+        throw new IllegalArgumentException("Negative offset!");
+      }
+      if (searchCursor.pageSize < -1) {
+        throw new IllegalArgumentException("Invalid page size!");
+      }
+      return searchCursor;
+    } catch (RuntimeException ex) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Invalid cursor!");
+    }
+  }
+
+  /**
+   * @return the cursor as opaque string.
+   */
+  public String encode() {
+    JsonObject object = new JsonObject();
+    object.addProperty("q", query);
+    object.addProperty("o", offset);
+    object.addProperty("s", pageSize);
+    if (sortFields != null) {
+      object.addProperty("f", sortFields);
+    }
+    if (backendOffsets != null) {
+      JsonObject offsets = new JsonObject();
+      backendOffsets.forEach(offsets::addProperty);
+      object.add("b", offsets);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(object.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Get cursor of the following page.
+   *
+   * @param newOffset Index of the next result.
+   * @return Cursor.
+   */
+  public SearchCursor next(long newOffset) {
+    return new SearchCursor(query, newOffset, pageSize, sortFields, backendOffsets);
+  }
+
+  /**
+   * Get cursor of the following page of a federated search.
+   *
+   * @param newOffset Index of the next result.
+   * @param newBackendOffsets Index of the next result per backend.
+   * @return Cursor.
+   */
+  public SearchCursor next(long newOffset, Map<String, Long> newBackendOffsets) {
+    return new SearchCursor(query, newOffset, pageSize, sortFields, newBackendOffsets);
+  }
+
+  /**
+   * @return the query.
+   */
+  public String getQuery() {
+    return query;
+  }
+
+  /**
+   * @return the index of the next result.
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return the number of results per page (-1 for all results).
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * @return the sort fields (may be null).
+   */
+  public String getSortFields() {
+    return sortFields;
+  }
+
+  /**
+   * @return true if the search is federated over all backends.
+   */
+  public boolean isFederated() {
+    return backendOffsets != null;
+  }
+
+  /**
+   * Get index of the next result per backend of a federated search. Backends
+   * without further results are omitted, so an empty map denotes the first
+   * page.
+   *
+   * @return Index of the next result per key of the backend (null if the
+   * search isn't federated).
+   */
+  public Map<String, Long> getBackendOffsets() {
+    return backendOffsets;
+  }
+}
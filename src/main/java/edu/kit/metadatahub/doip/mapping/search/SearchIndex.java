@@ -0,0 +1,579 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.search;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import edu.kit.metadatahub.doip.server.util.DoipUtil;
+import edu.kit.metadatahub.doip.server.util.JsonCodecs;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory inverted index over the Datacite metadata seen by the hub
+ * (create, update, retrieve). It answers field and prefix queries (see
+ * IndexQuery) without calling a backend. Every object belongs to the mapping
+ * it was read from and searches only return objects of the requested
+ * mapping. As the index answers searches of all clients, only metadata read
+ * without authentication may be put into it. The estimated size of the index is
+ * bounded; if it's exceeded the objects indexed least recently are dropped.
+ * The index of a mapping is complete after it was rebuilt from the backend
+ * as long as none of its objects was dropped or removed since. The index may
+ * be saved to a file and restored at startup.
+ */
+public class SearchIndex {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndex.class);
+  /**
+   * Default for max. estimated size of the index in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  /**
+   * Fields holding text (split into words).
+   */
+  private static final Set<String> TEXT_FIELDS = Set.of("title", "creator", "subject", "publisher");
+  /**
+   * Fields matched as a whole.
+   */
+  private static final Set<String> KEYWORD_FIELDS = Set.of("format", "identifier");
+  /**
+   * Estimated overhead of an object and of a term in bytes.
+   */
+  private static final int DOCUMENT_OVERHEAD = 128;
+  private static final int TERM_OVERHEAD = 96;
+  /**
+   * Internal field holding the mapping of an object (not searchable).
+   */
+  private static final String MAPPING_FIELD = "@mapping";
+
+  private final long maxBytes;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /**
+   * Terms (field:token) and their postings.
+   */
+  private final TreeMap<String, Postings> terms = new TreeMap<>();
+  /**
+   * Indexed objects in order of indexing (oldest first).
+   */
+  private final LinkedHashMap<String, Document> documents = new LinkedHashMap<>();
+  private final List<Document> documentsByNumber = new ArrayList<>();
+  private final Deque<Integer> freeNumbers = new ArrayDeque<>();
+  private long bytes = 0;
+  /**
+   * Mappings rebuilt completely and mappings currently rebuilt without loss
+   * so far.
+   */
+  private final Set<String> completeMappings = new HashSet<>();
+  private final Set<String> rebuildingMappings = new HashSet<>();
+  private final LongAdder queries = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Create index.
+   *
+   * @param maxBytes Max. estimated size of the index in bytes.
+   */
+  public SearchIndex(long maxBytes) {
+    LOGGER.debug("Create search index (max. {} bytes).", maxBytes);
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param field Name of a field.
+   * @return true if the field is indexed.
+   */
+  public static boolean isField(String field) {
+    return TEXT_FIELDS.contains(field) || KEYWORD_FIELDS.contains(field);
+  }
+
+  /**
+   * Normalize value of a field.
+   *
+   * @param field Name of the field.
+   * @param value Value.
+   * @return Tokens (words of text fields, whole value otherwise).
+   */
+  static List<String> tokenize(String field, String value) {
+    if (value == null) {
+      return Collections.emptyList();
+    }
+    String normalized = value.trim().toLowerCase(Locale.ROOT);
+    if (KEYWORD_FIELDS.contains(field)) {
+      return normalized.isEmpty() ? Collections.emptyList() : Collections.singletonList(normalized);
+    }
+    List<String> tokens = new ArrayList<>();
+    int start = -1;
+    for (int index = 0; index <= normalized.length(); index++) {
+      boolean letter = (index < normalized.length()) && Character.isLetterOrDigit(normalized.charAt(index));
+      if (letter && (start < 0)) {
+        start = index;
+      } else if (!letter && (start >= 0)) {
+        tokens.add(normalized.substring(start, index));
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Index metadata of an object. Previous metadata of the object is replaced.
+   * The metadata has to be readable without authentication.
+   *
+   * @param mapping TargetId of the mapping the object was read from.
+   * @param id Id of the digital object.
+   * @param datacite Metadata.
+   */
+  public void put(String mapping, String id, Datacite43Schema datacite) {
+    if ((mapping == null) || (id == null) || (datacite == null)) {
+      return;
+    }
+    JsonElement metadata = JsonCodecs.getGson().toJsonTree(datacite);
+    if (metadata.isJsonObject()) {
+      put(mapping, id, metadata.getAsJsonObject());
+    }
+  }
+
+  private void put(String mapping, String id, JsonObject metadata) {
+    JsonObject digitalObject = new JsonObject();
+    digitalObject.addProperty("id", id);
+    digitalObject.addProperty("type", DoipUtil.TYPE_DO);
+    JsonObject attributes = new JsonObject();
+    attributes.add(DoipUtil.ATTR_DATACITE, metadata);
+    digitalObject.add("attributes", attributes);
+    String json = digitalObject.toString();
+    lock.writeLock().lock();
+    try {
+      Document old = documents.get(id);
+      if ((old != null) && old.mapping.equals(mapping) && old.json.equals(json)) {
+        // unchanged (e.g. retrieved again)
+        return;
+      }
+      if (old != null) {
+        removeDocument(old);
+      }
+      addDocument(mapping, id, json, extractTerms(mapping, id, metadata));
+      while ((bytes > maxBytes) && (documents.size() > 1)) {
+        Document evicted = documents.values().iterator().next();
+        removeDocument(evicted);
+        markIncomplete(evicted.mapping);
+        evictions.increment();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove object from index.
+   *
+   * @param id Id of the digital object.
+   */
+  public void remove(String id) {
+    lock.writeLock().lock();
+    try {
+      Document old = documents.get(id);
+      if (old != null) {
+        removeDocument(old);
+        markIncomplete(old.mapping);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Start rebuilding the index of a mapping. The mapping is incomplete until
+   * the rebuild is finished.
+   *
+   * @param mapping TargetId of the mapping.
+   */
+  public void startRebuild(String mapping) {
+    lock.writeLock().lock();
+    try {
+      completeMappings.remove(mapping);
+      rebuildingMappings.add(mapping);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Finish rebuilding the index of a mapping.
+   *
+   * @param mapping TargetId of the mapping.
+   * @param success All objects of the backend were indexed.
+   * @return true if the index of the mapping is complete.
+   */
+  public boolean finishRebuild(String mapping, boolean success) {
+    lock.writeLock().lock();
+    try {
+      boolean complete = rebuildingMappings.remove(mapping) && success;
+      if (complete) {
+        completeMappings.add(mapping);
+      }
+      return complete;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @param mapping TargetId of the mapping.
+   * @return true if the index holds all objects of the mapping.
+   */
+  public boolean isComplete(String mapping) {
+    lock.readLock().lock();
+    try {
+      return completeMappings.contains(mapping);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * An object of the mapping was dropped (write lock held).
+   */
+  private void markIncomplete(String mapping) {
+    rebuildingMappings.remove(mapping);
+    if (completeMappings.remove(mapping)) {
+      LOGGER.info("Search index of '{}' is incomplete, searches are forwarded to the backend.", mapping);
+    }
+  }
+
+  /**
+   * Search objects of a mapping.
+   *
+   * @param mapping TargetId of the mapping.
+   * @param query Query.
+   * @param offset Index of the first result.
+   * @param pageSize Max. number of results (-1 for all).
+   * @return Results sorted by id.
+   */
+  public Hits search(String mapping, IndexQuery query, long offset, int pageSize) {
+    queries.increment();
+    lock.readLock().lock();
+    try {
+      Postings mappingPostings = terms.get(MAPPING_FIELD + ':' + mapping);
+      int[] matches = (mappingPostings != null) ? mappingPostings.toArray() : new int[0];
+      for (IndexQuery.Clause clause : query.getClauses()) {
+        if (matches.length == 0) {
+          break;
+        }
+        matches = intersect(matches, match(clause));
+      }
+      String[] ids = new String[matches.length];
+      for (int index = 0; index < matches.length; index++) {
+        ids[index] = documentsByNumber.get(matches[index]).id;
+      }
+      // order by id for stable pages
+      Arrays.sort(ids);
+      int from = (int) Math.min(offset, ids.length);
+      int to = (pageSize < 0) ? ids.length : (int) Math.min((long) from + pageSize, ids.length);
+      List<String> pageIds = new ArrayList<>(to - from);
+      List<String> pageDocuments = new ArrayList<>(to - from);
+      for (int index = from; index < to; index++) {
+        pageIds.add(ids[index]);
+        pageDocuments.add(documents.get(ids[index]).json);
+      }
+      return new Hits(ids.length, pageIds, pageDocuments);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private int[] match(IndexQuery.Clause clause) {
+    String key = clause.getField() + ':' + clause.getToken();
+    if (!clause.isPrefix()) {
+      Postings postings = terms.get(key);
+      return (postings != null) ? postings.toArray() : new int[0];
+    }
+    NavigableMap<String, Postings> prefixTerms = terms.subMap(key, true, key + Character.MAX_VALUE, false);
+    if (prefixTerms.size() == 1) {
+      return prefixTerms.firstEntry().getValue().toArray();
+    }
+    BitSet union = new BitSet(documentsByNumber.size());
+    for (Postings postings : prefixTerms.values()) {
+      int[] entries = postings.toArray();
+      for (int entry : entries) {
+        union.set(entry);
+      }
+    }
+    return union.stream().toArray();
+  }
+
+  private static int[] intersect(int[] first, int[] second) {
+    int[] small = (first.length <= second.length) ? first : second;
+    int[] large = (small == first) ? second : first;
+    int[] result = new int[small.length];
+    int size = 0;
+    for (int entry : small) {
+      if (Arrays.binarySearch(large, entry) >= 0) {
+        result[size++] = entry;
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  private static String[] extractTerms(String mapping, String id, JsonObject metadata) {
+    Set<String> keys = new LinkedHashSet<>();
+    keys.add(MAPPING_FIELD + ':' + mapping);
+    addArrayTerms(keys, "title", metadata, "titles", "title");
+    addArrayTerms(keys, "creator", metadata, "creators", "name", "givenName", "familyName");
+    addArrayTerms(keys, "subject", metadata, "subjects", "subject");
+    addArrayTerms(keys, "format", metadata, "formats");
+    addArrayTerms(keys, "identifier", metadata, "identifiers", "identifier");
+    addArrayTerms(keys, "identifier", metadata, "alternateIdentifiers", "alternateIdentifier");
+    addTerms(keys, "publisher", metadata.get("publisher"));
+    for (String token : tokenize("identifier", id)) {
+      keys.add("identifier:" + token);
+    }
+    return keys.toArray(new String[0]);
+  }
+
+  private static void addArrayTerms(Set<String> keys, String field, JsonObject metadata, String array, String... properties) {
+    JsonElement values = metadata.get(array);
+    if ((values == null) || !values.isJsonArray()) {
+      return;
+    }
+    for (JsonElement value : values.getAsJsonArray()) {
+      if (properties.length == 0) {
+        addTerms(keys, field, value);
+      } else if (value.isJsonObject()) {
+        for (String property : properties) {
+          addTerms(keys, field, value.getAsJsonObject().get(property));
+        }
+      }
+    }
+  }
+
+  private static void addTerms(Set<String> keys, String field, JsonElement value) {
+    if ((value != null) && value.isJsonPrimitive()) {
+      for (String token : tokenize(field, value.getAsString())) {
+        keys.add(field + ':' + token);
+      }
+    }
+  }
+
+  private void addDocument(String mapping, String id, String json, String[] keys) {
+    int number = freeNumbers.isEmpty() ? documentsByNumber.size() : freeNumbers.pop();
+    Document document = new Document(mapping, id, number, json, keys);
+    if (number == documentsByNumber.size()) {
+      documentsByNumber.add(document);
+    } else {
+      documentsByNumber.set(number, document);
+    }
+    documents.put(id, document);
+    bytes += document.weight();
+    for (String key : keys) {
+      Postings postings = terms.get(key);
+      if (postings == null) {
+        postings = new Postings();
+        terms.put(key, postings);
+        bytes += TERM_OVERHEAD + key.length();
+      }
+      postings.add(number);
+    }
+  }
+
+  private void removeDocument(Document document) {
+    for (String key : document.keys) {
+      Postings postings = terms.get(key);
+      if ((postings != null) && postings.remove(document.number) && (postings.size() == 0)) {
+        terms.remove(key);
+        bytes -= TERM_OVERHEAD + key.length();
+      }
+    }
+    documents.remove(document.id);
+    documentsByNumber.set(document.number, null);
+    freeNumbers.push(document.number);
+    bytes -= document.weight();
+  }
+
+  /**
+   * Save index to file (gzipped, one digital object and its mapping per
+   * line). The file is replaced atomically.
+   *
+   * @param file File.
+   * @throws IOException Error while writing.
+   */
+  public void save(Path file) throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    int count = 0;
+    lock.readLock().lock();
+    try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+      for (Document document : documents.values()) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("mapping", document.mapping);
+        entry.add("digitalObject", JsonParser.parseString(document.json));
+        writer.write(entry.toString());
+        writer.newLine();
+        count++;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOGGER.info("Saved {} object(s) of search index to '{}'.", count, file);
+  }
+
+  /**
+   * Load index from file written by save(). Invalid lines and lines without
+   * mapping (written by older versions) are skipped.
+   *
+   * @param file File.
+   * @throws IOException Error while reading.
+   */
+  public void load(Path file) throws IOException {
+    int count = 0;
+    int skipped = 0;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        try {
+          JsonObject entry = JsonParser.parseString(line).getAsJsonObject();
+          if (!entry.has("mapping")) {
+            skipped++;
+            continue;
+          }
+          JsonObject digitalObject = entry.getAsJsonObject("digitalObject");
+          put(entry.get("mapping").getAsString(), digitalObject.get("id").getAsString(), digitalObject.getAsJsonObject("attributes").getAsJsonObject(DoipUtil.ATTR_DATACITE));
+          count++;
+        } catch (RuntimeException ex) {
+          LOGGER.warn("Skip invalid entry of search index: {}", ex.getMessage());
+        }
+      }
+    }
+    if (skipped > 0) {
+      LOGGER.warn("Skipped {} object(s) without mapping, rebuild search index to restore them.", skipped);
+    }
+    LOGGER.info("Loaded {} object(s) of search index from '{}'.", count, file);
+  }
+
+  /**
+   * Get counters of the index.
+   *
+   * @return Counters as JSON.
+   */
+  public JsonObject getStatistics() {
+    JsonObject json = new JsonObject();
+    lock.readLock().lock();
+    try {
+      json.addProperty("objectCount", documents.size());
+      json.addProperty("termCount", terms.size());
+      json.addProperty("estimatedBytes", bytes);
+      json.addProperty("completeMappingCount", completeMappings.size());
+    } finally {
+      lock.readLock().unlock();
+    }
+    json.addProperty("maxBytes", maxBytes);
+    json.addProperty("queryCount", queries.sum());
+    json.addProperty("evictionCount", evictions.sum());
+    return json;
+  }
+
+  /**
+   * Page of results of a search.
+   */
+  public static final class Hits {
+
+    private final long size;
+    private final List<String> ids;
+    private final List<String> documents;
+
+    Hits(long size, List<String> ids, List<String> documents) {
+      this.size = size;
+      this.ids = ids;
+      this.documents = documents;
+    }
+
+    /**
+     * @return the number of all results.
+     */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * @return the ids of the results of the page.
+     */
+    public List<String> getIds() {
+      return ids;
+    }
+
+    /**
+     * @return the digital objects (JSON) of the results of the page.
+     */
+    public List<String> getDocuments() {
+      return documents;
+    }
+  }
+
+  /**
+   * Indexed object.
+   */
+  private static final class Document {
+
+    private final String mapping;
+    private final String id;
+    private final int number;
+    private final String json;
+    private final String[] keys;
+
+    Document(String mapping, String id, int number, String json, String[] keys) {
+      this.mapping = mapping;
+      this.id = id;
+      this.number = number;
+      this.json = json;
+      this.keys = keys;
+    }
+
+    long weight() {
+      return DOCUMENT_OVERHEAD + id.length() + json.length() + 12L * keys.length;
+    }
+  }
+}
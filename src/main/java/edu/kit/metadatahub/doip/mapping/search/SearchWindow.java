@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.search;
+
+import edu.kit.turntable.mapping.Datacite43Schema;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consecutive results of a search of a single backend starting at a given
+ * offset.
+ */
+public final class SearchWindow {
+
+  private final long size;
+  private final List<Datacite43Schema> results;
+  private final boolean moreResults;
+
+  /**
+   * Create window.
+   *
+   * @param size Total number of results (-1 if unknown).
+   * @param results Results of the window.
+   * @param moreResults More results are available after the window.
+   */
+  public SearchWindow(long size, List<Datacite43Schema> results, boolean moreResults) {
+    this.size = size;
+    this.results = Collections.unmodifiableList(results);
+    this.moreResults = moreResults;
+  }
+
+  /**
+   * @return the total number of results (-1 if unknown).
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return the results of the window.
+   */
+  public List<Datacite43Schema> getResults() {
+    return results;
+  }
+
+  /**
+   * @return true if more results are available after the window.
+   */
+  public boolean hasMoreResults() {
+    return moreResults;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.mapping.search;
+
+import edu.kit.turntable.mapping.Datacite43Schema;
+import java.util.Comparator;
+import java.util.Locale;
+import net.dona.doip.DoipConstants;
+import net.dona.doip.client.DoipException;
+
+/**
+ * Sort order of a search given by the attribute 'sortFields' of the request,
+ * e.g. 'title DESC'. Only the first field is used. Supported fields are id,
+ * title, publisher and publicationYear.
+ */
+public final class SortOrder {
+
+  /**
+   * Order by id (default).
+   */
+  public static final SortOrder BY_ID = new SortOrder("id", false);
+
+  private final String field;
+  private final boolean descending;
+
+  private SortOrder(String field, boolean descending) {
+    this.field = field;
+    this.descending = descending;
+  }
+
+  /**
+   * Parse sort fields.
+   *
+   * @param sortFields Sort fields of the request (may be null).
+   * @return Sort order (by id if no sort fields are given).
+   * @throws DoipException Field is not supported.
+   */
+  public static SortOrder parse(String sortFields) throws DoipException {
+    if ((sortFields == null) || sortFields.trim().isEmpty()) {
+      return BY_ID;
+    }
+    String first = sortFields.split(",")[0].trim();
+    String[] parts = first.split("\\s+");
+    String field = parts[0];
+    if (!"id".equals(field) && !"title".equals(field) && !"publisher".equals(field) && !"publicationYear".equals(field)) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Sorting by '" + field + "' is not supported!");
+    }
+    boolean descending = (parts.length > 1) && "DESC".equalsIgnoreCase(parts[1]);
+    return new SortOrder(field, descending);
+  }
+
+  /**
+   * Get key of a result.
+   *
+   * @param id Id of the digital object.
+   * @param datacite Metadata.
+   * @return Key (never null).
+   */
+  public String getKey(String id, Datacite43Schema datacite) {
+    String key = null;
+    switch (field) {
+      case "title":
+        key = ((datacite.getTitles() != null) && !datacite.getTitles().isEmpty()) ? datacite.getTitles().iterator().next().getTitle() : null;
+        break;
+      case "publisher":
+        key = datacite.getPublisher();
+        break;
+      case "publicationYear":
+        key = datacite.getPublicationYear();
+        break;
+      default:
+        key = id;
+    }
+    return (key != null) ? key.toLowerCase(Locale.ROOT) : "";
+  }
+
+  /**
+   * @return comparator for keys (see getKey()).
+   */
+  public Comparator<String> comparator() {
+    return descending ? Comparator.<String>reverseOrder() : Comparator.<String>naturalOrder();
+  }
+
+  /**
+   * @return the value for the sort parameter of a backend ('field,asc' or
+   * 'field,desc').
+   */
+  public String toParam() {
+    return field + (descending ? ",desc" : ",asc");
+  }
+
+  /**
+   * @return the sort fields as given in requests.
+   */
+  @Override
+  public String toString() {
+    return field + (descending ? " DESC" : " ASC");
+  }
+}
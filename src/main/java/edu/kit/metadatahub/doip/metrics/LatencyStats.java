@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histogram and counters of one time series. Recording is wait-free
+ * (HdrHistogram recorder and adders); only reading a snapshot synchronizes.
+ */
+public final class LatencyStats {
+
+  /**
+   * Highest trackable latency in microseconds (1 hour).
+   */
+  static final long MAX_MICROS = TimeUnit.HOURS.toMicros(1);
+  /**
+   * Precision of the histograms.
+   */
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final Map<String, String> labels;
+  private final boolean error;
+  private final Recorder recorder = new Recorder(MAX_MICROS, SIGNIFICANT_DIGITS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumMicros = new LongAdder();
+  /**
+   * All values recorded so far (guarded by this).
+   */
+  private final Histogram total = new Histogram(MAX_MICROS, SIGNIFICANT_DIGITS);
+  private Histogram interval = null;
+
+  /**
+   * Create time series.
+   *
+   * @param labels Labels of the series.
+   * @param error Series counts failed calls.
+   */
+  LatencyStats(Map<String, String> labels, boolean error) {
+    this.labels = Collections.unmodifiableMap(labels);
+    this.error = error;
+  }
+
+  /**
+   * Record duration of a single call.
+   *
+   * @param nanos Duration in nanoseconds.
+   */
+  public void record(long nanos) {
+    long micros = Math.max(0, Math.min(MAX_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    recorder.recordValue(micros);
+    count.increment();
+    sumMicros.add(micros);
+  }
+
+  /**
+   * @return the labels of the series.
+   */
+  public Map<String, String> getLabels() {
+    return labels;
+  }
+
+  /**
+   * @return true if the series counts failed calls.
+   */
+  public boolean isError() {
+    return error;
+  }
+
+  /**
+   * @return the number of calls.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return the sum of all durations in microseconds.
+   */
+  public long getSumMicros() {
+    return sumMicros.sum();
+  }
+
+  /**
+   * Get histogram of all recorded values (values are in microseconds).
+   *
+   * @return Copy of the histogram.
+   */
+  public synchronized Histogram getHistogram() {
+    interval = recorder.getIntervalHistogram(interval);
+    total.add(interval);
+    return total.copy();
+  }
+}
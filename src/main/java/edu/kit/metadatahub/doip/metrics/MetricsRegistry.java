@@ -0,0 +1,229 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import edu.kit.metadatahub.doip.ExtendedOperations;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import net.dona.doip.DoipConstants;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Process wide registry of latency histograms for DOIP operations and
+ * outbound backend calls.
+ */
+public final class MetricsRegistry {
+
+  /**
+   * Name of the series for DOIP operations.
+   */
+  public static final String OPERATION = "metadatahub_doip_operation_seconds";
+  /**
+   * Name of the series for calls to backends.
+   */
+  public static final String BACKEND_CALL = "metadatahub_backend_call_seconds";
+  /**
+   * Label of operations not supported by the service. Operation ids are
+   * chosen by the client, so they can't be used as label.
+   */
+  public static final String OTHER_OPERATION = "other";
+  /**
+   * Operations supported by the service (labelled by their id).
+   */
+  private static final Set<String> OPERATIONS = Set.of(DoipConstants.OP_HELLO, DoipConstants.OP_LIST_OPERATIONS,
+          DoipConstants.OP_CREATE, DoipConstants.OP_RETRIEVE, DoipConstants.OP_UPDATE, DoipConstants.OP_DELETE,
+          DoipConstants.OP_SEARCH, ExtendedOperations.OP_VALIDATE, ExtendedOperations.OP_STATS,
+          ExtendedOperations.OP_BATCH_RETRIEVE, ExtendedOperations.OP_BULK_CREATE);
+  /**
+   * Quantiles reported for each series.
+   */
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  /**
+   * Start of recording.
+   */
+  private static final long START_NANOS = System.nanoTime();
+  /**
+   * All series (key: name and labels).
+   */
+  private static final ConcurrentMap<String, LatencyStats> SERIES = new ConcurrentHashMap<>();
+
+  private MetricsRegistry() {
+    // Utility class
+  }
+
+  /**
+   * Record DOIP operation.
+   *
+   * @param operation Operation id (unsupported ids are recorded as
+   * OTHER_OPERATION).
+   * @param target TargetId of the responsible mapping (or service id).
+   * @param status DOIP status of the response.
+   * @param error Operation failed.
+   * @param nanos Duration in nanoseconds.
+   */
+  public static void recordOperation(String operation, String target, String status, boolean error, long nanos) {
+    String label = ((operation != null) && OPERATIONS.contains(operation)) ? operation : OTHER_OPERATION;
+    getSeries(OPERATION, error, "operation", label, "target", target, "status", status).record(nanos);
+  }
+
+  /**
+   * Record call to a backend.
+   *
+   * @param target TargetId of the mapping.
+   * @param verb HTTP verb.
+   * @param element Label of the call (element id).
+   * @param status HTTP status (or 'error' if no response was received).
+   * @param error Call failed.
+   * @param nanos Duration in nanoseconds.
+   */
+  public static void recordBackendCall(String target, String verb, String element, String status, boolean error, long nanos) {
+    getSeries(BACKEND_CALL, error, "target", target, "verb", verb, "element", element, "status", status).record(nanos);
+  }
+
+  private static LatencyStats getSeries(String name, boolean error, String... labels) {
+    StringBuilder key = new StringBuilder(name);
+    for (String label : labels) {
+      key.append('\u0000').append(label);
+    }
+    String seriesKey = key.toString();
+    LatencyStats stats = SERIES.get(seriesKey);
+    if (stats == null) {
+      Map<String, String> labelMap = new LinkedHashMap<>();
+      labelMap.put("__name__", name);
+      for (int index = 0; index < labels.length; index += 2) {
+        labelMap.put(labels[index], String.valueOf(labels[index + 1]));
+      }
+      stats = SERIES.computeIfAbsent(seriesKey, k -> new LatencyStats(labelMap, error));
+    }
+    return stats;
+  }
+
+  private static List<LatencyStats> getSortedSeries() {
+    List<LatencyStats> all = new ArrayList<>(SERIES.values());
+    all.sort(Comparator.comparing(stats -> stats.getLabels().toString()));
+    return all;
+  }
+
+  /**
+   * @return the time since start of recording in seconds.
+   */
+  private static double getUptimeSeconds() {
+    return (System.nanoTime() - START_NANOS) / 1e9;
+  }
+
+  /**
+   * Get all series as JSON (durations in milliseconds).
+   *
+   * @return Statistics.
+   */
+  public static JsonObject toJson() {
+    double uptime = getUptimeSeconds();
+    JsonObject json = new JsonObject();
+    json.addProperty("uptimeSeconds", uptime);
+    Map<String, JsonArray> seriesByName = new LinkedHashMap<>();
+    Map<String, long[]> totals = new LinkedHashMap<>();
+    for (LatencyStats stats : getSortedSeries()) {
+      String name = stats.getLabels().get("__name__");
+      Histogram histogram = stats.getHistogram();
+      JsonObject series = new JsonObject();
+      stats.getLabels().forEach((label, value) -> {
+        if (!"__name__".equals(label)) {
+          series.addProperty(label, value);
+        }
+      });
+      series.addProperty("count", stats.getCount());
+      series.addProperty("throughputPerSecond", stats.getCount() / uptime);
+      series.addProperty("meanMillis", histogram.getMean() / 1000.0);
+      for (double quantile : QUANTILES) {
+        series.addProperty("p" + formatQuantile(quantile * 100) + "Millis", histogram.getValueAtPercentile(quantile * 100) / 1000.0);
+      }
+      series.addProperty("maxMillis", histogram.getMaxValue() / 1000.0);
+      seriesByName.computeIfAbsent(name, k -> new JsonArray()).add(series);
+      long[] total = totals.computeIfAbsent(name, k -> new long[2]);
+      total[0] += stats.getCount();
+      if (stats.isError()) {
+        total[1] += stats.getCount();
+      }
+    }
+    for (Map.Entry<String, JsonArray> entry : seriesByName.entrySet()) {
+      long[] total = totals.get(entry.getKey());
+      JsonObject summary = new JsonObject();
+      summary.addProperty("count", total[0]);
+      summary.addProperty("errorCount", total[1]);
+      summary.addProperty("errorRate", (total[0] > 0) ? (double) total[1] / total[0] : 0.0);
+      summary.addProperty("throughputPerSecond", total[0] / uptime);
+      summary.add("series", entry.getValue());
+      json.add(entry.getKey(), summary);
+    }
+    return json;
+  }
+
+  /**
+   * Get all series in Prometheus text format (version 0.0.4).
+   *
+   * @return Metrics as text.
+   */
+  public static String toPrometheus() {
+    StringBuilder text = new StringBuilder();
+    String lastName = null;
+    for (LatencyStats stats : getSortedSeries()) {
+      String name = stats.getLabels().get("__name__");
+      if (!name.equals(lastName)) {
+        text.append("# TYPE ").append(name).append(" summary\n");
+        lastName = name;
+      }
+      Histogram histogram = stats.getHistogram();
+      String labels = formatLabels(stats.getLabels());
+      for (double quantile : QUANTILES) {
+        text.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                .append(histogram.getValueAtPercentile(quantile * 100) / 1e6).append('\n');
+      }
+      text.append(name).append("_sum{").append(labels).append("} ").append(stats.getSumMicros() / 1e6).append('\n');
+      text.append(name).append("_count{").append(labels).append("} ").append(stats.getCount()).append('\n');
+    }
+    return text.toString();
+  }
+
+  private static String formatLabels(Map<String, String> labels) {
+    StringBuilder text = new StringBuilder();
+    for (Map.Entry<String, String> label : labels.entrySet()) {
+      if (!"__name__".equals(label.getKey())) {
+        if (text.length() > 0) {
+          text.append(',');
+        }
+        text.append(label.getKey()).append("=\"").append(escape(label.getValue())).append('"');
+      }
+    }
+    return text.toString();
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String formatQuantile(double percentile) {
+    String text = Double.toString(percentile);
+    return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text.replace('.', '_');
+  }
+}
@@ -15,29 +15,72 @@
  */
 package edu.kit.metadatahub.doip.server;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import edu.kit.metadatahub.doip.ExtendedOperations;
+import edu.kit.metadatahub.doip.handle.HandleRecord;
+import edu.kit.metadatahub.doip.handle.IHandleManager;
+import edu.kit.metadatahub.doip.handle.IHandleService;
+import edu.kit.metadatahub.doip.handle.impl.CachingHandleManager;
+import edu.kit.metadatahub.doip.handle.impl.HandleLog;
+import edu.kit.metadatahub.doip.handle.impl.HandleMockup;
+import edu.kit.metadatahub.doip.handle.impl.HandleServiceStub;
+import edu.kit.metadatahub.doip.handle.impl.PooledHandleManager;
 import edu.kit.metadatahub.doip.mapping.Mapping2HttpService;
-import edu.kit.turntable.mapping.HttpMapping;
+import edu.kit.metadatahub.doip.mapping.bulk.BulkBatcher;
+import edu.kit.metadatahub.doip.mapping.cache.RetrieveCache;
+import edu.kit.metadatahub.doip.mapping.coalesce.RetrieveResult;
+import edu.kit.metadatahub.doip.mapping.coalesce.SingleFlight;
+import edu.kit.metadatahub.doip.mapping.plan.OperationPlan;
+import edu.kit.metadatahub.doip.mapping.registry.MappingRegistry;
+import edu.kit.metadatahub.doip.mapping.registry.MappingReloader;
+import edu.kit.metadatahub.doip.mapping.search.FederatedSearch;
+import edu.kit.metadatahub.doip.mapping.search.IndexQuery;
+import edu.kit.metadatahub.doip.mapping.search.SearchCursor;
+import edu.kit.metadatahub.doip.mapping.search.SearchIndex;
+import edu.kit.metadatahub.doip.metrics.MetricsRegistry;
+import edu.kit.metadatahub.doip.metrics.PrometheusEndpoint;
+import edu.kit.metadatahub.doip.server.util.BackendExecutors;
+import edu.kit.metadatahub.doip.server.util.DigitalObjectReader;
+import edu.kit.metadatahub.doip.server.util.DoipUtil;
+import edu.kit.metadatahub.doip.server.util.SegmentSpool;
+import edu.kit.rest.util.CircuitBreakerConfig;
+import edu.kit.rest.util.HttpTransport;
+import edu.kit.rest.util.HttpTransportRegistry;
+import edu.kit.rest.util.TransportConfig;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.PublicKey;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.stream.Stream;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import net.dona.doip.DoipConstants;
 import net.dona.doip.InDoipMessage;
 import net.dona.doip.InDoipSegment;
@@ -70,6 +113,51 @@ public class MetadataHubProcessor implements DoipProcessor {
    * Default suffix for mappings.
    */
   private static String MAPPINGS_SUFFIX_DEFAULT = "_mappings.json";
+  /**
+   * Default number of threads for fetching elements concurrently.
+   */
+  private static int BACKEND_THREADS_DEFAULT = 32;
+  /**
+   * Default number of threads retrieving items of batches.
+   */
+  private static int BATCH_THREADS_DEFAULT = 16;
+  /**
+   * Default for max. number of items of a batch.
+   */
+  private static int BATCH_MAX_ITEMS_DEFAULT = 1000;
+  /**
+   * Default for max. number of objects of a bulk create in flight.
+   */
+  private static int BULK_MAX_IN_FLIGHT_DEFAULT = 64;
+  /**
+   * Default page size of searches answered by the search index.
+   */
+  private static int SEARCH_PAGE_SIZE_DEFAULT = 20;
+  /**
+   * Default deadline for the backends of a federated search (in ms).
+   */
+  private static long FEDERATED_SEARCH_TIMEOUT_DEFAULT = 5000;
+  /**
+   * Default file of the handle store.
+   */
+  private static String HANDLE_STORE_FILE_DEFAULT = "handles.log";
+  /**
+   * Default prefix of handles created by the handle store.
+   */
+  private static String HANDLE_PREFIX_DEFAULT = "123456";
+  /**
+   * Default number of handles minted at once by the handle pool.
+   */
+  private static int HANDLE_BLOCK_SIZE_DEFAULT = 1000;
+  /**
+   * Default max. number of handles registered at once by the handle pool.
+   */
+  private static int HANDLE_BATCH_SIZE_DEFAULT = 100;
+  /**
+   * Default max. time a handle waits for registration with further handles
+   * (in ms).
+   */
+  private static long HANDLE_LINGER_MILLIS_DEFAULT = 50;
   private String serviceId;
   private String address;
   private int port;
@@ -79,9 +167,31 @@ public class MetadataHubProcessor implements DoipProcessor {
   private boolean authenticationEnabled = false;
   private PublicKey publicKey;
   private String repoBaseUri;
-  private Map<String, HttpMapping> allMappings;
+  /**
+   * Active mappings (replaced atomically if mapping files change).
+   */
+  private final AtomicReference<MappingRegistry> mappingRegistry = new AtomicReference<>(MappingRegistry.empty());
+  private MappingReloader mappingReloader;
+  private IHandleManager handleManager;
+  private HandleLog handleLog;
+  private PooledHandleManager handlePool;
+  private CachingHandleManager handleCache;
+  private ExecutorService backendExecutor;
+  private ExecutorService batchExecutor;
+  private int batchThreads;
+  private int batchMaxItems;
+  private int bulkMaxInFlight;
+  private RetrieveCache retrieveCache;
+  private SingleFlight<RetrieveResult> retrieveFlights;
+  private SearchIndex searchIndex;
+  private Path searchIndexFile;
+  private boolean rebuildSearchIndex;
+  private ExecutorService searchExecutor;
+  private FederatedSearch federatedSearch;
   private String mappingsDir;
   private String mappingsSuffix;
+  private boolean watchMappings;
+  private PrometheusEndpoint metricsEndpoint;
 
   @Override
   public void init(JsonObject config) {
@@ -103,28 +213,192 @@ public class MetadataHubProcessor implements DoipProcessor {
     // config may overwrite default suffix for mappings
     mappingsSuffix = config.has("mappingsSuffix") ? config.get("mappingsSuffix").getAsString() : MAPPINGS_SUFFIX_DEFAULT;
 
+    // config may disable reloading of changed mappings
+    watchMappings = config.has("watchMappings") ? config.get("watchMappings").getAsBoolean() : true;
+
+    // config may overwrite settings of the HTTP transports
+    if (config.has("transport")) {
+      HttpTransportRegistry.configure(parseTransportConfig(config.getAsJsonObject("transport")));
+    }
+
+    // config may overwrite number of threads used for concurrent backend calls
+    // or switch to virtual threads (limited by 'transport.maxConcurrentCalls' per backend)
+    int backendThreads = config.has("backendThreads") ? config.get("backendThreads").getAsInt() : BACKEND_THREADS_DEFAULT;
+    String executionMode = config.has("executionMode") ? config.get("executionMode").getAsString() : BackendExecutors.MODE_PLATFORM;
+    backendExecutor = BackendExecutors.create(executionMode, backendThreads);
+
+    // config may overwrite number of items of a batch retrieved concurrently
+    // (own pool as items fetch their elements via the backend executor)
+    batchThreads = config.has("batchThreads") ? config.get("batchThreads").getAsInt() : BATCH_THREADS_DEFAULT;
+    batchMaxItems = config.has("batchMaxItems") ? config.get("batchMaxItems").getAsInt() : BATCH_MAX_ITEMS_DEFAULT;
+    AtomicInteger batchThreadNumber = new AtomicInteger();
+    batchExecutor = Executors.newFixedThreadPool(batchThreads, runnable -> {
+      Thread thread = new Thread(runnable, "batch-" + batchThreadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    // config may overwrite number of objects of a bulk create processed
+    // concurrently (read-ahead of the input stream)
+    bulkMaxInFlight = config.has("bulkMaxInFlight") ? config.get("bulkMaxInFlight").getAsInt() : BULK_MAX_IN_FLIGHT_DEFAULT;
+
+    // config may overwrite deadline of the backends of a federated search
+    // (own pool so searches don't queue behind batches)
+    long federatedSearchTimeout = config.has("federatedSearchTimeout") ? config.get("federatedSearchTimeout").getAsLong() : FEDERATED_SEARCH_TIMEOUT_DEFAULT;
+    AtomicInteger searchThreadNumber = new AtomicInteger();
+    searchExecutor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "search-" + searchThreadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    federatedSearch = new FederatedSearch(searchExecutor, federatedSearchTimeout);
+
+    // config may overwrite max. size of segments buffered in memory
+    if (config.has("spoolThreshold")) {
+      DoipUtil.setSpoolThreshold(config.get("spoolThreshold").getAsLong());
+    }
+
+    // config may enable cache for retrieved elements
+    if (config.has("retrieveCache")) {
+      JsonObject cacheConfig = config.getAsJsonObject("retrieveCache");
+      boolean enabled = cacheConfig.has("enabled") ? cacheConfig.get("enabled").getAsBoolean() : true;
+      if (enabled) {
+        long maxBytes = cacheConfig.has("maxBytes") ? cacheConfig.get("maxBytes").getAsLong() : RetrieveCache.DEFAULT_MAX_BYTES;
+        int maxEntryBytes = cacheConfig.has("maxEntryBytes") ? cacheConfig.get("maxEntryBytes").getAsInt() : RetrieveCache.DEFAULT_MAX_ENTRY_BYTES;
+        retrieveCache = new RetrieveCache(maxBytes, maxEntryBytes);
+      }
+    }
+
+    // config may disable sharing of identical concurrent retrieves
+    boolean coalesceRetrieves = config.has("coalesceRetrieves") ? config.get("coalesceRetrieves").getAsBoolean() : true;
+    retrieveFlights = coalesceRetrieves ? new SingleFlight<>() : null;
+
+    // config may enable local index answering field queries of searches
+    if (config.has("searchIndex")) {
+      JsonObject indexConfig = config.getAsJsonObject("searchIndex");
+      boolean enabled = indexConfig.has("enabled") ? indexConfig.get("enabled").getAsBoolean() : true;
+      if (enabled) {
+        long maxBytes = indexConfig.has("maxBytes") ? indexConfig.get("maxBytes").getAsLong() : SearchIndex.DEFAULT_MAX_BYTES;
+        searchIndex = new SearchIndex(maxBytes);
+        searchIndexFile = indexConfig.has("file") ? Paths.get(indexConfig.get("file").getAsString()).toAbsolutePath() : null;
+        rebuildSearchIndex = indexConfig.has("rebuildOnStart") ? indexConfig.get("rebuildOnStart").getAsBoolean() : false;
+        if ((searchIndexFile != null) && Files.exists(searchIndexFile)) {
+          try {
+            searchIndex.load(searchIndexFile);
+          } catch (IOException ex) {
+            LOGGER.warn("Can't load search index from '{}'!", searchIndexFile, ex);
+          }
+        }
+      }
+    }
+
+    // config may enable endpoint for Prometheus (bound to local interface by default)
+    if (config.has("metricsPort")) {
+      String metricsHost = config.has("metricsHost") ? config.get("metricsHost").getAsString() : "localhost";
+      try {
+        metricsEndpoint = new PrometheusEndpoint(metricsHost, config.get("metricsPort").getAsInt());
+      } catch (IOException ex) {
+        LOGGER.error("Can't start metrics endpoint on port {}!", config.get("metricsPort").getAsInt(), ex);
+      }
+    }
+
+    // config may define persistent handle store (otherwise handles are kept
+    // in memory only)
+    handleManager = new HandleMockup();
+    if (config.has("handleStore")) {
+      JsonObject handleConfig = config.getAsJsonObject("handleStore");
+      boolean enabled = handleConfig.has("enabled") ? handleConfig.get("enabled").getAsBoolean() : true;
+      if (enabled) {
+        Path handleFile = Paths.get(handleConfig.has("file") ? handleConfig.get("file").getAsString() : HANDLE_STORE_FILE_DEFAULT).toAbsolutePath();
+        String prefix = handleConfig.has("prefix") ? handleConfig.get("prefix").getAsString() : HANDLE_PREFIX_DEFAULT;
+        boolean syncWrites = handleConfig.has("syncWrites") ? handleConfig.get("syncWrites").getAsBoolean() : true;
+        long ttl = handleConfig.has("ttl") ? handleConfig.get("ttl").getAsLong() : HandleRecord.TTL_UNKNOWN;
+        try {
+          handleLog = new HandleLog(handleFile, prefix, syncWrites, HandleLog.DEFAULT_REGION_SIZE, ttl);
+          handleManager = handleLog;
+        } catch (IOException ex) {
+          throw new IllegalStateException("Can't open handle store '" + handleFile + "'!", ex);
+        }
+      }
+    }
+    // config may take handles from a pre-minted pool and register them in
+    // batches (handle store or local stub as handle service)
+    if (config.has("handlePool")) {
+      JsonObject poolConfig = config.getAsJsonObject("handlePool");
+      boolean enabled = poolConfig.has("enabled") ? poolConfig.get("enabled").getAsBoolean() : true;
+      if (enabled) {
+        int blockSize = poolConfig.has("blockSize") ? poolConfig.get("blockSize").getAsInt() : HANDLE_BLOCK_SIZE_DEFAULT;
+        int batchSize = poolConfig.has("batchSize") ? poolConfig.get("batchSize").getAsInt() : HANDLE_BATCH_SIZE_DEFAULT;
+        long lingerMillis = poolConfig.has("lingerMillis") ? poolConfig.get("lingerMillis").getAsLong() : HANDLE_LINGER_MILLIS_DEFAULT;
+        IHandleService handleService = handleLog;
+        if ((handleService == null) || poolConfig.has("stub")) {
+          JsonObject stubConfig = poolConfig.has("stub") ? poolConfig.getAsJsonObject("stub") : new JsonObject();
+          String prefix = stubConfig.has("prefix") ? stubConfig.get("prefix").getAsString() : HANDLE_PREFIX_DEFAULT;
+          long latencyMillis = stubConfig.has("latencyMillis") ? stubConfig.get("latencyMillis").getAsLong() : 0;
+          long ttl = stubConfig.has("ttl") ? stubConfig.get("ttl").getAsLong() : HandleRecord.TTL_UNKNOWN;
+          handleService = new HandleServiceStub(prefix, latencyMillis, ttl);
+        }
+        handlePool = new PooledHandleManager(handleService, blockSize, batchSize, lingerMillis);
+        handleManager = handlePool;
+      }
+    }
+    // config may cache resolved handles (used for routing unknown targetIds)
+    if (config.has("handleCache")) {
+      JsonObject cacheConfig = config.getAsJsonObject("handleCache");
+      boolean enabled = cacheConfig.has("enabled") ? cacheConfig.get("enabled").getAsBoolean() : true;
+      if (enabled) {
+        long maxEntries = cacheConfig.has("maxEntries") ? cacheConfig.get("maxEntries").getAsLong() : CachingHandleManager.DEFAULT_MAX_ENTRIES;
+        long defaultTtl = cacheConfig.has("defaultTtl") ? cacheConfig.get("defaultTtl").getAsLong() : CachingHandleManager.DEFAULT_TTL;
+        long negativeTtl = cacheConfig.has("negativeTtl") ? cacheConfig.get("negativeTtl").getAsLong() : CachingHandleManager.DEFAULT_NEGATIVE_TTL;
+        handleCache = new CachingHandleManager(handleManager, maxEntries, defaultTtl, negativeTtl);
+        handleManager = handleCache;
+      }
+    }
     parseAllMappings();
+    if (rebuildSearchIndex) {
+      Thread rebuild = new Thread(this::rebuildSearchIndex, "index-rebuild");
+      rebuild.setDaemon(true);
+      rebuild.start();
+    }
   }
 
   @Override
   public void process(DoipServerRequest req, DoipServerResponse resp) throws IOException {
     LOGGER.debug("Processing DOIP request.");
-
+    long start = System.nanoTime();
+    String status = DoipConstants.STATUS_ERROR;
     try {
       if (serviceId.equals(req.getTargetId())) {
         processServiceRequest(req, resp);
       } else {
         processObjectRequest(req, resp);
       }
+      status = DoipConstants.STATUS_OK;
     } catch (DoipException ex) {
       LOGGER.error("A DoipException occured. Forwarding status and message to client.", ex);
+      status = ex.getStatusCode();
       resp.setStatus(ex.getStatusCode());
       resp.setAttribute(DoipConstants.MESSAGE_ATT, ex.getMessage());
 //    } catch(IOException e){
 //      LOGGER.error("Unexpected exception occured. Returning DOIP Status ERROR to client.", e);
 //      resp.setStatus(DoipConstants.STATUS_ERROR);
 //      resp.setAttribute(DoipConstants.MESSAGE_ATT, "An unexpected server error occurred");
+    } finally {
+      MetricsRegistry.recordOperation(String.valueOf(req.getOperationId()), getMetricsTarget(req.getTargetId()), String.valueOf(status),
+              !DoipConstants.STATUS_OK.equals(status), System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Get label of the target for metrics. Object requests are labelled with the
+   * targetId of the responsible mapping to keep the number of series small.
+   */
+  private String getMetricsTarget(String targetId) {
+    if (serviceId.equals(targetId)) {
+      return serviceId;
     }
+    Mapping2HttpService mappingService = mappingRegistry.get().lookup(targetId);
+    return (mappingService != null) ? mappingService.getMappingPlan().getTargetId() : "unknown";
   }
 
   /**
@@ -152,10 +426,17 @@ public class MetadataHubProcessor implements DoipProcessor {
         case ExtendedOperations.OP_VALIDATE:
           validate(req, resp);
           break;
-        default:
-          resp.setStatus(DoipConstants.STATUS_DECLINED);
-          resp.setAttribute(DoipConstants.MESSAGE_ATT, "Operation not supported");
+        case ExtendedOperations.OP_STATS:
+          stats(req, resp);
           break;
+        case ExtendedOperations.OP_BATCH_RETRIEVE:
+          batchRetrieve(req, resp);
+          break;
+        case ExtendedOperations.OP_BULK_CREATE:
+          bulkCreate(req, resp);
+          break;
+        default:
+          throw new DoipException(DoipConstants.STATUS_DECLINED, "Operation " + operationId + " is not supported by the service.");
       }
     }
   }
@@ -242,6 +523,9 @@ public class MetadataHubProcessor implements DoipProcessor {
     res.add(DoipConstants.OP_CREATE);
     res.add(DoipConstants.OP_SEARCH);
     res.add(ExtendedOperations.OP_VALIDATE);
+    res.add(ExtendedOperations.OP_STATS);
+    res.add(ExtendedOperations.OP_BATCH_RETRIEVE);
+    res.add(ExtendedOperations.OP_BULK_CREATE);
     LOGGER.debug("Writing list of operations to output.");
     resp.writeCompactOutput(res);
     LOGGER.debug("Returning from listOperationsForService().");
@@ -254,9 +538,7 @@ public class MetadataHubProcessor implements DoipProcessor {
     LOGGER.debug("Calling create()...");
     // Get Datacite metadata
     printRequest(req);
-    // ToDo make mapping and request
-    Mapping2HttpService mappingClient = new Mapping2HttpService();
-    mappingClient.initMapping(allMappings.get(req.getTargetId()));
+    Mapping2HttpService mappingClient = getMappingService(req.getTargetId());
     mappingClient.create(req, resp);
     printResponse(resp);
     LOGGER.debug("Returning from create().");
@@ -264,9 +546,10 @@ public class MetadataHubProcessor implements DoipProcessor {
 
   /**
    * Search for resources using a provided search query and pagination
-   * information. The search query should be a serialized data resource in JSON
-   * format. If deserialization fails, the service will query for all data
-   * resources and returns the selected page.
+   * information. The query is forwarded to the list/query endpoint of the
+   * backend ('*' lists all resources). Instead of query and pageNum the cursor
+   * of a previous search may be given to fetch the next page. With attribute
+   * 'federated' all repositories with a mapped search are queried.
    */
   private void search(DoipServerRequest req, DoipServerResponse resp) throws DoipException, IOException {
     LOGGER.debug("Calling search().");
@@ -275,15 +558,117 @@ public class MetadataHubProcessor implements DoipProcessor {
     }
     printRequest(req);
 
-    JsonObject attributes = req.getAttributes();
     String query = req.getAttributeAsString("query");
-    if (query == null) {
+    if ((query == null) && (req.getAttribute("cursor") == null)) {
       LOGGER.error("No query found in request.");
       throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Missing query");
     }
 
     LOGGER.debug("Searching resource using query {}.", query);
-    // ToDo make mapping and request
+    SearchCursor cursor = SearchCursor.fromRequest(req, SEARCH_PAGE_SIZE_DEFAULT);
+    if (cursor.isFederated()) {
+      federatedSearch.search(mappingRegistry.get().getFiles().values(), req, resp, SEARCH_PAGE_SIZE_DEFAULT);
+      LOGGER.debug("Returning from search().");
+      return;
+    }
+    Route route = getRoute(req.getTargetId());
+    String mapping = route.service.getMappingPlan().getTargetId();
+    if ((searchIndex != null) && searchIndex.isComplete(mapping)) {
+      IndexQuery indexQuery = IndexQuery.parse(cursor.getQuery());
+      if (indexQuery != null) {
+        searchLocal(req, resp, mapping, indexQuery, cursor);
+        return;
+      }
+    }
+    route.service.search(route.rewrite(req), resp);
+    LOGGER.debug("Returning from search().");
+  }
+
+  /**
+   * Answer search from the search index (same output as a search of the
+   * backend). Only objects of the given mapping are returned; the index of
+   * the mapping has to be complete.
+   */
+  private void searchLocal(DoipServerRequest req, DoipServerResponse resp, String mapping, IndexQuery indexQuery, SearchCursor cursor) throws IOException {
+    LOGGER.debug("Searching index of '{}'.", mapping);
+    boolean idsOnly = "id".equals(req.getAttributeAsString("type"));
+    SearchIndex.Hits hits = searchIndex.search(mapping, indexQuery, cursor.getOffset(), cursor.getPageSize());
+    resp.setStatus(DoipConstants.STATUS_OK);
+    try (JsonWriter writer = new JsonWriter(resp.getOutput().getJsonWriter())) {
+      writer.beginObject();
+      writer.name("size").value(hits.getSize());
+      writer.name("results").beginArray();
+      for (int index = 0; index < hits.getIds().size(); index++) {
+        if (idsOnly) {
+          writer.value(hits.getIds().get(index));
+        } else {
+          writer.jsonValue(hits.getDocuments().get(index));
+        }
+      }
+      writer.endArray();
+      long next = cursor.getOffset() + hits.getIds().size();
+      if ((cursor.getPageSize() > 0) && (next < hits.getSize())) {
+        writer.name(SearchCursor.ATTRIBUTE_CURSOR).value(cursor.next(next).encode());
+      }
+      writer.endObject();
+    }
+    LOGGER.debug("Returning from searchLocal(): {} of {} result(s).", hits.getIds().size(), hits.getSize());
+  }
+
+  /**
+   * Rebuild search index from all backends with a mapped search.
+   */
+  private void rebuildSearchIndex() {
+    for (Mapping2HttpService mappingService : mappingRegistry.get().getFiles().values()) {
+      try {
+        mappingService.rebuildIndex();
+      } catch (DoipException | IOException | RuntimeException ex) {
+        LOGGER.warn("Can't rebuild search index for '{}'!", mappingService.getMappingPlan().getTargetId(), ex);
+      }
+    }
+  }
+
+  /**
+   * Get statistics of the service, e.g. counters of the retrieve cache.
+   */
+  private void stats(DoipServerRequest req, DoipServerResponse resp) throws DoipException, IOException {
+    LOGGER.debug("Calling stats().");
+    if (!InDoipMessageUtil.isEmpty(req.getInput())) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "No input allowed for statistics.");
+    }
+
+    testAuthentication(req, resp);
+
+    JsonObject res = MetricsRegistry.toJson();
+    if (retrieveCache != null) {
+      res.add("retrieveCache", retrieveCache.getStatistics());
+    }
+    if (searchIndex != null) {
+      res.add("searchIndex", searchIndex.getStatistics());
+    }
+    if (handlePool != null) {
+      res.add("handlePool", handlePool.getStatistics());
+    }
+    if (handleCache != null) {
+      res.add("handleCache", handleCache.getStatistics());
+    }
+    if (retrieveFlights != null) {
+      JsonObject flights = new JsonObject();
+      flights.addProperty("collapsedCount", retrieveFlights.getCollapsedCount());
+      flights.addProperty("inFlightCount", retrieveFlights.getInFlightCount());
+      res.add("coalescedRetrieves", flights);
+    }
+    JsonObject backends = new JsonObject();
+    for (HttpTransport transport : HttpTransportRegistry.getTransports()) {
+      JsonObject backend = new JsonObject();
+      backend.addProperty("circuitState", transport.getCircuitState().name());
+      backend.addProperty("activeCalls", transport.getActiveCalls());
+      backend.addProperty("maxConcurrentCalls", transport.getConfig().getMaxConcurrentCalls());
+      backend.addProperty("rejectedCalls", transport.getRejectedCalls());
+      backends.add(transport.getKey(), backend);
+    }
+    res.add("backends", backends);
+    resp.writeCompactOutput(res);
   }
 
   /**
@@ -317,14 +702,397 @@ public class MetadataHubProcessor implements DoipProcessor {
     if (!InDoipMessageUtil.isEmpty(req.getInput())) {
       throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "No input found in request.");
     }
-    // ToDo make mapping and request
-    Mapping2HttpService mappingClient = new Mapping2HttpService();
-    mappingClient.initMapping(allMappings.getOrDefault(req.getTargetId(), allMappings.get("default")));
-    mappingClient.retrieve(req, resp);
+    Route route = getRoute(req.getTargetId());
+    route.service.retrieve(route.rewrite(req), resp);
     printResponse(resp);
     LOGGER.debug("Returning from retrieve().");
   }
 
+  /**
+   * Retrieve many resources in one request. The first input segment holds
+   * the items:
+   * <pre>
+   * {"items": ["targetId", {"targetId": "...", "element": "...", "includeElementData": true}]}
+   * </pre> Attributes 'element' and 'includeElementData' of the request are
+   * used for items without own selection. Items are retrieved concurrently
+   * and written in the order they complete: a JSON segment per item holding
+   * 'index', 'targetId', 'status', 'message' (on failure), 'output' (the
+   * digital object) and 'elements' (number of element segments following,
+   * each a JSON segment with the id and a bytes segment). A failed item
+   * doesn't fail the batch.
+   */
+  private void batchRetrieve(DoipServerRequest req, DoipServerResponse resp) throws DoipException, IOException {
+    LOGGER.debug("Calling batchRetrieve().");
+    printRequest(req);
+    testAuthentication(req, resp);
+    List<BatchItem> items = parseBatchItems(req);
+    resp.setStatus(DoipConstants.STATUS_OK);
+    resp.setAttribute(DoipConstants.MESSAGE_ATT, "Retrieving " + items.size() + " item(s).");
+    CompletionService<BatchItem> completion = new ExecutorCompletionService<>(batchExecutor);
+    // retrieved items not written yet have to be closed if the batch fails
+    Queue<BatchItem> retrieved = new ConcurrentLinkedQueue<>();
+    AtomicBoolean aborted = new AtomicBoolean(false);
+    int submitted = 0;
+    int written = 0;
+    try {
+      while (written < items.size()) {
+        // bounded number of items in flight per batch
+        while ((submitted < items.size()) && (submitted - written < batchThreads)) {
+          BatchItem item = items.get(submitted++);
+          completion.submit(() -> {
+            retrieveBatchItem(item, req.getAuthentication());
+            retrieved.add(item);
+            if (aborted.get()) {
+              Mapping2HttpService.closeElements(item.digitalObject);
+            }
+            return item;
+          });
+        }
+        BatchItem item = completion.take().get();
+        writeBatchItem(resp, item);
+        written++;
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new DoipException(DoipConstants.STATUS_ERROR, "Interrupted while retrieving batch!");
+    } catch (ExecutionException ex) {
+      throw new DoipException(DoipConstants.STATUS_ERROR, "Error retrieving batch: " + ex.getCause());
+    } finally {
+      if (written < items.size()) {
+        aborted.set(true);
+        for (BatchItem item : retrieved) {
+          Mapping2HttpService.closeElements(item.digitalObject);
+        }
+      }
+    }
+    resp.getOutput().close();
+    resp.commit();
+    LOGGER.debug("Returning from batchRetrieve().");
+  }
+
+  /**
+   * Parse items of a batch from the first input segment.
+   */
+  private List<BatchItem> parseBatchItems(DoipServerRequest req) throws DoipException, IOException {
+    InDoipSegment firstSegment = InDoipMessageUtil.getFirstSegment(req.getInput());
+    if ((firstSegment == null) || !firstSegment.isJson()) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Missing list of items in request.");
+    }
+    JsonElement input = firstSegment.getJson();
+    if (!input.isJsonObject() || !input.getAsJsonObject().has("items") || !input.getAsJsonObject().get("items").isJsonArray()) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Input has to contain an array 'items'.");
+    }
+    JsonArray array = input.getAsJsonObject().getAsJsonArray("items");
+    if (array.size() > batchMaxItems) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Too many items (" + array.size() + " > " + batchMaxItems + ")!");
+    }
+    String defaultElement = req.getAttributeAsString("element");
+    boolean defaultIncludeElementData = DoipUtil.getBooleanAttributeFromRequest(req, "includeElementData");
+    List<BatchItem> items = new ArrayList<>(array.size());
+    for (JsonElement entry : array) {
+      BatchItem item = new BatchItem(items.size());
+      item.element = defaultElement;
+      item.includeElementData = defaultIncludeElementData;
+      if (entry.isJsonPrimitive()) {
+        item.targetId = entry.getAsString();
+      } else if (entry.isJsonObject()) {
+        JsonObject object = entry.getAsJsonObject();
+        item.targetId = object.has("targetId") ? object.get("targetId").getAsString() : null;
+        if (object.has("element")) {
+          item.element = object.get("element").getAsString();
+        }
+        if (object.has("includeElementData")) {
+          item.includeElementData = object.get("includeElementData").getAsBoolean();
+        }
+      }
+      if (item.targetId == null) {
+        throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Item " + item.index + " has no targetId!");
+      }
+      items.add(item);
+    }
+    return items;
+  }
+
+  /**
+   * Retrieve a single item of a batch. Errors are stored in the item.
+   */
+  private void retrieveBatchItem(BatchItem item, JsonElement authentication) {
+    try {
+      Route route = getRoute(item.targetId);
+      item.service = route.service;
+      item.digitalObject = item.service.retrieveItem(DoipUtil.forItem(route.targetId, authentication), item.element, item.includeElementData);
+      item.status = DoipConstants.STATUS_OK;
+    } catch (DoipException ex) {
+      LOGGER.debug("Item '{}' of batch failed: {}", item.targetId, ex.getMessage());
+      item.status = ex.getStatusCode();
+      item.message = ex.getMessage();
+    } catch (IOException | RuntimeException ex) {
+      LOGGER.warn("Item '{}' of batch failed!", item.targetId, ex);
+      item.status = DoipConstants.STATUS_ERROR;
+      item.message = String.valueOf(ex.getMessage());
+    }
+  }
+
+  /**
+   * Write result of an item followed by its elements.
+   */
+  private void writeBatchItem(DoipServerResponse resp, BatchItem item) throws IOException {
+    try {
+      JsonObject result = new JsonObject();
+      result.addProperty("index", item.index);
+      result.addProperty("targetId", item.targetId);
+      result.addProperty("status", item.status);
+      if (item.message != null) {
+        result.addProperty("message", item.message);
+      }
+      DigitalObject digitalObject = item.digitalObject;
+      boolean withElements = (item.element != null) || item.includeElementData;
+      int noOfElements = 0;
+      if (digitalObject != null) {
+        result.add("output", GsonUtility.getGson().toJsonTree(digitalObject));
+        if (withElements && (digitalObject.elements != null)) {
+          noOfElements = (int) digitalObject.elements.stream().filter(element -> element.in != null).count();
+        }
+      }
+      result.addProperty("elements", noOfElements);
+      resp.getOutput().writeJson(result);
+      if ((digitalObject != null) && withElements) {
+        item.service.writeElements(resp, digitalObject);
+      }
+    } finally {
+      Mapping2HttpService.closeElements(item.digitalObject);
+    }
+  }
+
+  /**
+   * Single item of a batch retrieve.
+   */
+  private static final class BatchItem {
+
+    private final int index;
+    private String targetId;
+    private String element;
+    private boolean includeElementData;
+    private Mapping2HttpService service;
+    private DigitalObject digitalObject;
+    private String status;
+    private String message;
+
+    BatchItem(int index) {
+      this.index = index;
+    }
+  }
+
+  /**
+   * Create a stream of digital objects. Each object consists of a JSON segment
+   * holding the digital object followed by a JSON segment (id) and a bytes
+   * segment for each of its elements. Objects are created while the input is
+   * still read. If the mapping defines a bulk endpoint, objects without
+   * elements are grouped into batches, all other objects are created one by
+   * one. A JSON segment holding the result is written for each object as soon
+   * as it is finished (not necessarily in order of the input).
+   */
+  private void bulkCreate(DoipServerRequest req, DoipServerResponse resp) throws DoipException, IOException {
+    LOGGER.debug("Calling bulkCreate().");
+    printRequest(req);
+    testAuthentication(req, resp);
+    Mapping2HttpService mappingClient = getMappingService(req.getTargetId());
+    resp.setStatus(DoipConstants.STATUS_OK);
+    BlockingQueue<BulkItem> finished = new LinkedBlockingQueue<>();
+    // permits are returned when the result is written, so at most
+    // 'bulkMaxInFlight' objects are buffered
+    Semaphore inFlight = new Semaphore(bulkMaxInFlight);
+    BulkBatcher<BulkItem> batcher = null;
+    if (mappingClient.supportsBulkCreate()) {
+      OperationPlan createPlan = mappingClient.getMappingPlan().getCreate();
+      batcher = new BulkBatcher<>(createPlan.getMaxBatchSize(), createPlan.getLingerMillis(),
+              batch -> batchExecutor.execute(() -> createBulkItems(mappingClient, batch, finished)));
+    }
+    int submitted = 0;
+    int written = 0;
+    try {
+      Iterator<InDoipSegment> segments = req.getInput().iterator();
+      while (segments.hasNext()) {
+        while (!inFlight.tryAcquire()) {
+          writeBulkItem(resp, finished.take(), inFlight);
+          written++;
+        }
+        BulkItem item;
+        try {
+          item = readBulkItem(submitted, segments, req);
+        } catch (DoipException | IOException | RuntimeException ex) {
+          inFlight.release();
+          throw ex;
+        }
+        submitted++;
+        if (item.status != null) {
+          // invalid object is reported on its own
+          finished.add(item);
+        } else if ((batcher != null) && item.digitalObject.elements.isEmpty()) {
+          batcher.add(item);
+        } else {
+          batchExecutor.execute(() -> createBulkItem(mappingClient, item, finished));
+        }
+        for (BulkItem done = finished.poll(); done != null; done = finished.poll()) {
+          writeBulkItem(resp, done, inFlight);
+          written++;
+        }
+      }
+      if (batcher != null) {
+        batcher.flush();
+      }
+      while (written < submitted) {
+        writeBulkItem(resp, finished.take(), inFlight);
+        written++;
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new DoipException(DoipConstants.STATUS_ERROR, "Interrupted while creating objects!");
+    } finally {
+      // objects already read are created anyway
+      if (batcher != null) {
+        batcher.close();
+      }
+    }
+    resp.getOutput().close();
+    resp.commit();
+    LOGGER.debug("Returning from bulkCreate(): {} object(s).", written);
+  }
+
+  /**
+   * Read next digital object and the segments of its elements from the input.
+   * Segments of elements are buffered (see DoipUtil.getStreams()). Objects
+   * without datacite metadata are returned with status BAD_REQUEST and are
+   * not created.
+   */
+  private BulkItem readBulkItem(int index, Iterator<InDoipSegment> segments, DoipServerRequest req) throws DoipException, IOException {
+    InDoipSegment segment = segments.next();
+    if (!segment.isJson()) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Object " + index + " should be a JSON segment!");
+    }
+    DigitalObjectReader decoded = DigitalObjectReader.read(segment.getJsonReader());
+    DigitalObject digitalObject = decoded.getDigitalObject();
+    if (digitalObject.elements == null) {
+      digitalObject.elements = new ArrayList<>();
+    }
+    Map<String, SegmentSpool> streams = new LinkedHashMap<>();
+    try {
+      for (int noOfElement = 0; noOfElement < digitalObject.elements.size(); noOfElement++) {
+        InDoipSegment idSegment = segments.hasNext() ? segments.next() : null;
+        if ((idSegment == null) || !idSegment.isJson() || !segments.hasNext()) {
+          throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Missing segments for element " + noOfElement + " of object " + index + "!");
+        }
+        String id = idSegment.getJson().getAsJsonObject().get("id").getAsString();
+        try (InputStream in = segments.next().getInputStream()) {
+          SegmentSpool oldSpool = streams.put(id, SegmentSpool.spool(in, DoipUtil.getSpoolThreshold()));
+          if (oldSpool != null) {
+            oldSpool.close();
+          }
+        }
+      }
+    } catch (DoipException | IOException | RuntimeException ex) {
+      streams.values().forEach(SegmentSpool::close);
+      throw ex;
+    }
+    BulkItem item = new BulkItem(index, DoipUtil.forItem(req.getTargetId(), req.getAuthentication(), decoded, streams), digitalObject);
+    if (decoded.getDatacite() == null) {
+      item.doipUtil.close();
+      item.status = DoipConstants.STATUS_BAD_REQUEST;
+      item.message = "Missing datacite metadata!";
+    }
+    return item;
+  }
+
+  /**
+   * Create a single object of a bulk create. Errors are stored in the item.
+   */
+  private void createBulkItem(Mapping2HttpService mappingClient, BulkItem item, Queue<BulkItem> finished) {
+    try {
+      item.created = mappingClient.createItem(item.doipUtil);
+      item.status = DoipConstants.STATUS_OK;
+    } catch (DoipException ex) {
+      LOGGER.debug("Object {} of bulk create failed: {}", item.index, ex.getMessage());
+      item.status = ex.getStatusCode();
+      item.message = ex.getMessage();
+    } catch (IOException | RuntimeException ex) {
+      LOGGER.warn("Object {} of bulk create failed!", item.index, ex);
+      item.status = DoipConstants.STATUS_ERROR;
+      item.message = String.valueOf(ex.getMessage());
+    }
+    finished.add(item);
+  }
+
+  /**
+   * Create a batch of objects via the bulk endpoint. If the batch fails, all
+   * objects of the batch get the error.
+   */
+  private void createBulkItems(Mapping2HttpService mappingClient, List<BulkItem> batch, Queue<BulkItem> finished) {
+    List<DoipUtil> utils = new ArrayList<>(batch.size());
+    for (BulkItem item : batch) {
+      utils.add(item.doipUtil);
+    }
+    String status = DoipConstants.STATUS_OK;
+    String message = null;
+    List<DigitalObject> created = null;
+    try {
+      created = mappingClient.createBulk(utils);
+    } catch (DoipException ex) {
+      LOGGER.debug("Batch of {} object(s) failed: {}", batch.size(), ex.getMessage());
+      status = ex.getStatusCode();
+      message = ex.getMessage();
+    } catch (IOException | RuntimeException ex) {
+      LOGGER.warn("Batch of {} object(s) failed!", batch.size(), ex);
+      status = DoipConstants.STATUS_ERROR;
+      message = String.valueOf(ex.getMessage());
+    }
+    for (int index = 0; index < batch.size(); index++) {
+      BulkItem item = batch.get(index);
+      item.status = status;
+      item.message = message;
+      item.created = (created != null) ? created.get(index) : null;
+      finished.add(item);
+    }
+  }
+
+  /**
+   * Write result of an object of a bulk create.
+   */
+  private void writeBulkItem(DoipServerResponse resp, BulkItem item, Semaphore inFlight) throws IOException {
+    try {
+      JsonObject result = new JsonObject();
+      result.addProperty("index", item.index);
+      result.addProperty("status", item.status);
+      if (item.message != null) {
+        result.addProperty("message", item.message);
+      }
+      if (item.created != null) {
+        result.add("output", GsonUtility.getGson().toJsonTree(item.created));
+      }
+      resp.getOutput().writeJson(result);
+    } finally {
+      inFlight.release();
+    }
+  }
+
+  /**
+   * Single object of a bulk create.
+   */
+  private static final class BulkItem {
+
+    private final int index;
+    private final DoipUtil doipUtil;
+    private final DigitalObject digitalObject;
+    private DigitalObject created;
+    private String status;
+    private String message;
+
+    BulkItem(int index, DoipUtil doipUtil, DigitalObject digitalObject) {
+      this.index = index;
+      this.doipUtil = doipUtil;
+      this.digitalObject = digitalObject;
+    }
+  }
+
   /**
    * Update a single resource and/or element(s). The requests identifies the
    * resource by the 'targetId'. The input message contains the serialized
@@ -341,11 +1109,8 @@ public class MetadataHubProcessor implements DoipProcessor {
     //check authentication if required
     String targetId = req.getTargetId();
     LOGGER.debug("Updating targetId {}. Obtaining DataResource from input message.", targetId);
-    // ToDo make mapping and request
-    // ToDo make mapping and request
-    Mapping2HttpService mappingClient = new Mapping2HttpService();
-    mappingClient.initMapping(allMappings.getOrDefault(req.getTargetId(), allMappings.get("default")));
-    mappingClient.update(req, resp);
+    Route route = getRoute(req.getTargetId());
+    route.service.update(route.rewrite(req), resp);
     printResponse(resp);
     LOGGER.debug("Returning from update().");
   }
@@ -420,9 +1185,81 @@ public class MetadataHubProcessor implements DoipProcessor {
 
   @Override
   public void shutdown() {
+    if (metricsEndpoint != null) {
+      metricsEndpoint.close();
+    }
+    if (mappingReloader != null) {
+      try {
+        mappingReloader.close();
+      } catch (IOException ex) {
+        LOGGER.warn("Error while stopping mapping reloader!", ex);
+      }
+    }
+    backendExecutor.shutdownNow();
+    batchExecutor.shutdownNow();
+    searchExecutor.shutdownNow();
+    if (handleCache != null) {
+      handleCache.close();
+    }
+    // pending registrations of the pool may still go to the handle store
+    if (handlePool != null) {
+      handlePool.close();
+    }
+    if (handleLog != null) {
+      try {
+        handleLog.close();
+      } catch (IOException ex) {
+        LOGGER.warn("Error while closing handle store!", ex);
+      }
+    }
+    if (searchIndexFile != null) {
+      try {
+        searchIndex.save(searchIndexFile);
+      } catch (IOException ex) {
+        LOGGER.warn("Can't save search index to '{}'!", searchIndexFile, ex);
+      }
+    }
+    HttpTransportRegistry.shutdown();
     DoipProcessor.super.shutdown();
   }
 
+  /**
+   * Parse settings for the pooled HTTP transports. Missing values will be
+   * replaced by their defaults.
+   */
+  private TransportConfig parseTransportConfig(JsonObject transport) {
+    TransportConfig transportConfig = new TransportConfig();
+    transportConfig.setMaxPerRoute(transport.has("maxPerRoute") ? transport.get("maxPerRoute").getAsInt() : TransportConfig.DEFAULT_MAX_PER_ROUTE);
+    transportConfig.setMaxTotal(transport.has("maxTotal") ? transport.get("maxTotal").getAsInt() : TransportConfig.DEFAULT_MAX_TOTAL);
+    transportConfig.setConnectTimeout(transport.has("connectTimeout") ? transport.get("connectTimeout").getAsInt() : TransportConfig.DEFAULT_CONNECT_TIMEOUT);
+    transportConfig.setReadTimeout(transport.has("readTimeout") ? transport.get("readTimeout").getAsInt() : TransportConfig.DEFAULT_READ_TIMEOUT);
+    transportConfig.setConnectionRequestTimeout(transport.has("connectionRequestTimeout") ? transport.get("connectionRequestTimeout").getAsInt() : TransportConfig.DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+    transportConfig.setIdleTimeout(transport.has("idleTimeout") ? transport.get("idleTimeout").getAsLong() : TransportConfig.DEFAULT_IDLE_TIMEOUT);
+    transportConfig.setMaxConcurrentCalls(transport.has("maxConcurrentCalls") ? transport.get("maxConcurrentCalls").getAsInt() : TransportConfig.DEFAULT_MAX_CONCURRENT_CALLS);
+    transportConfig.setBulkheadWait(transport.has("bulkheadWait") ? transport.get("bulkheadWait").getAsLong() : TransportConfig.DEFAULT_BULKHEAD_WAIT);
+    if (transport.has("circuitBreaker")) {
+      transportConfig.setCircuitBreaker(parseCircuitBreakerConfig(transport.getAsJsonObject("circuitBreaker")));
+    }
+    return transportConfig;
+  }
+
+  /**
+   * Parse settings for the circuit breakers of the backends. Missing values
+   * will be replaced by their defaults.
+   */
+  private CircuitBreakerConfig parseCircuitBreakerConfig(JsonObject breaker) {
+    CircuitBreakerConfig breakerConfig = new CircuitBreakerConfig();
+    breakerConfig.setEnabled(breaker.has("enabled") ? breaker.get("enabled").getAsBoolean() : CircuitBreakerConfig.DEFAULT_ENABLED);
+    breakerConfig.setWindowSize(breaker.has("windowSize") ? breaker.get("windowSize").getAsInt() : CircuitBreakerConfig.DEFAULT_WINDOW_SIZE);
+    breakerConfig.setMinimumCalls(breaker.has("minimumCalls") ? breaker.get("minimumCalls").getAsInt() : CircuitBreakerConfig.DEFAULT_MINIMUM_CALLS);
+    breakerConfig.setFailureRateThreshold(breaker.has("failureRateThreshold") ? breaker.get("failureRateThreshold").getAsInt() : CircuitBreakerConfig.DEFAULT_FAILURE_RATE_THRESHOLD);
+    breakerConfig.setSlowCallRateThreshold(breaker.has("slowCallRateThreshold") ? breaker.get("slowCallRateThreshold").getAsInt() : CircuitBreakerConfig.DEFAULT_SLOW_CALL_RATE_THRESHOLD);
+    breakerConfig.setSlowCallDuration(breaker.has("slowCallDuration") ? breaker.get("slowCallDuration").getAsLong() : CircuitBreakerConfig.DEFAULT_SLOW_CALL_DURATION);
+    breakerConfig.setOpenDuration(breaker.has("openDuration") ? breaker.get("openDuration").getAsLong() : CircuitBreakerConfig.DEFAULT_OPEN_DURATION);
+    breakerConfig.setHalfOpenCalls(breaker.has("halfOpenCalls") ? breaker.get("halfOpenCalls").getAsInt() : CircuitBreakerConfig.DEFAULT_HALF_OPEN_CALLS);
+    return breakerConfig;
+  }
+
   /**
    * Check if the request contains any authentication information.
    */
@@ -500,41 +1337,88 @@ public class MetadataHubProcessor implements DoipProcessor {
     }
   }
 
+  /**
+   * Get the mapping service responsible for the given target id.
+   */
+  private Mapping2HttpService getMappingService(String targetId) throws DoipException {
+    return getRoute(targetId).service;
+  }
+
+  /**
+   * Get the mapping service and the id of the object in the repository.
+   * Handles without route are routed by their resolve URL; the object id is
+   * taken from the resolve URL then.
+   */
+  private Route getRoute(String targetId) throws DoipException {
+    MappingRegistry registry = mappingRegistry.get();
+    Mapping2HttpService mappingService = registry.lookup(targetId);
+    if (mappingService != null) {
+      return new Route(mappingService, targetId);
+    }
+    if (targetId != null) {
+      String resolveUrl = handleManager.resolveHandle(targetId);
+      mappingService = (resolveUrl != null) ? registry.lookupByUrl(resolveUrl) : null;
+      String objectId = (mappingService != null) ? mappingService.getObjectId(resolveUrl) : null;
+      if (objectId != null) {
+        LOGGER.trace("Route handle '{}' to object '{}'.", targetId, objectId);
+        return new Route(mappingService, objectId);
+      }
+    }
+    throw new DoipException(DoipConstants.STATUS_NOT_FOUND, "No mapping available for '" + targetId + "'!");
+  }
+
+  /**
+   * Mapping service and target id of the object in its repository.
+   */
+  private static final class Route {
+
+    private final Mapping2HttpService service;
+    private final String targetId;
+
+    Route(Mapping2HttpService service, String targetId) {
+      this.service = service;
+      this.targetId = targetId;
+    }
+
+    /**
+     * Request addressing the object in the repository (the request itself
+     * unless a handle was resolved).
+     */
+    DoipServerRequest rewrite(DoipServerRequest req) {
+      if (Objects.equals(req.getTargetId(), targetId)) {
+        return req;
+      }
+      return (DoipServerRequest) Proxy.newProxyInstance(DoipServerRequest.class.getClassLoader(), new Class<?>[]{DoipServerRequest.class}, (proxy, method, args) -> {
+        if ("getTargetId".equals(method.getName()) && (method.getParameterCount() == 0)) {
+          return targetId;
+        }
+        try {
+          return method.invoke(req, args);
+        } catch (InvocationTargetException ex) {
+          throw ex.getCause();
+        }
+      });
+    }
+  }
+
   /**
    * Parse all mappings. Mappings should be located besides the jar file in a
    * subfolder called 'mapping'. Subfolders will not be supported. Mappings
-   * should be placed in a file with suffix '_mapping.json'
+   * should be placed in a file with suffix '_mapping.json'. If enabled, the
+   * folder is watched and changed mappings are reloaded.
    */
   private void parseAllMappings() {
     Path pathToMappings = Paths.get(mappingsDir).toAbsolutePath();
-    LOGGER.debug("Parse all files with suffix '{}' in folder '{}'", mappingsSuffix, pathToMappings);
-    allMappings = new HashMap<>();
-    try {
-      Stream<Path> list = Files.list(pathToMappings);
-      Gson gson = new GsonBuilder()
-              .setPrettyPrinting()
-              .disableHtmlEscaping()
-              .create();
-      list.filter(file -> file.toString().endsWith(mappingsSuffix)).forEach(path -> {
-        LOGGER.debug("Read mapping from file: '{}'", path.getFileName());
-        try {
-          JsonReader reader;
-          reader = new JsonReader(new FileReader(path.toFile()));
-          HttpMapping mappingSchema = gson.fromJson(reader, HttpMapping.class);
-          LOGGER.debug("Mapping: '{}'", gson.toJson(mappingSchema));
-          if (mappingSchema.getTargetId() != null) {
-            // add mapping to map
-            allMappings.put(mappingSchema.getTargetId(), mappingSchema);
-            allMappings.put(mappingSchema.getBaseUrl(), mappingSchema);
-            allMappings.put("default", mappingSchema);
-
-          }
-        } catch (IOException ex) {
-          LOGGER.error("Error reading mapping from file '{}'!", path.getFileName());
-        }
-      });
-    } catch (IOException ex) {
-      LOGGER.error("Error reading mapping dir '{}'!", pathToMappings);
+    mappingReloader = new MappingReloader(pathToMappings, mappingsSuffix,
+            plan -> new Mapping2HttpService(plan, handleManager, backendExecutor, retrieveCache, retrieveFlights, searchIndex),
+            mappingRegistry);
+    mappingReloader.loadAll();
+    if (watchMappings) {
+      try {
+        mappingReloader.start();
+      } catch (IOException ex) {
+        LOGGER.error("Can't watch mapping dir '{}'! Mappings will not be reloaded.", pathToMappings);
+      }
     }
   }
 
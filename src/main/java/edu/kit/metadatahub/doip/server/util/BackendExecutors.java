@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.server.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Factory for the executor running backend calls.
+ */
+public final class BackendExecutors {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(BackendExecutors.class);
+  /**
+   * Fixed pool of platform threads (default).
+   */
+  public static final String MODE_PLATFORM = "platform";
+  /**
+   * One virtual thread per call (requires Java 21).
+   */
+  public static final String MODE_VIRTUAL = "virtual";
+
+  private BackendExecutors() {
+    // utility class
+  }
+
+  /**
+   * Create executor for backend calls. In virtual mode the number of
+   * concurrent calls is only limited by the permits of the HTTP transports.
+   * If virtual threads are not supported by the JVM a pool of platform
+   * threads is used instead.
+   *
+   * @param mode Execution mode ('platform' or 'virtual').
+   * @param threads Number of platform threads.
+   * @return Executor.
+   */
+  public static ExecutorService create(String mode, int threads) {
+    if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+      ExecutorService executor = newVirtualThreadPerTaskExecutor();
+      if (executor != null) {
+        LOGGER.info("Backend calls are executed on virtual threads.");
+        return executor;
+      }
+      LOGGER.warn("Virtual threads are not supported by Java {}! Use {} platform threads instead.", System.getProperty("java.version"), threads);
+    } else if (!MODE_PLATFORM.equalsIgnoreCase(mode)) {
+      LOGGER.warn("Unknown execution mode '{}'! Use {} platform threads instead.", mode, threads);
+    }
+    AtomicInteger threadNumber = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "backend-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Create virtual thread executor via reflection (code has to run on Java 11).
+   *
+   * @return Executor or null if not supported.
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+      LOGGER.debug("Virtual threads not available.", ex);
+      return null;
+    }
+  }
+}
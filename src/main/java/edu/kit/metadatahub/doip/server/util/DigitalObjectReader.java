@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.server.util;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import edu.kit.turntable.mapping.Datacite43Schema;
+import java.io.IOException;
+import java.util.List;
+import net.dona.doip.DoipConstants;
+import net.dona.doip.client.DigitalObject;
+import net.dona.doip.client.DoipException;
+import net.dona.doip.client.Element;
+import net.dona.doip.util.GsonUtility;
+
+/**
+ * Single pass decoder for a digital object sent as JSON segment. The
+ * attribute 'datacite' is bound directly to Datacite43Schema, no matter if
+ * it is embedded as object or as JSON string. All other attributes (e.g.
+ * 'header') and the elements are read into the digital object like by the
+ * DOIP SDK. The datacite attribute is not part of the attributes of the
+ * decoded object.
+ */
+public final class DigitalObjectReader {
+
+  private static final TypeAdapter<Datacite43Schema> DATACITE_ADAPTER = JsonCodecs.getGson().getAdapter(Datacite43Schema.class);
+  private static final TypeAdapter<JsonElement> JSON_ADAPTER = GsonUtility.getGson().getAdapter(JsonElement.class);
+  private static final TypeAdapter<List<Element>> ELEMENTS_ADAPTER = GsonUtility.getGson().getAdapter(new TypeToken<List<Element>>() {
+  });
+
+  private final DigitalObject digitalObject;
+  private final Datacite43Schema datacite;
+
+  private DigitalObjectReader(DigitalObject digitalObject, Datacite43Schema datacite) {
+    this.digitalObject = digitalObject;
+    this.datacite = datacite;
+  }
+
+  /**
+   * Decode digital object.
+   *
+   * @param reader Reader positioned at the digital object.
+   * @return Decoded object.
+   * @throws DoipException Input is no valid digital object.
+   * @throws IOException Error while reading.
+   */
+  public static DigitalObjectReader read(JsonReader reader) throws DoipException, IOException {
+    try {
+      DigitalObject digitalObject = new DigitalObject();
+      Datacite43Schema datacite = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "id":
+            digitalObject.id = readString(reader);
+            break;
+          case "type":
+            digitalObject.type = readString(reader);
+            break;
+          case "attributes":
+            if (reader.peek() == JsonToken.NULL) {
+              reader.nextNull();
+              break;
+            }
+            digitalObject.attributes = new JsonObject();
+            reader.beginObject();
+            while (reader.hasNext()) {
+              String name = reader.nextName();
+              if (DoipUtil.ATTR_DATACITE.equals(name)) {
+                datacite = readDatacite(reader);
+              } else {
+                digitalObject.attributes.add(name, JSON_ADAPTER.read(reader));
+              }
+            }
+            reader.endObject();
+            break;
+          case "elements":
+            digitalObject.elements = ELEMENTS_ADAPTER.read(reader);
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return new DigitalObjectReader(digitalObject, datacite);
+    } catch (IllegalStateException | JsonParseException | NumberFormatException ex) {
+      throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Invalid digital object: " + ex.getMessage());
+    }
+  }
+
+  /**
+   * Bind datacite embedded as object or as JSON string.
+   */
+  private static Datacite43Schema readDatacite(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        return DATACITE_ADAPTER.read(reader);
+      case STRING:
+        return JsonCodecs.getGson().fromJson(reader.nextString(), Datacite43Schema.class);
+      case NULL:
+        reader.nextNull();
+        return null;
+      default:
+        throw new IllegalStateException("Attribute '" + DoipUtil.ATTR_DATACITE + "' has to be an object or a string!");
+    }
+  }
+
+  private static String readString(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+
+  /**
+   * @return the digital object (without datacite attribute).
+   */
+  public DigitalObject getDigitalObject() {
+    return digitalObject;
+  }
+
+  /**
+   * @return the datacite metadata (null if not available).
+   */
+  public Datacite43Schema getDatacite() {
+    return datacite;
+  }
+}
@@ -18,17 +18,21 @@ package edu.kit.metadatahub.doip.server.util;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
 import edu.kit.turntable.mapping.Datacite43Schema;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import net.dona.doip.DoipConstants;
 import net.dona.doip.InDoipSegment;
 import net.dona.doip.client.DigitalObject;
 import net.dona.doip.client.DoipException;
 import net.dona.doip.server.DoipServerRequest;
-import net.dona.doip.util.GsonUtility;
 import net.dona.doip.util.InDoipMessageUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,70 +55,189 @@ public class DoipUtil {
    */
   public static final String TYPE_DO = "0.TYPE/DO";
 
+  /**
+   * Size of the buffer used for copying streams.
+   */
+  public static final int BUFFER_SIZE = 65536;
+  /**
+   * Default for max. number of bytes of a segment buffered in memory.
+   */
+  public static final long DEFAULT_SPOOL_THRESHOLD = 1024 * 1024;
+
   private static final Logger LOGGER = LoggerFactory.getLogger(DoipUtil.class);
+  /**
+   * Reusable buffer for copying streams (one per thread).
+   */
+  private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+  /**
+   * Max. number of bytes of a segment buffered in memory.
+   */
+  private static volatile long spoolThreshold = DEFAULT_SPOOL_THRESHOLD;
 
   private DigitalObject digitalObject = null;
   /**
-   * Map holding all streams of request.
+   * Datacite of the digital object (decoded together with the object).
+   */
+  private Datacite43Schema datacite = null;
+  /**
+   * Map holding all (buffered) streams of request.
    */
-  private Map<String, byte[]> streamMap = null;
+  private Map<String, SegmentSpool> streamMap = null;
   /**
-   * Request.
+   * Element segments were read without buffering.
+   */
+  private boolean streamsConsumed = false;
+  /**
+   * Request (null for items of a batch).
    */
   private final DoipServerRequest doipServerRequest;
+  private final String targetId;
+  private final JsonElement authentication;
 
   public DoipUtil(DoipServerRequest req) {
     doipServerRequest = req;
+    targetId = req.getTargetId();
+    authentication = req.getAuthentication();
+  }
+
+  private DoipUtil(String targetId, JsonElement authentication) {
+    doipServerRequest = null;
+    this.targetId = targetId;
+    this.authentication = authentication;
+  }
+
+  /**
+   * Create util for a single item of a batch. The item has no input.
+   *
+   * @param targetId Target id of the item.
+   * @param authentication Authentication of the batch request.
+   * @return Util without input.
+   */
+  public static DoipUtil forItem(String targetId, JsonElement authentication) {
+    return new DoipUtil(targetId, authentication);
+  }
+
+  /**
+   * Create util for a single object of a bulk request. The object and its
+   * (buffered) elements were already read from the request.
+   *
+   * @param targetId Target id of the bulk request.
+   * @param authentication Authentication of the bulk request.
+   * @param decoded Digital object and its datacite.
+   * @param streams Buffered elements (key: id of element). Released via
+   * close().
+   * @return Util holding the object.
+   */
+  public static DoipUtil forItem(String targetId, JsonElement authentication, DigitalObjectReader decoded, Map<String, SegmentSpool> streams) {
+    DoipUtil util = new DoipUtil(targetId, authentication);
+    util.digitalObject = decoded.getDigitalObject();
+    util.datacite = decoded.getDatacite();
+    util.streamMap = streams;
+    return util;
   }
 
+  /**
+   * Get digital object from the first segment. The segment is decoded in a
+   * single pass, its datacite attribute is bound while reading (see
+   * getDatacite()).
+   *
+   * @return Digital object (without datacite attribute) or null if request
+   * has no input.
+   * @throws DoipException First segment is no digital object.
+   * @throws IOException Error while reading input.
+   */
   public DigitalObject getDigitalObject() throws DoipException, IOException {
-    if (digitalObject == null) {
+    if ((digitalObject == null) && (doipServerRequest != null)) {
       InDoipSegment firstSegment = InDoipMessageUtil.getFirstSegment(doipServerRequest.getInput());
       if (firstSegment != null) {
-        LOGGER.trace("Deserializing digital object from first segment.");
-        digitalObject = GsonUtility.getGson().fromJson(firstSegment.getJson(), DigitalObject.class);
+        if (!firstSegment.isJson()) {
+          throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "First segment has to be a digital object in JSON format!");
+        }
+        LOGGER.trace("Decoding digital object from first segment.");
+        DigitalObjectReader decoded = DigitalObjectReader.read(firstSegment.getJsonReader());
+        digitalObject = decoded.getDigitalObject();
+        datacite = decoded.getDatacite();
       }
     }
     return digitalObject;
   }
 
   /**
-   * Get Datacite attribute from a digital object.
+   * Get Datacite attribute of the digital object. The instance is shared by
+   * all calls and must not be modified.
    *
-   * @return Datacite
-   * @throws IOException
+   * @return Datacite (null if not available).
+   * @throws DoipException First segment is no digital object.
+   * @throws IOException Error while reading input.
    */
   public Datacite43Schema getDatacite() throws DoipException, IOException {
-    return getDatacite(getDigitalObject());
+    getDigitalObject();
+    return datacite;
   }
 
   /**
-   * Get Datacite attribute from a digital object.
+   * Get Datacite attribute from a digital object (embedded as object or as
+   * JSON string).
    *
    * @param dobj Digital object.
-   * @return Datacite
-   * @throws IOException
+   * @return Datacite (null if not available).
    */
-  public Datacite43Schema getDatacite(DigitalObject dobj) throws IOException {
+  public Datacite43Schema getDatacite(DigitalObject dobj) {
     Datacite43Schema resource = null;
-    if (dobj != null) {
+    if ((dobj != null) && (dobj.attributes != null)) {
       JsonElement metadata = dobj.attributes.get(ATTR_DATACITE);
       LOGGER.trace("Datacite of digital object: '{}'", metadata);
-      resource = GsonUtility.getGson().fromJson(metadata.getAsString(), Datacite43Schema.class);
+      if ((metadata != null) && metadata.isJsonPrimitive()) {
+        resource = JsonCodecs.getGson().fromJson(metadata.getAsString(), Datacite43Schema.class);
+      } else if ((metadata != null) && metadata.isJsonObject()) {
+        resource = JsonCodecs.getGson().fromJson(metadata, Datacite43Schema.class);
+      }
     }
     return resource;
   }
 
+  /**
+   * Get id of a data resource (first identifier).
+   *
+   * @param resource Datacite of the data resource.
+   * @return Id (null if the resource has no identifier).
+   */
+  public static String getIdentifier(Datacite43Schema resource) {
+    if ((resource.getIdentifiers() == null) || resource.getIdentifiers().isEmpty()) {
+      return null;
+    }
+    return resource.getIdentifiers().iterator().next().getIdentifier();
+  }
+
   public static DigitalObject ofDataResource(Datacite43Schema resource) throws DoipException {
     net.dona.doip.client.DigitalObject digitalObject = new DigitalObject();
     digitalObject.id = resource.getIdentifiers().iterator().next().getIdentifier();
     digitalObject.type = "0.TYPE/DO";
     digitalObject.attributes = new JsonObject();
-    JsonElement dobjJson = GsonUtility.getGson().toJsonTree(resource);
+    JsonElement dobjJson = JsonCodecs.getGson().toJsonTree(resource);
     digitalObject.attributes.add(ATTR_DATACITE, dobjJson);
     return digitalObject;
   }
 
+  /**
+   * Write the digital object of a data resource directly to the writer (same
+   * JSON as ofDataResource without building the JSON tree).
+   *
+   * @param writer Writer.
+   * @param resource Datacite of the data resource.
+   * @throws IOException Error while writing.
+   */
+  public static void writeDataResource(JsonWriter writer, Datacite43Schema resource) throws IOException {
+    writer.beginObject();
+    writer.name("id").value(resource.getIdentifiers().iterator().next().getIdentifier());
+    writer.name("type").value(TYPE_DO);
+    writer.name("attributes").beginObject();
+    writer.name(ATTR_DATACITE);
+    JsonCodecs.getGson().toJson(resource, Datacite43Schema.class, writer);
+    writer.endObject();
+    writer.endObject();
+  }
+
   /**
    * Get boolean attribute of request.
    *
@@ -122,6 +245,9 @@ public class DoipUtil {
    * @return attribute.
    */
   public boolean getBooleanAttributeFromRequest(String att) {
+    if (doipServerRequest == null) {
+      return false;
+    }
     return getBooleanAttributeFromRequest(doipServerRequest, att);
   }
 
@@ -148,55 +274,216 @@ public class DoipUtil {
     return false;
   }
 
-  public Map<String, byte[]> getStreams() throws DoipException {
+  /**
+   * Set max. number of bytes of a segment buffered in memory. Larger segments
+   * are spilled to temporary files.
+   *
+   * @param threshold Threshold in bytes.
+   */
+  public static void setSpoolThreshold(long threshold) {
+    spoolThreshold = threshold;
+  }
+
+  /**
+   * @return max. number of bytes of a segment buffered in memory.
+   */
+  public static long getSpoolThreshold() {
+    return spoolThreshold;
+  }
+
+  /**
+   * Get all element segments of the request. The segments are buffered
+   * (segments larger than the spool threshold are spilled to disk) so they can
+   * be read several times. Buffers are released via close().
+   *
+   * @return Map holding buffered segments (key: id of element).
+   * @throws DoipException Segments are invalid or were already consumed.
+   */
+  public Map<String, SegmentSpool> getStreams() throws DoipException {
     if (streamMap == null) {
-      streamMap = new HashMap<>();
-      Iterator<InDoipSegment> iterator = doipServerRequest.getInput().iterator();
+      if (streamsConsumed) {
+        throw new DoipException(DoipConstants.STATUS_ERROR, "Segments of request are already consumed!");
+      }
+      streamMap = new LinkedHashMap<>();
+      Iterator<ElementSegment> iterator = (doipServerRequest != null) ? new SegmentIterator() : Collections.emptyIterator();
       while (iterator.hasNext()) {
-        if (LOGGER.isTraceEnabled()) {
-          LOGGER.trace("*************************************************************");
-          LOGGER.trace("Next Segment.....");
-          LOGGER.trace("*************************************************************");
+        ElementSegment segment;
+        try {
+          segment = iterator.next();
+        } catch (IllegalArgumentException | NoSuchElementException ex) {
+          throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, ex.getMessage());
         }
-        InDoipSegment segment = iterator.next();
-        if (segment.isJson() == false) {
-          throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Segment should be a JSON!");
-        } else {
-          try {
-            // Read first part of segment which should contain JSON.
-            // Read id of element
-            LOGGER.trace("Content: '{}'", segment.getJson().toString());
-            String id = segment.getJson().getAsJsonObject().get("id").getAsString();
-            LOGGER.trace("ID: '{}'", id);
-
-            segment = iterator.next();
-
-            streamMap.put(id, segment.getInputStream().readNBytes(65536));
-            segment.getInputStream().close();
-          } catch (IOException ex) {
-            throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Error while reading JSON!");
+        try {
+          SegmentSpool oldSpool = streamMap.put(segment.getId(), SegmentSpool.spool(segment.getInputStream(), spoolThreshold));
+          if (oldSpool != null) {
+            oldSpool.close();
           }
+          segment.getInputStream().close();
+        } catch (IOException ex) {
+          throw new DoipException(DoipConstants.STATUS_BAD_REQUEST, "Error while reading segment '" + segment.getId() + "'!");
         }
       }
       for (String key : streamMap.keySet()) {
-        LOGGER.trace("Found stream: '{}' -> '{}'", key, streamMap.get(key).length);
+        LOGGER.trace("Found stream: '{}' -> '{}'", key, streamMap.get(key).length());
       }
     }
     return streamMap;
   }
 
+  /**
+   * Get iterator over all element segments. If the segments are not buffered
+   * yet they are read directly from the request. In this case each segment has
+   * to be consumed before the next one is requested and the iterator may be
+   * used only once.
+   *
+   * @return Iterator over all element segments.
+   * @throws DoipException Segments were already consumed.
+   */
+  public Iterator<ElementSegment> getElementSegments() throws DoipException {
+    if (streamMap != null) {
+      Iterator<Map.Entry<String, SegmentSpool>> spools = streamMap.entrySet().iterator();
+      return new Iterator<ElementSegment>() {
+        @Override
+        public boolean hasNext() {
+          return spools.hasNext();
+        }
+
+        @Override
+        public ElementSegment next() {
+          Map.Entry<String, SegmentSpool> entry = spools.next();
+          try {
+            return new ElementSegment(entry.getKey(), entry.getValue().openStream());
+          } catch (IOException ex) {
+            throw new IllegalStateException("Can't open buffered segment '" + entry.getKey() + "'!", ex);
+          }
+        }
+      };
+    }
+    if (streamsConsumed) {
+      throw new DoipException(DoipConstants.STATUS_ERROR, "Segments of request are already consumed!");
+    }
+    streamsConsumed = true;
+    return (doipServerRequest != null) ? new SegmentIterator() : Collections.emptyIterator();
+  }
+
+  /**
+   * Release all buffered segments.
+   */
+  public void close() {
+    if (streamMap != null) {
+      for (SegmentSpool spool : streamMap.values()) {
+        spool.close();
+      }
+    }
+  }
+
+  /**
+   * Get reusable copy buffer of the current thread.
+   */
+  static byte[] getCopyBuffer() {
+    return COPY_BUFFER.get();
+  }
+
+  /**
+   * Copy stream using a reusable buffer of fixed size. Streams are not closed.
+   *
+   * @param in Source.
+   * @param out Destination.
+   * @return Number of bytes copied.
+   * @throws IOException Error while reading/writing.
+   */
+  public static long copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = COPY_BUFFER.get();
+    long count = 0;
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+      count += read;
+    }
+    return count;
+  }
+
   /**
    * Gets target id of request.
    */
   public String getTargetId() {
-    return doipServerRequest.getTargetId();
+    return targetId;
   }
 
   /**
    * Gets authentication of request.
    */
   public JsonElement getAuthentication() {
-    return doipServerRequest.getAuthentication();
+    return authentication;
+  }
+
+  /**
+   * Single element segment of a request (id and content).
+   */
+  public static final class ElementSegment {
+
+    private final String id;
+    private final InputStream in;
+
+    ElementSegment(String id, InputStream in) {
+      this.id = id;
+      this.in = in;
+    }
+
+    /**
+     * @return the id of the element.
+     */
+    public String getId() {
+      return id;
+    }
+
+    /**
+     * @return the content of the element.
+     */
+    public InputStream getInputStream() {
+      return in;
+    }
   }
 
+  /**
+   * Reads element segments directly from the request. Each element consists of
+   * a JSON segment holding the id followed by a bytes segment.
+   */
+  private final class SegmentIterator implements Iterator<ElementSegment> {
+
+    private final Iterator<InDoipSegment> iterator = doipServerRequest.getInput().iterator();
+
+    @Override
+    public boolean hasNext() {
+      return iterator.hasNext();
+    }
+
+    @Override
+    public ElementSegment next() {
+      if (LOGGER.isTraceEnabled()) {
+        LOGGER.trace("*************************************************************");
+        LOGGER.trace("Next Segment.....");
+        LOGGER.trace("*************************************************************");
+      }
+      InDoipSegment segment = iterator.next();
+      if (!segment.isJson()) {
+        throw new IllegalArgumentException("Segment should be a JSON!");
+      }
+      try {
+        // Read first part of segment which should contain JSON.
+        // Read id of element
+        JsonElement json = segment.getJson();
+        LOGGER.trace("Content: '{}'", json);
+        String id = json.getAsJsonObject().get("id").getAsString();
+        LOGGER.trace("ID: '{}'", id);
+        if (!iterator.hasNext()) {
+          throw new NoSuchElementException("Missing bytes segment for element '" + id + "'!");
+        }
+        segment = iterator.next();
+        return new ElementSegment(id, segment.getInputStream());
+      } catch (IOException ex) {
+        throw new IllegalArgumentException("Error while reading JSON!", ex);
+      }
+    }
+  }
 }
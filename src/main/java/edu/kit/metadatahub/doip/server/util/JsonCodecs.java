@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.server.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapterFactory;
+import java.util.ServiceLoader;
+import net.dona.doip.util.GsonUtility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gson used for the classes generated from the JSON schemas (e.g. datacite,
+ * schema records). These classes are (de)serialized by the streaming type
+ * adapters generated at build time (task 'generateCodecs') instead of Gson's
+ * reflection; the JSON is the same. All other settings are taken from the
+ * Gson of the DOIP SDK.
+ */
+public final class JsonCodecs {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(JsonCodecs.class);
+
+  private static final Gson GSON = create();
+
+  private JsonCodecs() {
+    // utility class
+  }
+
+  /**
+   * @return Gson using the streaming type adapters.
+   */
+  public static Gson getGson() {
+    return GSON;
+  }
+
+  private static Gson create() {
+    GsonBuilder builder = GsonUtility.getGson().newBuilder();
+    int factories = 0;
+    for (TypeAdapterFactory factory : ServiceLoader.load(TypeAdapterFactory.class, JsonCodecs.class.getClassLoader())) {
+      LOGGER.debug("Register type adapters '{}'.", factory.getClass().getName());
+      builder.registerTypeAdapterFactory(factory);
+      factories++;
+    }
+    if (factories == 0) {
+      LOGGER.warn("No streaming type adapters found! Generated classes are serialized via reflection.");
+    }
+    return builder.create();
+  }
+}
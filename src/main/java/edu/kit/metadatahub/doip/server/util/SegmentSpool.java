@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.metadatahub.doip.server.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffered copy of a stream which can be read multiple times. Content is held
+ * in memory up to a threshold; larger content is spilled to a temporary file
+ * which is deleted on close().
+ */
+public final class SegmentSpool implements Closeable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(SegmentSpool.class);
+  /**
+   * Prefix for temporary files.
+   */
+  private static final String TMP_PREFIX = "metadatahub-spool-";
+
+  private final byte[] data;
+  private final Path file;
+  private final long length;
+
+  private SegmentSpool(byte[] data, Path file, long length) {
+    this.data = data;
+    this.file = file;
+    this.length = length;
+  }
+
+  /**
+   * Read stream completely. The stream is not closed.
+   *
+   * @param in Stream to buffer.
+   * @param threshold Max. number of bytes held in memory.
+   * @return Buffered content.
+   * @throws IOException Error while reading/writing.
+   */
+  public static SegmentSpool spool(InputStream in, long threshold) throws IOException {
+    ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    byte[] buffer = DoipUtil.getCopyBuffer();
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      if (memory.size() + (long) read > threshold) {
+        Path file = Files.createTempFile(TMP_PREFIX, ".bin");
+        LOGGER.trace("Spill segment to '{}'.", file);
+        long length;
+        try (OutputStream out = Files.newOutputStream(file)) {
+          memory.writeTo(out);
+          out.write(buffer, 0, read);
+          length = memory.size() + (long) read + DoipUtil.copy(in, out);
+        } catch (IOException ex) {
+          Files.deleteIfExists(file);
+          throw ex;
+        }
+        return new SegmentSpool(null, file, length);
+      }
+      memory.write(buffer, 0, read);
+    }
+    return new SegmentSpool(memory.toByteArray(), null, memory.size());
+  }
+
+  /**
+   * Open new stream on buffered content.
+   *
+   * @return Stream.
+   * @throws IOException Error opening temporary file.
+   */
+  public InputStream openStream() throws IOException {
+    if (data != null) {
+      return new ByteArrayInputStream(data);
+    }
+    return Files.newInputStream(file);
+  }
+
+  /**
+   * @return the number of bytes.
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * @return true if content was spilled to disk.
+   */
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  @Override
+  public void close() {
+    if (file != null) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException ex) {
+        LOGGER.warn("Can't delete temporary file '{}'!", file);
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Body of an open backend response. Closing the stream closes the response
+ * (returning the connection to the pool) and runs the given callback. Closing
+ * is idempotent.
+ */
+public class BackendResponseStream extends FilterInputStream {
+
+  private final ClientHttpResponse response;
+  private final Runnable onClose;
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  /**
+   * Create stream.
+   *
+   * @param response Open response.
+   * @param onClose Callback executed once the stream is closed (may be null).
+   * @throws IOException Error while accessing body of response.
+   */
+  public BackendResponseStream(ClientHttpResponse response, Runnable onClose) throws IOException {
+    super(response.getBody());
+    this.response = response;
+    this.onClose = onClose;
+  }
+
+  /**
+   * @return the length of the body (-1 if unknown).
+   */
+  public long getContentLength() {
+    return response.getHeaders().getContentLength();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed.compareAndSet(false, true)) {
+      try {
+        response.close();
+      } finally {
+        if (onClose != null) {
+          onClose.run();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import java.io.IOException;
+
+/**
+ * Call to a backend was rejected without sending it (circuit breaker open or
+ * max. number of concurrent calls reached).
+ */
+public class BackendUnavailableException extends IOException {
+
+  /**
+   * Create exception.
+   *
+   * @param message Reason of the rejection.
+   */
+  public BackendUnavailableException(String message) {
+    super(message);
+  }
+}
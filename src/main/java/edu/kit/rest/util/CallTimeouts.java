@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import java.util.Objects;
+
+/**
+ * Timeouts of a single call overriding the defaults of the transport. A
+ * value of 0 keeps the default of the transport (connect and read) or
+ * disables the limit (total).
+ */
+public final class CallTimeouts {
+
+  /**
+   * No overrides.
+   */
+  public static final CallTimeouts DEFAULT = new CallTimeouts(0, 0, 0);
+
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final long totalTimeout;
+
+  private CallTimeouts(int connectTimeout, int readTimeout, long totalTimeout) {
+    this.connectTimeout = Math.max(0, connectTimeout);
+    this.readTimeout = Math.max(0, readTimeout);
+    this.totalTimeout = Math.max(0, totalTimeout);
+  }
+
+  /**
+   * Create timeouts.
+   *
+   * @param connectTimeout Timeout for establishing a connection (in ms, null
+   * or 0 for default).
+   * @param readTimeout Timeout for reading from a connection (in ms, null or 0
+   * for default).
+   * @param totalTimeout Max. duration of the whole call including reading the
+   * response body (in ms, null or 0 for no limit).
+   * @return Timeouts.
+   */
+  public static CallTimeouts of(Integer connectTimeout, Integer readTimeout, Integer totalTimeout) {
+    CallTimeouts timeouts = new CallTimeouts((connectTimeout != null) ? connectTimeout : 0,
+            (readTimeout != null) ? readTimeout : 0,
+            (totalTimeout != null) ? totalTimeout : 0);
+    return timeouts.isDefault() ? DEFAULT : timeouts;
+  }
+
+  /**
+   * @return the connect timeout (in ms, 0 for default).
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * @return the read timeout (in ms, 0 for default).
+   */
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * @return the max. duration of the whole call (in ms, 0 for no limit).
+   */
+  public long getTotalTimeout() {
+    return totalTimeout;
+  }
+
+  /**
+   * @return true if no timeout is overridden.
+   */
+  public boolean isDefault() {
+    return (connectTimeout == 0) && (readTimeout == 0) && (totalTimeout == 0);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof CallTimeouts)) {
+      return false;
+    }
+    CallTimeouts other = (CallTimeouts) obj;
+    return (connectTimeout == other.connectTimeout)
+            && (readTimeout == other.readTimeout)
+            && (totalTimeout == other.totalTimeout);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(connectTimeout, readTimeout, totalTimeout);
+  }
+
+  @Override
+  public String toString() {
+    return "CallTimeouts{" + "connectTimeout=" + connectTimeout + ", readTimeout=" + readTimeout
+            + ", totalTimeout=" + totalTimeout + '}';
+  }
+}
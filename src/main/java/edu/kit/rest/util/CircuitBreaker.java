@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker for calls to one backend. The breaker opens if the rate of
+ * failed or slow calls within the last calls exceeds the thresholds. While
+ * open all calls are rejected. After the open duration a few probe calls are
+ * let through (half open); the breaker closes again if all of them succeed.
+ */
+public class CircuitBreaker {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  /**
+   * States of the breaker.
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String name;
+  private final CircuitBreakerConfig config;
+  private final long slowCallNanos;
+  private final long openNanos;
+  /**
+   * Outcome of the last calls (ring buffer).
+   */
+  private final boolean[] failed;
+  private final boolean[] slow;
+  private int next = 0;
+  private int calls = 0;
+  private int failures = 0;
+  private int slowCalls = 0;
+  private State state = State.CLOSED;
+  private long openedAt;
+  private int probes = 0;
+  private int probeSuccesses = 0;
+
+  /**
+   * Create breaker.
+   *
+   * @param name Name of the backend (used for logging).
+   * @param config Settings.
+   */
+  public CircuitBreaker(String name, CircuitBreakerConfig config) {
+    this.name = name;
+    this.config = config;
+    slowCallNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowCallDuration());
+    openNanos = TimeUnit.MILLISECONDS.toNanos(config.getOpenDuration());
+    failed = new boolean[Math.max(1, config.getWindowSize())];
+    slow = new boolean[failed.length];
+  }
+
+  /**
+   * Ask for permission to call the backend. A granted permission has to be
+   * followed by onResult() or releasePermission().
+   *
+   * @return true if the call is permitted.
+   */
+  public synchronized boolean tryAcquirePermission() {
+    if (!config.isEnabled()) {
+      return true;
+    }
+    if ((state == State.OPEN) && (System.nanoTime() - openedAt >= openNanos)) {
+      transitionTo(State.HALF_OPEN);
+    }
+    switch (state) {
+      case CLOSED:
+        return true;
+      case HALF_OPEN:
+        if (probes < config.getHalfOpenCalls()) {
+          probes++;
+          return true;
+        }
+        return false;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Return permission without calling the backend.
+   */
+  public synchronized void releasePermission() {
+    if ((state == State.HALF_OPEN) && (probes > 0)) {
+      probes--;
+    }
+  }
+
+  /**
+   * Record the outcome of a call.
+   *
+   * @param failure Call failed (no response or server error).
+   * @param nanos Duration of the call in nanoseconds.
+   */
+  public synchronized void onResult(boolean failure, long nanos) {
+    if (!config.isEnabled()) {
+      return;
+    }
+    boolean slowCall = nanos >= slowCallNanos;
+    switch (state) {
+      case HALF_OPEN:
+        if (failure || slowCall) {
+          transitionTo(State.OPEN);
+        } else if (++probeSuccesses >= config.getHalfOpenCalls()) {
+          transitionTo(State.CLOSED);
+        }
+        break;
+      case CLOSED:
+        record(failure, slowCall);
+        if ((calls >= config.getMinimumCalls())
+                && ((failures * 100 >= config.getFailureRateThreshold() * calls)
+                || (slowCalls * 100 >= config.getSlowCallRateThreshold() * calls))) {
+          LOGGER.warn("Backend '{}': {} of {} calls failed, {} slow.", name, failures, calls, slowCalls);
+          transitionTo(State.OPEN);
+        }
+        break;
+      default:
+        // late result of a call started before the breaker opened
+        break;
+    }
+  }
+
+  /**
+   * @return the current state.
+   */
+  public synchronized State getState() {
+    if ((state == State.OPEN) && (System.nanoTime() - openedAt >= openNanos)) {
+      return State.HALF_OPEN;
+    }
+    return state;
+  }
+
+  private void record(boolean failure, boolean slowCall) {
+    if (calls == failed.length) {
+      // overwrite oldest call
+      failures -= failed[next] ? 1 : 0;
+      slowCalls -= slow[next] ? 1 : 0;
+    } else {
+      calls++;
+    }
+    failed[next] = failure;
+    slow[next] = slowCall;
+    failures += failure ? 1 : 0;
+    slowCalls += slowCall ? 1 : 0;
+    next = (next + 1) % failed.length;
+  }
+
+  private void transitionTo(State newState) {
+    LOGGER.warn("Circuit breaker of backend '{}': {} -> {}", name, state, newState);
+    state = newState;
+    probes = 0;
+    probeSuccesses = 0;
+    if (newState == State.OPEN) {
+      openedAt = System.nanoTime();
+    }
+    if (newState == State.CLOSED) {
+      next = 0;
+      calls = 0;
+      failures = 0;
+      slowCalls = 0;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+/**
+ * Settings for the circuit breaker of one backend.
+ */
+public class CircuitBreakerConfig {
+
+  /**
+   * Default for switching the breaker on.
+   */
+  public static final boolean DEFAULT_ENABLED = true;
+  /**
+   * Default number of calls evaluated (sliding window).
+   */
+  public static final int DEFAULT_WINDOW_SIZE = 50;
+  /**
+   * Default number of calls needed before the breaker may open.
+   */
+  public static final int DEFAULT_MINIMUM_CALLS = 20;
+  /**
+   * Default failure rate (in percent) opening the breaker.
+   */
+  public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+  /**
+   * Default rate of slow calls (in percent) opening the breaker.
+   */
+  public static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 80;
+  /**
+   * Default duration of a call regarded as slow (in ms).
+   */
+  public static final long DEFAULT_SLOW_CALL_DURATION = 10000;
+  /**
+   * Default time the breaker stays open (in ms).
+   */
+  public static final long DEFAULT_OPEN_DURATION = 30000;
+  /**
+   * Default number of probe calls while half open.
+   */
+  public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+  private boolean enabled = DEFAULT_ENABLED;
+  private int windowSize = DEFAULT_WINDOW_SIZE;
+  private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+  private int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+  private int slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+  private long slowCallDuration = DEFAULT_SLOW_CALL_DURATION;
+  private long openDuration = DEFAULT_OPEN_DURATION;
+  private int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+  /**
+   * @return true if the breaker is active.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @param enabled true if the breaker is active.
+   * @return this configuration.
+   */
+  public CircuitBreakerConfig setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    return this;
+  }
+
+  /**
+   * @return the number of calls evaluated.
+   */
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  /**
+   * @param windowSize the number of calls evaluated.
+   * @return this configuration.
+   */
+  public CircuitBreakerConfig setWindowSize(int windowSize) {
+    this.windowSize = windowSize;
+    return this;
+  }
+
+  /**
+   * @return the number of calls needed before the breaker may open.
+   */
+  public int getMinimumCalls() {
+    return minimumCalls;
+  }
+
+  /**
+   * @param minimumCalls the number of calls needed before the breaker may
+   * open.
+   * @return this configuration.
+   */
+  public CircuitBreakerConfig setMinimumCalls(int minimumCalls) {
+    this.minimumCalls = minimumCalls;
+    return this;
+  }
+
+  /**
+   * @return the failure rate (in percent) opening the breaker.
+   */
+  public int getFailureRateThreshold() {
+    return failureRateThreshold;
+  }
+
+  /**
+   * @param failureRateThreshold the failure rate (in percent) opening the
+   * breaker.
+   * @return this configuration.
+   */
+  public CircuitBreakerConfig setFailureRateThreshold(int failureRateThreshold) {
+    this.failureRateThreshold = failureRateThreshold;
+    return this;
+  }
+
+  /**
+   * @return the rate of slow calls (in percent) opening the breaker.
+   */
+  public int getSlowCallRateThreshold() {
+    return slowCallRateThreshold;
+  }
+
+  /**
+   * @param slowCallRateThreshold the rate of slow calls (in percent) opening
+   * the breaker.
+   * @return this configuration.
+   */
+  public CircuitBreakerConfig setSlowCallRateThreshold(int slowCallRateThreshold) {
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    return this;
+  }
+
+  /**
+   * @return the duration of a call regarded as slow (in ms).
+   */
+  public long getSlowCallDuration() {
+    return slowCallDuration;
+  }
+
+  /**
+   * @param slowCallDuration the duration of a call regarded as slow (in ms).
+   * @return this configuration.
+   */
+  public CircuitBreakerConfig setSlowCallDuration(long slowCallDuration) {
+    this.slowCallDuration = slowCallDuration;
+    return this;
+  }
+
+  /**
+   * @return the time the breaker stays open (in ms).
+   */
+  public long getOpenDuration() {
+    return openDuration;
+  }
+
+  /**
+   * @param openDuration the time the breaker stays open (in ms).
+   * @return this configuration.
+   */
+  public CircuitBreakerConfig setOpenDuration(long openDuration) {
+    this.openDuration = openDuration;
+    return this;
+  }
+
+  /**
+   * @return the number of probe calls while half open.
+   */
+  public int getHalfOpenCalls() {
+    return halfOpenCalls;
+  }
+
+  /**
+   * @param halfOpenCalls the number of probe calls while half open.
+   * @return this configuration.
+   */
+  public CircuitBreakerConfig setHalfOpenCalls(int halfOpenCalls) {
+    this.halfOpenCalls = halfOpenCalls;
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return "CircuitBreakerConfig{" + "enabled=" + enabled + ", windowSize=" + windowSize
+            + ", minimumCalls=" + minimumCalls + ", failureRateThreshold=" + failureRateThreshold
+            + ", slowCallRateThreshold=" + slowCallRateThreshold + ", slowCallDuration=" + slowCallDuration
+            + ", openDuration=" + openDuration + ", halfOpenCalls=" + halfOpenCalls + '}';
+  }
+}
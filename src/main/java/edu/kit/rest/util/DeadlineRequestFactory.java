@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+/**
+ * Request factory limiting the total duration of a call. Connect and read
+ * timeouts only limit single steps, so a slowly trickling response may take
+ * much longer. The request is aborted if the response is not closed within
+ * the total timeout after sending the request.
+ */
+class DeadlineRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+  /**
+   * Timer aborting overdue requests (shared by all transports).
+   */
+  private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+  private final long totalTimeout;
+  /**
+   * Request created by the superclass within createRequest().
+   */
+  private final ThreadLocal<HttpUriRequest> createdRequest = new ThreadLocal<>();
+
+  /**
+   * Create factory.
+   *
+   * @param httpClient Client of the transport.
+   * @param totalTimeout Max. duration of a call (in ms).
+   */
+  DeadlineRequestFactory(HttpClient httpClient, long totalTimeout) {
+    super(httpClient);
+    this.totalTimeout = totalTimeout;
+  }
+
+  private static ScheduledThreadPoolExecutor createTimer() {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "http-deadline");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // most calls finish in time
+    timer.setRemoveOnCancelPolicy(true);
+    return timer;
+  }
+
+  @Override
+  protected HttpUriRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+    HttpUriRequest request = super.createHttpUriRequest(httpMethod, uri);
+    createdRequest.set(request);
+    return request;
+  }
+
+  @Override
+  public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+    ClientHttpRequest request;
+    HttpUriRequest httpRequest;
+    try {
+      request = super.createRequest(uri, httpMethod);
+      httpRequest = createdRequest.get();
+    } finally {
+      createdRequest.remove();
+    }
+    return (httpRequest != null) ? new DeadlineRequest(request, httpRequest) : request;
+  }
+
+  /**
+   * Request starting the timer when executed.
+   */
+  private class DeadlineRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+    private final ClientHttpRequest delegate;
+    private final HttpUriRequest httpRequest;
+
+    DeadlineRequest(ClientHttpRequest delegate, HttpUriRequest httpRequest) {
+      this.delegate = delegate;
+      this.httpRequest = httpRequest;
+    }
+
+    @Override
+    public String getMethodValue() {
+      return delegate.getMethodValue();
+    }
+
+    @Override
+    public URI getURI() {
+      return delegate.getURI();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return delegate.getHeaders();
+    }
+
+    @Override
+    public OutputStream getBody() throws IOException {
+      return delegate.getBody();
+    }
+
+    @Override
+    public void setBody(Body body) {
+      if (delegate instanceof StreamingHttpOutputMessage) {
+        ((StreamingHttpOutputMessage) delegate).setBody(body);
+      } else {
+        try {
+          body.writeTo(delegate.getBody());
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      }
+    }
+
+    @Override
+    public ClientHttpResponse execute() throws IOException {
+      ScheduledFuture<?> deadline = TIMER.schedule(httpRequest::abort, totalTimeout, TimeUnit.MILLISECONDS);
+      try {
+        return new DeadlineResponse(delegate.execute(), deadline);
+      } catch (IOException | RuntimeException ex) {
+        deadline.cancel(false);
+        if (httpRequest.isAborted()) {
+          SocketTimeoutException timeout = new SocketTimeoutException("Call to '" + getURI() + "' exceeded total timeout of " + totalTimeout + " ms!");
+          timeout.initCause(ex);
+          throw timeout;
+        }
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * Response stopping the timer when closed.
+   */
+  private static class DeadlineResponse implements ClientHttpResponse {
+
+    private final ClientHttpResponse delegate;
+    private final ScheduledFuture<?> deadline;
+
+    DeadlineResponse(ClientHttpResponse delegate, ScheduledFuture<?> deadline) {
+      this.delegate = delegate;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public HttpStatus getStatusCode() throws IOException {
+      return delegate.getStatusCode();
+    }
+
+    @Override
+    public int getRawStatusCode() throws IOException {
+      return delegate.getRawStatusCode();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+      return delegate.getStatusText();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return delegate.getHeaders();
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      return delegate.getBody();
+    }
+
+    @Override
+    public void close() {
+      deadline.cancel(false);
+      delegate.close();
+    }
+  }
+}
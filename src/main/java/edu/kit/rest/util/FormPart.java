@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+/**
+ * Single part of a multipart form. The content is read once while the form is
+ * written.
+ */
+public class FormPart {
+
+  /**
+   * Source of the content.
+   */
+  @FunctionalInterface
+  public interface ContentSource {
+
+    /**
+     * Open content.
+     *
+     * @return Stream holding content.
+     * @throws IOException Error opening content.
+     */
+    InputStream open() throws IOException;
+  }
+
+  private final String name;
+  private final String filename;
+  private final MediaType contentType;
+  private final ContentSource content;
+
+  /**
+   * Create part.
+   *
+   * @param name Name of the form parameter.
+   * @param filename Filename of the part (may be null).
+   * @param contentType Content type of the part.
+   * @param content Source of the content.
+   */
+  public FormPart(String name, String filename, MediaType contentType, ContentSource content) {
+    this.name = name;
+    this.filename = filename;
+    this.contentType = contentType;
+    this.content = content;
+  }
+
+  /**
+   * Create part from stream. The stream is consumed and closed while sending.
+   *
+   * @param name Name of the form parameter.
+   * @param filename Filename of the part.
+   * @param stream Stream holding content.
+   * @return Part.
+   */
+  public static FormPart ofStream(String name, String filename, InputStream stream) {
+    return new FormPart(name, filename, MediaType.APPLICATION_OCTET_STREAM, () -> stream);
+  }
+
+  /**
+   * Create part from file.
+   *
+   * @param name Name of the form parameter.
+   * @param file File holding content.
+   * @return Part.
+   */
+  public static FormPart ofFile(String name, File file) {
+    MediaType type = MediaTypeFactory.getMediaType(file.getName()).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    return new FormPart(name, file.getName(), type, () -> Files.newInputStream(file.toPath()));
+  }
+
+  /**
+   * Create part from bytes.
+   *
+   * @param name Name of the form parameter.
+   * @param filename Filename of the part.
+   * @param contentType Content type of the part.
+   * @param bytes Content.
+   * @return Part.
+   */
+  public static FormPart ofBytes(String name, String filename, MediaType contentType, byte[] bytes) {
+    return new FormPart(name, filename, contentType, () -> new ByteArrayInputStream(bytes));
+  }
+
+  /**
+   * @return the name of the form parameter.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the filename (may be null).
+   */
+  public String getFilename() {
+    return filename;
+  }
+
+  /**
+   * @return the content type.
+   */
+  public MediaType getContentType() {
+    return contentType;
+  }
+
+  /**
+   * Open content of the part.
+   *
+   * @return Stream holding content.
+   * @throws IOException Error opening content.
+   */
+  public InputStream openContent() throws IOException {
+    return content.open();
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Pooled keep-alive HTTP transport for one backend. All clients accessing the
+ * same backend share the connections, the request factory and the message
+ * converters of one transport.
+ */
+public class HttpTransport implements Closeable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(HttpTransport.class);
+
+  private final String key;
+  private final TransportConfig config;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+  private final RestTemplate restTemplate;
+  /**
+   * Templates for calls overriding the timeouts (sharing the connections).
+   */
+  private final ConcurrentMap<CallTimeouts, RestTemplate> templates = new ConcurrentHashMap<>();
+  /**
+   * Limits the number of concurrent calls to the backend.
+   */
+  private final Semaphore permits;
+  /**
+   * Rejects calls while the backend is failing.
+   */
+  private final CircuitBreaker circuitBreaker;
+  /**
+   * Number of calls rejected by bulkhead or circuit breaker.
+   */
+  private final LongAdder rejectedCalls = new LongAdder();
+
+  /**
+   * Create transport.
+   *
+   * @param key Key of the backend (base URL).
+   * @param config Settings for pool and timeouts.
+   */
+  HttpTransport(String key, TransportConfig config) {
+    LOGGER.debug("Create HTTP transport for '{}' using '{}'.", key, config);
+    this.key = key;
+    this.config = config;
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(config.getMaxTotal());
+    connectionManager.setDefaultMaxPerRoute(config.getMaxPerRoute());
+    RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(config.getConnectTimeout())
+            .setSocketTimeout(config.getReadTimeout())
+            .setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+            .build();
+    httpClient = HttpClientBuilder.create()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .evictExpiredConnections()
+            .evictIdleConnections(config.getIdleTimeout(), TimeUnit.MILLISECONDS)
+            .build();
+    HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+    configure(requestFactory, config.getConnectTimeout(), config.getReadTimeout());
+    restTemplate = new RestTemplate(requestFactory);
+    permits = new Semaphore(config.getMaxConcurrentCalls(), true);
+    circuitBreaker = new CircuitBreaker(key, config.getCircuitBreaker());
+  }
+
+  /**
+   * @return the key (base URL) of the transport.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return the settings of the transport.
+   */
+  public TransportConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * Get the shared template. The template is thread safe and must not be
+   * modified by the caller.
+   *
+   * @return Template for REST access.
+   */
+  public RestTemplate getRestTemplate() {
+    return restTemplate;
+  }
+
+  /**
+   * Get template for calls with their own timeouts. Templates are created
+   * once per distinct timeouts and share connections and message converters
+   * with the default template.
+   *
+   * @param timeouts Timeouts of the call (null for defaults).
+   * @return Template for REST access.
+   */
+  public RestTemplate getRestTemplate(CallTimeouts timeouts) {
+    if ((timeouts == null) || timeouts.isDefault()) {
+      return restTemplate;
+    }
+    return templates.computeIfAbsent(timeouts, this::createRestTemplate);
+  }
+
+  private RestTemplate createRestTemplate(CallTimeouts timeouts) {
+    LOGGER.debug("Create template for '{}' using '{}'.", key, timeouts);
+    HttpComponentsClientHttpRequestFactory requestFactory = (timeouts.getTotalTimeout() > 0)
+            ? new DeadlineRequestFactory(httpClient, timeouts.getTotalTimeout())
+            : new HttpComponentsClientHttpRequestFactory(httpClient);
+    configure(requestFactory,
+            (timeouts.getConnectTimeout() > 0) ? timeouts.getConnectTimeout() : config.getConnectTimeout(),
+            (timeouts.getReadTimeout() > 0) ? timeouts.getReadTimeout() : config.getReadTimeout());
+    RestTemplate template = new RestTemplate(restTemplate.getMessageConverters());
+    template.setRequestFactory(requestFactory);
+    template.setErrorHandler(restTemplate.getErrorHandler());
+    return template;
+  }
+
+  private void configure(HttpComponentsClientHttpRequestFactory requestFactory, int connectTimeout, int readTimeout) {
+    requestFactory.setConnectTimeout(connectTimeout);
+    requestFactory.setReadTimeout(readTimeout);
+    requestFactory.setConnectionRequestTimeout(config.getConnectionRequestTimeout());
+    // stream request bodies (chunked) instead of holding them in memory
+    requestFactory.setBufferRequestBody(false);
+  }
+
+  /**
+   * Acquire permit for a call to the backend. Calls are rejected immediately
+   * if the circuit breaker is open. If the max. number of concurrent calls is
+   * reached the call waits at most 'bulkheadWait' ms for a free slot. Each
+   * successful call has to be followed by release() and the outcome should be
+   * reported via onResult().
+   *
+   * @throws BackendUnavailableException Call was rejected.
+   * @throws InterruptedIOException Thread was interrupted while waiting.
+   */
+  public void acquire() throws IOException {
+    if (!circuitBreaker.tryAcquirePermission()) {
+      rejectedCalls.increment();
+      throw new BackendUnavailableException("Backend '" + key + "' is unavailable (circuit breaker open)!");
+    }
+    boolean acquired = false;
+    try {
+      acquired = permits.tryAcquire(config.getBulkheadWait(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for backend '" + key + "'!");
+    } finally {
+      if (!acquired) {
+        circuitBreaker.releasePermission();
+      }
+    }
+    if (!acquired) {
+      rejectedCalls.increment();
+      throw new BackendUnavailableException("Backend '" + key + "' is busy (" + config.getMaxConcurrentCalls() + " concurrent calls)!");
+    }
+  }
+
+  /**
+   * Release permit acquired before.
+   */
+  public void release() {
+    permits.release();
+  }
+
+  /**
+   * Report outcome of a call to the circuit breaker.
+   *
+   * @param failure Call failed (no response or server error).
+   * @param nanos Duration of the call in nanoseconds.
+   */
+  public void onResult(boolean failure, long nanos) {
+    circuitBreaker.onResult(failure, nanos);
+  }
+
+  /**
+   * @return the state of the circuit breaker.
+   */
+  public CircuitBreaker.State getCircuitState() {
+    return circuitBreaker.getState();
+  }
+
+  /**
+   * @return the number of calls currently running.
+   */
+  public int getActiveCalls() {
+    return config.getMaxConcurrentCalls() - permits.availablePermits();
+  }
+
+  /**
+   * @return the number of calls rejected so far.
+   */
+  public long getRejectedCalls() {
+    return rejectedCalls.sum();
+  }
+
+  @Override
+  public void close() throws IOException {
+    LOGGER.debug("Close HTTP transport for '{}'.", key);
+    httpClient.close();
+  }
+}
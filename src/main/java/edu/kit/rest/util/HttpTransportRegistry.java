@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process wide registry holding one pooled transport per backend. Backends are
+ * identified by their base URL (see 'baseUrl' of the mapping).
+ */
+public final class HttpTransportRegistry {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(HttpTransportRegistry.class);
+  /**
+   * All transports (key: base URL).
+   */
+  private static final ConcurrentMap<String, HttpTransport> TRANSPORTS = new ConcurrentHashMap<>();
+  /**
+   * Settings used for new transports.
+   */
+  private static volatile TransportConfig transportConfig = new TransportConfig();
+
+  private HttpTransportRegistry() {
+    // Utility class
+  }
+
+  /**
+   * Set settings for all transports created afterwards.
+   *
+   * @param config Settings for pool and timeouts.
+   */
+  public static void configure(TransportConfig config) {
+    LOGGER.debug("Configure HTTP transports: '{}'", config);
+    transportConfig = config;
+  }
+
+  /**
+   * Get transport for given backend. If there is no transport yet it will be
+   * created.
+   *
+   * @param baseUrl Base URL of the backend.
+   * @return Transport for backend.
+   */
+  public static HttpTransport getTransport(String baseUrl) {
+    return TRANSPORTS.computeIfAbsent(baseUrl, key -> new HttpTransport(key, transportConfig));
+  }
+
+  /**
+   * Determine key of the backend for a given URL if no base URL is available.
+   * (scheme, host and port)
+   *
+   * @param url URL of the resource.
+   * @return Key for backend.
+   */
+  public static String getKeyForUrl(String url) {
+    URI uri = URI.create(url);
+    return uri.getScheme() + "://" + uri.getRawAuthority();
+  }
+
+  /**
+   * @return all transports created so far.
+   */
+  public static Collection<HttpTransport> getTransports() {
+    return Collections.unmodifiableCollection(TRANSPORTS.values());
+  }
+
+  /**
+   * Close all transports.
+   */
+  public static void shutdown() {
+    for (String key : TRANSPORTS.keySet()) {
+      HttpTransport transport = TRANSPORTS.remove(key);
+      if (transport != null) {
+        try {
+          transport.close();
+        } catch (IOException ex) {
+          LOGGER.error("Error closing HTTP transport for '{}'!", key);
+        }
+      }
+    }
+  }
+}
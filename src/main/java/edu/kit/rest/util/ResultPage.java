@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Page of resources read from an open backend response. The body has to be a
+ * JSON array; its items are parsed one by one while iterating, so the page is
+ * never held in memory. Closing the page closes the response.
+ *
+ * @param <C> Type of the resources.
+ */
+public class ResultPage<C> implements Closeable {
+
+  private final InputStream body;
+  private final JsonParser parser;
+  private final Class<C> resourceType;
+  private final ContentRange contentRange;
+  private boolean endOfPage = false;
+
+  /**
+   * Create page.
+   *
+   * @param body Body of the response (closed with the page).
+   * @param parser Parser reading the body.
+   * @param resourceType Class of the resources.
+   * @param contentRange Range of the page (may be null).
+   * @throws IOException Body is not a JSON array.
+   */
+  ResultPage(InputStream body, JsonParser parser, Class<C> resourceType, ContentRange contentRange) throws IOException {
+    this.body = body;
+    this.parser = parser;
+    this.resourceType = resourceType;
+    this.contentRange = contentRange;
+    if (parser.nextToken() != JsonToken.START_ARRAY) {
+      throw new IOException("Response should be a JSON array!");
+    }
+  }
+
+  /**
+   * Read next resource of the page.
+   *
+   * @return Resource or null if the end of the page is reached.
+   * @throws IOException Error while reading the response.
+   */
+  public C next() throws IOException {
+    if (endOfPage) {
+      return null;
+    }
+    JsonToken token = parser.nextToken();
+    if ((token == null) || (token == JsonToken.END_ARRAY)) {
+      endOfPage = true;
+      return null;
+    }
+    return parser.readValueAs(resourceType);
+  }
+
+  /**
+   * @return the range given by the backend (null if not available).
+   */
+  public ContentRange getContentRange() {
+    return contentRange;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      parser.close();
+    } finally {
+      body.close();
+    }
+  }
+
+  /**
+   * Range of a page as given by the 'Content-Range' header, e.g. '0-19/123'
+   * or 'items 0-19/*'.
+   */
+  public static final class ContentRange {
+
+    private final long first;
+    private final long last;
+    private final long total;
+
+    private ContentRange(long first, long last, long total) {
+      this.first = first;
+      this.last = last;
+      this.total = total;
+    }
+
+    /**
+     * Parse header.
+     *
+     * @param header Value of the header (may be null).
+     * @return Range or null if header is missing or invalid.
+     */
+    public static ContentRange parse(String header) {
+      ContentRange range = null;
+      if (header != null) {
+        String value = header.trim();
+        int space = value.indexOf(' ');
+        if (space >= 0) {
+          // skip unit
+          value = value.substring(space + 1).trim();
+        }
+        int slash = value.indexOf('/');
+        String span = (slash >= 0) ? value.substring(0, slash) : value;
+        String size = (slash >= 0) ? value.substring(slash + 1) : "*";
+        int dash = span.indexOf('-');
+        try {
+          long first = (dash > 0) ? Long.parseLong(span.substring(0, dash)) : -1;
+          long last = (dash > 0) ? Long.parseLong(span.substring(dash + 1)) : -1;
+          long total = "*".equals(size) ? -1 : Long.parseLong(size);
+          range = new ContentRange(first, last, total);
+        } catch (NumberFormatException ex) {
+          range = null;
+        }
+      }
+      return range;
+    }
+
+    /**
+     * @return the index of the first resource (-1 if unknown).
+     */
+    public long getFirst() {
+      return first;
+    }
+
+    /**
+     * @return the index of the last resource (-1 if unknown).
+     */
+    public long getLast() {
+      return last;
+    }
+
+    /**
+     * @return the total number of resources (-1 if unknown).
+     */
+    public long getTotal() {
+      return total;
+    }
+  }
+}
@@ -23,8 +23,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -33,16 +37,17 @@ import java.util.UUID;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.ResponseExtractor;
@@ -75,8 +80,13 @@ public class SimpleServiceClient {
    * Key for header field holding ETag
    */
   private static final String ETAG = "ETag";
+  /**
+   * Mapper for JSON documents (thread safe).
+   */
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
-  private RestTemplate restTemplate = new RestTemplate();
+  private RestTemplate restTemplate;
+  private final HttpTransport transport;
 
   private final String resourceBaseUrl;
   private String resourcePath = null;
@@ -87,11 +97,20 @@ public class SimpleServiceClient {
   private String responseBody;
   private HttpStatus responseStatus;
 
-  MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+  /**
+   * Parts of the form. The content of the parts is streamed while sending.
+   */
+  List<FormPart> formParts = new ArrayList<>();
+  /**
+   * Parts of the form which are pulled while sending (after formParts).
+   */
+  Iterator<FormPart> lazyFormParts = null;
   MultiValueMap<String, String> queryParams = new LinkedMultiValueMap<>();
 
-  SimpleServiceClient(String resourceBaseUrl) {
+  SimpleServiceClient(HttpTransport transport, String resourceBaseUrl) {
     this.resourceBaseUrl = resourceBaseUrl;
+    this.transport = transport;
+    restTemplate = transport.getRestTemplate();
     headers = new HttpHeaders();
   }
 
@@ -106,16 +125,51 @@ public class SimpleServiceClient {
   }
 
   /**
-   * Create service client.
+   * Create service client. The client uses the pooled transport of the
+   * backend hosting the given URL.
    *
    * @param baseUrl Base URL of the service.
    * @return Service client.
    */
   public static SimpleServiceClient create(String baseUrl) {
-    SimpleServiceClient client = new SimpleServiceClient(baseUrl);
+    return create(HttpTransportRegistry.getKeyForUrl(baseUrl), baseUrl);
+  }
+
+  /**
+   * Create service client. The client is a lightweight view on the pooled
+   * transport registered for the backend.
+   *
+   * @param backendUrl Base URL of the backend (key of the transport).
+   * @param baseUrl Base URL of the service.
+   * @return Service client.
+   */
+  public static SimpleServiceClient create(String backendUrl, String baseUrl) {
+    return create(HttpTransportRegistry.getTransport(backendUrl), baseUrl);
+  }
+
+  /**
+   * Create service client using the given transport.
+   *
+   * @param transport Transport of the backend.
+   * @param baseUrl Base URL of the service.
+   * @return Service client.
+   */
+  public static SimpleServiceClient create(HttpTransport transport, String baseUrl) {
+    SimpleServiceClient client = new SimpleServiceClient(transport, baseUrl);
     return client;
   }
 
+  /**
+   * Override the timeouts of the transport for this client.
+   *
+   * @param timeouts Timeouts of the calls.
+   * @return Service client with timeouts.
+   */
+  public SimpleServiceClient withTimeouts(CallTimeouts timeouts) {
+    restTemplate = transport.getRestTemplate(timeouts);
+    return this;
+  }
+
   /**
    * Add bearer token to service client.
    *
@@ -201,25 +255,14 @@ public class SimpleServiceClient {
       throw new IllegalArgumentException("Form element key and value must not be null.");
     }
     if (object instanceof File) {
-      body.add(name, new FileSystemResource((File) object));
+      formParts.add(FormPart.ofFile(name, (File) object));
     } else if (object instanceof InputStream) {
-      body.add(name, new ByteArrayResource(IOUtils.toByteArray((InputStream) object)) {
-        //overwriting filename required by spring (see https://medium.com/@voziv/posting-a-byte-array-instead-of-a-file-using-spring-s-resttemplate-56268b45140b)
-        @Override
-        public String getFilename() {
-          return "stream#" + UUID.randomUUID().toString();
-        }
-      });
+      // content is not read before the request is sent
+      formParts.add(FormPart.ofStream(name, "stream#" + UUID.randomUUID().toString(), (InputStream) object));
     } else {
-      String metadataString = new ObjectMapper().writeValueAsString(object);
-      LOGGER.warn("Adding argument from JSON document {}.", metadataString);
-      body.add(name, new ByteArrayResource(metadataString.getBytes()) {
-        //overwriting filename required by spring (see https://medium.com/@voziv/posting-a-byte-array-instead-of-a-file-using-spring-s-resttemplate-56268b45140b)
-        @Override
-        public String getFilename() {
-          return "metadata#" + UUID.randomUUID().toString() + ".json";
-        }
-      });
+      byte[] metadata = OBJECT_MAPPER.writeValueAsBytes(object);
+      LOGGER.warn("Adding argument from JSON document {}.", new String(metadata, StandardCharsets.UTF_8));
+      formParts.add(FormPart.ofBytes(name, "metadata#" + UUID.randomUUID().toString() + ".json", MediaType.APPLICATION_JSON, metadata));
     }
     return this;
   }
@@ -238,13 +281,20 @@ public class SimpleServiceClient {
     }
     String metadataString = string;
     LOGGER.warn("Adding argument from JSON document {}.", metadataString);
-    body.add(name, new ByteArrayResource(metadataString.getBytes()) {
-      //overwriting filename required by spring (see https://medium.com/@voziv/posting-a-byte-array-instead-of-a-file-using-spring-s-resttemplate-56268b45140b)
-      @Override
-      public String getFilename() {
-        return "metadata#" + UUID.randomUUID().toString() + ".json";
-      }
-    });
+    formParts.add(FormPart.ofBytes(name, "metadata#" + UUID.randomUUID().toString() + ".json", MediaType.APPLICATION_JSON, metadataString.getBytes(StandardCharsets.UTF_8)));
+    return this;
+  }
+
+  /**
+   * Add form parameters which are pulled one by one while the form is sent.
+   * They are appended after all other form parameters. Only one iterator is
+   * supported per request.
+   *
+   * @param parts Iterator over the parameters.
+   * @return Service client.
+   */
+  public SimpleServiceClient withFormParts(Iterator<FormPart> parts) {
+    lazyFormParts = parts;
     return this;
   }
 
@@ -278,25 +328,30 @@ public class SimpleServiceClient {
     LOGGER.warn("Request returned with status {}. Returning response body.", response.getStatusCodeValue());
     return response.getBody();
   }
-//
-//  /**
-//   * Get multiple resources.
-//   *
-//   * @param <C> Type of response.
-//   * @param responseType Class of response.
-//   * @return Page holding all responses.
-//   */
-//  public <C> ResultPage<C> getResources(Class<C[]> responseType) {
-//    LOGGER.warn("Calling getResource().");
-//    String destinationUri = resourceBaseUrl + ((resourcePath != null) ? resourcePath : "");
-//    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(destinationUri).queryParams(queryParams);
-//    LOGGER.warn("Obtaining resource from resource URI {}.", uriBuilder.toUriString());
-//    ResponseEntity<C[]> response = restTemplate.exchange(uriBuilder.toUriString(), HttpMethod.GET, new HttpEntity<>(headers), responseType);
-//    LOGGER.warn("Request returned with status {}. Returning response body.", response.getStatusCodeValue());
-//    ContentRange contentRange = ControllerUtils.parseContentRangeHeader(response.getHeaders().getFirst("Content-Range"));
-//    collectResponseHeaders(response.getHeaders());
-//    return new ResultPage<>(response.getBody(), contentRange);
-//  }
+
+  /**
+   * Get multiple resources. The body of the response has to be a JSON array
+   * which is parsed while iterating over the returned page. The caller has to
+   * close the page.
+   *
+   * @param <C> Type of the resources.
+   * @param resourceType Class of the resources.
+   * @param onClose Callback executed once the page is closed (may be null).
+   * @return Page holding the resources.
+   * @throws IOException Error while sending request.
+   */
+  public <C> ResultPage<C> getResources(Class<C> resourceType, Runnable onClose) throws IOException {
+    ClientHttpResponse response = openResource();
+    BackendResponseStream body = new BackendResponseStream(response, onClose);
+    try {
+      ResultPage.ContentRange contentRange = ResultPage.ContentRange.parse(response.getHeaders().getFirst(CONTENT_RANGE));
+      return new ResultPage<>(body, OBJECT_MAPPER.getFactory().createParser(body), resourceType, contentRange);
+    } catch (IOException | RuntimeException ex) {
+      // callback is not executed as the call failed
+      response.close();
+      throw ex;
+    }
+  }
 
 //  /**
 //   * Find resource using provided example.
@@ -355,6 +410,55 @@ public class SimpleServiceClient {
     return status;
   }
 
+  /**
+   * Open resource for streaming. The body is not buffered, the caller has to
+   * close the returned response.
+   *
+   * @return Open response.
+   * @throws IOException Error while sending request.
+   */
+  public ClientHttpResponse openResource() throws IOException {
+    String sourceUri = buildUri();
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(sourceUri).queryParams(queryParams);
+    LOGGER.warn("Open stream for source URI {}.", uriBuilder.toUriString());
+    URI uri = restTemplate.getUriTemplateHandler().expand(uriBuilder.toUriString());
+    ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(uri, HttpMethod.GET);
+    request.getHeaders().addAll(headers);
+    ClientHttpResponse response = request.execute();
+    try {
+      if (restTemplate.getErrorHandler().hasError(response)) {
+        restTemplate.getErrorHandler().handleError(response);
+      }
+      responseStatus = response.getStatusCode();
+      LOGGER.warn("Request returned with status {}. Streaming response body.", responseStatus.value());
+      collectResponseHeaders(response.getHeaders());
+    } catch (IOException | RuntimeException ex) {
+      response.close();
+      throw ex;
+    }
+    return response;
+  }
+
+  /**
+   * Post JSON document (e.g. a list of resources for a bulk endpoint).
+   *
+   * @param <C> Type of response.
+   * @param body Instance to post (serialized as JSON).
+   * @param responseType Class of response.
+   * @return Response.
+   */
+  public <C> C postJson(Object body, Class<C> responseType) {
+    String destinationUri = buildUri();
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(destinationUri).queryParams(queryParams);
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    LOGGER.debug("Sending JSON to URI {}.", uriBuilder.toUriString());
+    ResponseEntity<C> response = restTemplate.exchange(uriBuilder.toUriString(), HttpMethod.POST, new HttpEntity<>(body, headers), responseType);
+    responseStatus = response.getStatusCode();
+    LOGGER.debug("Request returned with status {}.", response.getStatusCodeValue());
+    collectResponseHeaders(response.getHeaders());
+    return response.getBody();
+  }
+
   /**
    * Post resource.
    *
@@ -401,13 +505,7 @@ public class SimpleServiceClient {
     UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(destinationUri).queryParams(queryParams);
 
     LOGGER.warn("Uploading content to destination URI {}.", uriBuilder.toUriString());
-    ResponseEntity<String> response = restTemplate.postForEntity(uriBuilder.toUriString(), new HttpEntity<>(body, headers), String.class);
-    responseStatus = response.getStatusCode();
-    LOGGER.warn("Upload returned with status {}.", response.getStatusCodeValue());
-    responseBody = response.getBody();
-    collectResponseHeaders(response.getHeaders());
-    return responseStatus;
-
+    return sendForm(uriBuilder.toUriString(), HttpMethod.POST, contentType);
   }
 
   /**
@@ -440,13 +538,40 @@ public class SimpleServiceClient {
     UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(destinationUri).queryParams(queryParams);
 
     LOGGER.warn("Uploading content to destination URI {}.", uriBuilder.toUriString());
-    ResponseEntity<String> response = restTemplate.exchange(uriBuilder.toUriString(), HttpMethod.PUT, new HttpEntity<>(body, headers), String.class);
+    return sendForm(uriBuilder.toUriString(), HttpMethod.PUT, contentType);
+  }
+
+  /**
+   * Send form as multipart message. The parts are written directly to the
+   * (chunked) request body, so the content of the parts is never held in
+   * memory as a whole.
+   *
+   * @param uri URI of the request.
+   * @param method Method of the request.
+   * @param contentType Multipart content type.
+   * @return Status of the request.
+   */
+  private HttpStatus sendForm(String uri, HttpMethod method, MediaType contentType) {
+    String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    Map<String, String> parameters = new HashMap<>(contentType.getParameters());
+    parameters.put("boundary", boundary);
+    MediaType multipartType = new MediaType(contentType, parameters);
+    StreamingMultipartBody multipartBody = new StreamingMultipartBody(boundary, formParts, lazyFormParts);
+    RequestCallback requestCallback = request -> {
+      request.getHeaders().putAll(headers);
+      request.getHeaders().setContentType(multipartType);
+      if (request instanceof StreamingHttpOutputMessage) {
+        ((StreamingHttpOutputMessage) request).setBody(multipartBody::writeTo);
+      } else {
+        multipartBody.writeTo(request.getBody());
+      }
+    };
+    ResponseEntity<String> response = restTemplate.execute(uri, method, requestCallback, restTemplate.responseEntityExtractor(String.class));
     responseStatus = response.getStatusCode();
     LOGGER.warn("Upload returned with status {}.", response.getStatusCodeValue());
     responseBody = response.getBody();
     collectResponseHeaders(response.getHeaders());
     return responseStatus;
-
   }
 
   /**
@@ -657,27 +782,6 @@ public class SimpleServiceClient {
     //    }
   }
 
-//  /**
-//   * Resul page holding instance of type 'C'.
-//   * @param <C> Type of response:
-//   */
-//  @Data
-//  public static class ResultPage<C> {
-//
-//    /**
-//     *  Constructor.
-//     * @param resources Array holding all resources.
-//     * @param range Given range if numer of resources is restricted.
-//     */
-//    public ResultPage(C[] resources, ControllerUtils.ContentRange range) {
-//      this.resources = resources;
-//      this.contentRange = range;
-//    }
-//
-//    ControllerUtils.ContentRange contentRange;
-//    C[] resources;
-//  }
-//
 //  /**
 //   * Sort respose.
 //   */
@@ -738,7 +842,7 @@ public class SimpleServiceClient {
   public <C> C getResponseBody(Class<C> responseType) {
     C response = null;
     try {
-      response = new ObjectMapper().readValue(responseBody, responseType);
+      response = OBJECT_MAPPER.readValue(responseBody, responseType);
     } catch (JsonProcessingException ex) {
       LOGGER.error(null, ex);
     }
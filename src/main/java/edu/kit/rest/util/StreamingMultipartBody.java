@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Body of a multipart/form-data request which is written part by part to the
+ * (chunked) request stream. Parts are pulled lazily from an iterator, so each
+ * part may be read from its source only when it is written.
+ */
+public class StreamingMultipartBody {
+
+  /**
+   * Line separator of multipart messages.
+   */
+  private static final byte[] CRLF = {'\r', '\n'};
+  /**
+   * Prefix of boundaries.
+   */
+  private static final byte[] DASHES = {'-', '-'};
+  /**
+   * Size of the copy buffer.
+   */
+  private static final int BUFFER_SIZE = 65536;
+
+  private final byte[] boundary;
+  private final List<FormPart> parts;
+  private final Iterator<FormPart> lazyParts;
+
+  /**
+   * Create body.
+   *
+   * @param boundary Boundary of the parts.
+   * @param parts Parts written first.
+   * @param lazyParts Parts written afterwards (may be null).
+   */
+  public StreamingMultipartBody(String boundary, List<FormPart> parts, Iterator<FormPart> lazyParts) {
+    this.boundary = boundary.getBytes(StandardCharsets.US_ASCII);
+    this.parts = parts;
+    this.lazyParts = (lazyParts != null) ? lazyParts : Collections.emptyIterator();
+  }
+
+  /**
+   * Write all parts to the stream. The stream is not closed.
+   *
+   * @param out Stream of the request body.
+   * @throws IOException Error while reading/writing parts.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    for (FormPart part : parts) {
+      writePart(out, part, buffer);
+    }
+    while (lazyParts.hasNext()) {
+      writePart(out, lazyParts.next(), buffer);
+    }
+    out.write(DASHES);
+    out.write(boundary);
+    out.write(DASHES);
+    out.write(CRLF);
+    out.flush();
+  }
+
+  private void writePart(OutputStream out, FormPart part, byte[] buffer) throws IOException {
+    out.write(DASHES);
+    out.write(boundary);
+    out.write(CRLF);
+    StringBuilder header = new StringBuilder("Content-Disposition: form-data; name=\"");
+    header.append(part.getName()).append('"');
+    if (part.getFilename() != null) {
+      header.append("; filename=\"").append(part.getFilename()).append('"');
+    }
+    header.append("\r\nContent-Type: ").append(part.getContentType()).append("\r\n\r\n");
+    out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+    try (InputStream in = part.openContent()) {
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+      }
+    }
+    out.write(CRLF);
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.rest.util;
+
+/**
+ * Settings for the pooled HTTP transport used to access one backend.
+ */
+public class TransportConfig {
+
+  /**
+   * Default for max. number of connections per route.
+   */
+  public static final int DEFAULT_MAX_PER_ROUTE = 50;
+  /**
+   * Default for max. number of connections of one transport.
+   */
+  public static final int DEFAULT_MAX_TOTAL = 200;
+  /**
+   * Default timeout for establishing a connection (in ms).
+   */
+  public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+  /**
+   * Default timeout for reading from a connection (in ms).
+   */
+  public static final int DEFAULT_READ_TIMEOUT = 30000;
+  /**
+   * Default timeout for leasing a connection from the pool (in ms).
+   */
+  public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 5000;
+  /**
+   * Default time an idle connection is kept alive (in ms).
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+  /**
+   * Default for max. number of concurrent calls to one backend.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_CALLS = 50;
+  /**
+   * Default time a call waits for a free slot if the max. number of
+   * concurrent calls is reached (in ms).
+   */
+  public static final long DEFAULT_BULKHEAD_WAIT = 0;
+
+  private int maxPerRoute = DEFAULT_MAX_PER_ROUTE;
+  private int maxTotal = DEFAULT_MAX_TOTAL;
+  private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+  private int readTimeout = DEFAULT_READ_TIMEOUT;
+  private int connectionRequestTimeout = DEFAULT_CONNECTION_REQUEST_TIMEOUT;
+  private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+  private int maxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+  private long bulkheadWait = DEFAULT_BULKHEAD_WAIT;
+  private CircuitBreakerConfig circuitBreaker = new CircuitBreakerConfig();
+
+  /**
+   * @return the max. number of connections per route.
+   */
+  public int getMaxPerRoute() {
+    return maxPerRoute;
+  }
+
+  /**
+   * @param maxPerRoute the max. number of connections per route.
+   * @return this configuration.
+   */
+  public TransportConfig setMaxPerRoute(int maxPerRoute) {
+    this.maxPerRoute = maxPerRoute;
+    return this;
+  }
+
+  /**
+   * @return the max. number of connections of the transport.
+   */
+  public int getMaxTotal() {
+    return maxTotal;
+  }
+
+  /**
+   * @param maxTotal the max. number of connections of the transport.
+   * @return this configuration.
+   */
+  public TransportConfig setMaxTotal(int maxTotal) {
+    this.maxTotal = maxTotal;
+    return this;
+  }
+
+  /**
+   * @return the connect timeout (in ms).
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * @param connectTimeout the connect timeout (in ms).
+   * @return this configuration.
+   */
+  public TransportConfig setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+    return this;
+  }
+
+  /**
+   * @return the read timeout (in ms).
+   */
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * @param readTimeout the read timeout (in ms).
+   * @return this configuration.
+   */
+  public TransportConfig setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+    return this;
+  }
+
+  /**
+   * @return the timeout for leasing a pooled connection (in ms).
+   */
+  public int getConnectionRequestTimeout() {
+    return connectionRequestTimeout;
+  }
+
+  /**
+   * @param connectionRequestTimeout the timeout for leasing a pooled
+   * connection (in ms).
+   * @return this configuration.
+   */
+  public TransportConfig setConnectionRequestTimeout(int connectionRequestTimeout) {
+    this.connectionRequestTimeout = connectionRequestTimeout;
+    return this;
+  }
+
+  /**
+   * @return the time idle connections are kept before eviction (in ms).
+   */
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * @param idleTimeout the time idle connections are kept before eviction (in
+   * ms).
+   * @return this configuration.
+   */
+  public TransportConfig setIdleTimeout(long idleTimeout) {
+    this.idleTimeout = idleTimeout;
+    return this;
+  }
+
+  /**
+   * @return the max. number of concurrent calls to the backend.
+   */
+  public int getMaxConcurrentCalls() {
+    return maxConcurrentCalls;
+  }
+
+  /**
+   * @param maxConcurrentCalls the max. number of concurrent calls to the
+   * backend.
+   * @return this configuration.
+   */
+  public TransportConfig setMaxConcurrentCalls(int maxConcurrentCalls) {
+    this.maxConcurrentCalls = maxConcurrentCalls;
+    return this;
+  }
+
+  /**
+   * @return the time a call waits for a free slot (in ms).
+   */
+  public long getBulkheadWait() {
+    return bulkheadWait;
+  }
+
+  /**
+   * @param bulkheadWait the time a call waits for a free slot (in ms). If no
+   * slot gets free the call is rejected.
+   * @return this configuration.
+   */
+  public TransportConfig setBulkheadWait(long bulkheadWait) {
+    this.bulkheadWait = bulkheadWait;
+    return this;
+  }
+
+  /**
+   * @return the settings of the circuit breaker.
+   */
+  public CircuitBreakerConfig getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * @param circuitBreaker the settings of the circuit breaker.
+   * @return this configuration.
+   */
+  public TransportConfig setCircuitBreaker(CircuitBreakerConfig circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return "TransportConfig{" + "maxPerRoute=" + maxPerRoute + ", maxTotal=" + maxTotal
+            + ", connectTimeout=" + connectTimeout + ", readTimeout=" + readTimeout
+            + ", connectionRequestTimeout=" + connectionRequestTimeout + ", idleTimeout=" + idleTimeout
+            + ", maxConcurrentCalls=" + maxConcurrentCalls + ", bulkheadWait=" + bulkheadWait
+            + ", circuitBreaker=" + circuitBreaker + '}';
+  }
+}